@@ -0,0 +1,30 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.GLFWKeyEvents;
+import org.lwjgl.glfw.GLFW;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GLFWKeyEventsBenchmark {
+    private static final int[] KEYS = {GLFW.GLFW_KEY_W, GLFW.GLFW_KEY_A, GLFW.GLFW_KEY_S, GLFW.GLFW_KEY_D,
+            GLFW.GLFW_KEY_SPACE, GLFW.GLFW_KEY_ESCAPE, GLFW.GLFW_KEY_LEFT_SHIFT, GLFW.GLFW_KEY_LAST};
+    private static final int[] ACTIONS = {GLFW.GLFW_PRESS, GLFW.GLFW_REPEAT, GLFW.GLFW_RELEASE};
+    private static final int[] MODIFIERS = {0, GLFW.GLFW_MOD_CONTROL, GLFW.GLFW_MOD_SHIFT | GLFW.GLFW_MOD_ALT};
+
+    private int i;
+
+    @Benchmark
+    public boolean processKeyEvent() {
+        i++;
+        int key = KEYS[i % KEYS.length];
+        GLFWKeyEvents.processKeyEvent(key, 0, ACTIONS[i % ACTIONS.length], MODIFIERS[i % MODIFIERS.length]);
+        return GLFWKeyEvents.Keycodes.isPressed(key);
+    }
+}
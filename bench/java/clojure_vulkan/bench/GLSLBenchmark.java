@@ -0,0 +1,40 @@
+package clojure_vulkan.bench;
+
+import clojure.lang.Keyword;
+import clojure_vulkan.math.GLSL;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GLSLBenchmark {
+    private Keyword[] keywords;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keywords = new Keyword[]{
+                Keyword.intern("float"),
+                Keyword.intern("vec2"),
+                Keyword.intern("vec3"),
+                Keyword.intern("vec4"),
+                Keyword.intern("unknown")};
+    }
+
+    @Benchmark
+    public GLSL.GLSLType keywordToType() {
+        i = (i + 1) % keywords.length;
+        return GLSL.keywordToType.get(keywords[i]);
+    }
+
+    @Benchmark
+    public GLSL.GLSLType keywordToTypeInterned() {
+        i = (i + 1) % keywords.length;
+        return GLSL.keywordToType.get(Keyword.intern(keywords[i].getName()));
+    }
+}
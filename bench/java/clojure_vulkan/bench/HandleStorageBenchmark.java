@@ -0,0 +1,144 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.Vulkan.VulkanGlobalsInterfaces.VkHandleArray;
+import clojure_vulkan.Vulkan.VulkanGlobalsInterfaces.VkPointer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The handle lookups of one frame (frame, swap chain, descriptor set, framebuffer) and rebuilding the per-image
+ * handles as on swap chain recreation, in the off-heap handle arrays against the previous storage: boxed handles
+ * wrapped one by one in a synchronized {@link Vector}. Run with {@code -prof gc} to compare gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleStorageBenchmark {
+    private static final class BoxedPointer {
+        private Long pointer = 0L;
+
+        Long get() {
+            return pointer;
+        }
+
+        void set(Long pointer) {
+            this.pointer = pointer;
+        }
+    }
+
+    private static final class Slot {
+    }
+
+    @Param({"3"})
+    public int imageCount;
+
+    private int frameCounter;
+    private long[] created;
+
+    private Vector<Slot> vectorFrames;
+    private BoxedPointer boxedSwapChain;
+    private Vector<BoxedPointer> vectorDescriptorSets;
+    private Vector<BoxedPointer> vectorFrameBuffers;
+
+    private Slot[] arrayFrames;
+    private VkPointer swapChain;
+    private VkHandleArray descriptorSets;
+    private VkHandleArray frameBuffers;
+
+    private static Vector<BoxedPointer> boxed(long[] handles, int count) {
+        Vector<BoxedPointer> vector = new Vector<>();
+        for (int i = 0; i < count; i++) {
+            BoxedPointer pointer = new BoxedPointer();
+            pointer.set(handles[i]);
+            vector.add(pointer);
+        }
+        return vector;
+    }
+
+    private static VkHandleArray handles(long[] handles, int count) {
+        VkHandleArray array = new VkHandleArray() {
+        };
+        array.allocate(count);
+        for (int i = 0; i < count; i++)
+            array.put(i, handles[i]);
+        return array;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        created = random.longs(2 * imageCount + 1, 1L << 20, 1L << 40).toArray();
+        long[] descriptorSetHandles = random.longs(2, 1L << 20, 1L << 40).toArray();
+
+        vectorFrames = new Vector<>();
+        arrayFrames = new Slot[2];
+        for (int i = 0; i < 2; i++) {
+            vectorFrames.add(new Slot());
+            arrayFrames[i] = vectorFrames.get(i);
+        }
+        boxedSwapChain = new BoxedPointer();
+        boxedSwapChain.set(created[0]);
+        vectorDescriptorSets = boxed(descriptorSetHandles, 2);
+        vectorFrameBuffers = boxed(created, imageCount);
+
+        swapChain = new VkPointer() {
+        };
+        swapChain.set(created[0]);
+        descriptorSets = handles(descriptorSetHandles, 2);
+        frameBuffers = handles(created, imageCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        descriptorSets.free();
+        frameBuffers.free();
+    }
+
+    @Benchmark
+    public long frameVector() {
+        int slot = frameCounter = (frameCounter + 1) % 2;
+        int image = slot % imageCount;
+        return System.identityHashCode(vectorFrames.elementAt(slot))
+               + boxedSwapChain.get()
+               + vectorDescriptorSets.elementAt(slot).get()
+               + vectorFrameBuffers.elementAt(image).get();
+    }
+
+    @Benchmark
+    public long frameHandleArray() {
+        int slot = frameCounter = (frameCounter + 1) % 2;
+        int image = slot % imageCount;
+        return System.identityHashCode(arrayFrames[slot])
+               + swapChain.get()
+               + descriptorSets.get(slot)
+               + frameBuffers.get(image);
+    }
+
+    @Benchmark
+    public Vector<BoxedPointer> rebuildVector() {
+        Vector<Long> handles = new Vector<>();
+        for (int i = 0; i < imageCount; i++)
+            handles.add(created[i + 1]);
+        Vector<BoxedPointer> vector = new Vector<>();
+        for (Long handle : handles) {
+            BoxedPointer pointer = new BoxedPointer();
+            pointer.set(handle);
+            vector.add(pointer);
+        }
+        return vector;
+    }
+
+    @Benchmark
+    public long rebuildHandleArray() {
+        frameBuffers.allocate(imageCount);
+        for (int i = 0; i < imageCount; i++)
+            frameBuffers.put(i, created[i + 1]);
+        return frameBuffers.get(imageCount - 1);
+    }
+}
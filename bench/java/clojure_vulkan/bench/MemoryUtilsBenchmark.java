@@ -0,0 +1,136 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.MemoryUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-element {@code ByteBuffer.putX} loops (the previous implementation) against the bulk copy paths
+ * in {@link MemoryUtils}, for payloads from 1 KB to 256 MB. Compare the {@code bytes} param with the score
+ * to get throughput in bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-XX:MaxDirectMemorySize=2g"})
+public class MemoryUtilsBenchmark {
+    @Param({"1024", "65536", "1048576", "16777216", "268435456"})
+    public int bytes;
+
+    private float[] floats;
+    private short[] shorts;
+    private int[] ints;
+    private long[] longs;
+    private byte[] byteArray;
+    private ByteBuffer source;
+    private ByteBuffer dest;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        floats = new float[bytes / Float.BYTES];
+        shorts = new short[bytes / Short.BYTES];
+        ints = new int[bytes / Integer.BYTES];
+        longs = new long[bytes / Long.BYTES];
+        byteArray = new byte[bytes];
+        for (int i = 0; i < floats.length; i++)
+            floats[i] = i;
+        source = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        dest = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    @Benchmark
+    public ByteBuffer floatsLoop() {
+        dest.clear();
+        for (float f : floats)
+            dest.putFloat(f);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer floatsBulk() {
+        dest.clear();
+        MemoryUtils.memcpyFloats(dest, floats);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer shortsLoop() {
+        dest.clear();
+        for (short s : shorts)
+            dest.putShort(s);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer shortsBulk() {
+        dest.clear();
+        MemoryUtils.memcpyShorts(dest, shorts);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer integersLoop() {
+        dest.clear();
+        for (int i : ints)
+            dest.putInt(i);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer integersBulk() {
+        dest.clear();
+        MemoryUtils.memcpyIntegers(dest, ints);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer longsLoop() {
+        dest.clear();
+        for (long l : longs)
+            dest.putLong(l);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer longsBulk() {
+        dest.clear();
+        MemoryUtils.memcpyLongs(dest, longs);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer bytesLoop() {
+        dest.clear();
+        for (byte b : byteArray)
+            dest.put(b);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer bytesBulk() {
+        dest.clear();
+        MemoryUtils.memcpyBytes(dest, byteArray);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer byteBufferPut() {
+        dest.clear();
+        source.limit(bytes);
+        dest.put(source);
+        source.limit(source.capacity()).rewind();
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer byteBufferMemCopy() {
+        dest.clear();
+        MemoryUtils.memCpyByteBuffer(dest, source, bytes);
+        return dest;
+    }
+}
@@ -0,0 +1,59 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.MipChain;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mip chain generation of square RGBA8 images on one thread against the common fork-join pool. The whole chain
+ * is 4/3 of level 0, so texels per second is {@code 4 * size * size / 3} divided by the score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:MaxDirectMemorySize=2g"})
+public class MipChainBenchmark {
+    @Param({"1024", "2048", "4096", "8192"})
+    public int size;
+
+    private ByteBuffer chain;
+    private ForkJoinPool singleThread;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chain = MemoryUtil.memAlloc((int) MipChain.chainSize(size, size));
+        byte[] row = new byte[4 * size];
+        Random random = new Random(42);
+        for (int y = 0; y < size; y++) {
+            random.nextBytes(row);
+            chain.put(row);
+        }
+        chain.clear();
+        singleThread = new ForkJoinPool(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MemoryUtil.memFree(chain);
+        singleThread.shutdown();
+    }
+
+    @Benchmark
+    public ByteBuffer sequential() {
+        MipChain.generate(MemoryUtil.memAddress(chain), size, size, singleThread);
+        return chain;
+    }
+
+    @Benchmark
+    public ByteBuffer forkJoin() {
+        MipChain.generate(MemoryUtil.memAddress(chain), size, size, ForkJoinPool.commonPool());
+        return chain;
+    }
+}
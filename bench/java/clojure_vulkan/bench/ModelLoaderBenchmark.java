@@ -0,0 +1,69 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.ModelLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of a grid of {@code size * size} vertices from an OBJ file, Assimp's parsing included, with the layout of
+ * {@code shader.vert}. Every face has its own corners in Assimp's scene, so about six imported vertices are merged
+ * into each unique one. The {@code vertices} counter is the throughput in imported vertices per second; run with
+ * {@code -prof gc} to see that the heap allocation per load doesn't grow with the model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelLoaderBenchmark {
+    @Param({"100", "300", "1000"})
+    public int size;
+
+    private Path file;
+    private ModelLoader loader;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long vertices;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("grid", ".obj");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++)
+                    out.println("v " + x + " " + y + " 0");
+            for (int y = 0; y < size - 1; y++)
+                for (int x = 0; x < size - 1; x++) {
+                    int v = 1 + x + y * size;
+                    out.println("f " + v + " " + (v + 1) + " " + (v + size + 1) + " " + (v + size));
+                }
+        }
+        loader = new ModelLoader(new ModelLoader.Attribute[]{
+                new ModelLoader.Attribute(ModelLoader.Source.POSITION, 3),
+                new ModelLoader.Attribute(ModelLoader.Source.COLOR, 3),
+                new ModelLoader.Attribute(ModelLoader.Source.TEX_COORD, 2)});
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        loader.free();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public ModelLoader.Stats load(Counters counters) {
+        ModelLoader.Stats stats = loader.load(file.toString(), mesh -> {
+        });
+        counters.vertices += stats.importedVertices();
+        return stats;
+    }
+}
@@ -0,0 +1,129 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.Vulkan.ParallelRecorder;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Recording time of a draw list against the number of recording threads. Needs a Vulkan driver; meant for lavapipe
+ * (Mesa's software rasterizer), which is picked over other devices:
+ * {@code VK_ICD_FILENAMES=/usr/share/vulkan/icd.d/lvp_icd.x86_64.json}. Without a render pass or pipeline, each
+ * draw is stood in for by the state commands around one (push constants, viewport and scissor), which cost about as
+ * much to encode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelRecorderBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1000", "10000", "100000"})
+    public int draws;
+
+    private VkInstance instance;
+    private VkDevice device;
+    private long pipelineLayout;
+    private ParallelRecorder recorder;
+    private ParallelRecorder.DrawRange range;
+
+    private static void check(int result, String message) {
+        if (result != VK_SUCCESS)
+            throw new RuntimeException(message);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer instancePtr = stack.mallocPointer(1);
+            check(vkCreateInstance(VkInstanceCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pApplicationInfo(VkApplicationInfo.calloc(stack)
+                            .sType$Default()
+                            .apiVersion(VK_API_VERSION_1_1)), null, instancePtr), "Failed to create instance.");
+            instance = new VkInstance(instancePtr.get(0), VkInstanceCreateInfo.calloc(stack).sType$Default());
+
+            IntBuffer count = stack.mallocInt(1);
+            vkEnumeratePhysicalDevices(instance, count, null);
+            if (count.get(0) == 0)
+                throw new RuntimeException("No Vulkan device.");
+            PointerBuffer devices = stack.mallocPointer(count.get(0));
+            vkEnumeratePhysicalDevices(instance, count, devices);
+            VkPhysicalDevice physicalDevice = new VkPhysicalDevice(devices.get(0), instance);
+            VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.malloc(stack);
+            for (int i = 0; i < devices.capacity(); i++) {
+                VkPhysicalDevice candidate = new VkPhysicalDevice(devices.get(i), instance);
+                vkGetPhysicalDeviceProperties(candidate, properties);
+                if (properties.deviceType() == VK_PHYSICAL_DEVICE_TYPE_CPU)
+                    physicalDevice = candidate;
+            }
+
+            vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, count, null);
+            VkQueueFamilyProperties.Buffer families = VkQueueFamilyProperties.malloc(count.get(0), stack);
+            vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, count, families);
+            int graphicsFamily = 0;
+            while ((families.get(graphicsFamily).queueFlags() & VK_QUEUE_GRAPHICS_BIT) == 0)
+                graphicsFamily++;
+
+            PointerBuffer devicePtr = stack.mallocPointer(1);
+            check(vkCreateDevice(physicalDevice, VkDeviceCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pQueueCreateInfos(VkDeviceQueueCreateInfo.calloc(1, stack)
+                            .sType$Default()
+                            .queueFamilyIndex(graphicsFamily)
+                            .pQueuePriorities(stack.floats(1.0f))), null, devicePtr), "Failed to create device.");
+            device = new VkDevice(devicePtr.get(0), physicalDevice, VkDeviceCreateInfo.calloc(stack).sType$Default());
+
+            LongBuffer layoutPtr = stack.mallocLong(1);
+            check(vkCreatePipelineLayout(device, VkPipelineLayoutCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pPushConstantRanges(VkPushConstantRange.calloc(1, stack)
+                            .stageFlags(VK_SHADER_STAGE_VERTEX_BIT)
+                            .offset(0)
+                            .size(16 * Float.BYTES)), null, layoutPtr), "Failed to create pipeline layout.");
+            pipelineLayout = layoutPtr.get(0);
+
+            recorder = new ParallelRecorder(device, graphicsFamily, threads, 1);
+        }
+        range = (commands, from, to) -> {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer model = stack.mallocFloat(16);
+                VkViewport.Buffer viewport = VkViewport.calloc(1, stack).width(800).height(600).maxDepth(1);
+                VkRect2D.Buffer scissor = VkRect2D.calloc(1, stack);
+                scissor.extent().set(800, 600);
+                for (int i = from; i < to; i++) {
+                    model.put(12, i);
+                    vkCmdPushConstants(commands, pipelineLayout, VK_SHADER_STAGE_VERTEX_BIT, 0, model);
+                    vkCmdSetViewport(commands, 0, viewport);
+                    vkCmdSetScissor(commands, 0, scissor);
+                }
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recorder.free();
+        vkDestroyPipelineLayout(device, pipelineLayout, null);
+        vkDestroyDevice(device, null);
+        vkDestroyInstance(instance, null);
+    }
+
+    @Benchmark
+    public ParallelRecorder record() {
+        recorder.record(0, VK_NULL_HANDLE, 0, draws, range);
+        return recorder;
+    }
+}
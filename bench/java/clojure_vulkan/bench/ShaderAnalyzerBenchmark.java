@@ -0,0 +1,53 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.ShaderAnalyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShaderAnalyzerBenchmark {
+    /**
+     * "shader.vert" analyzes the real vertex shader, a number generates a shader of about that many bytes
+     * of in/out declarations, uniform blocks and comments.
+     */
+    @Param({"shader.vert", "1048576"})
+    public String source;
+
+    private String src;
+
+    static String generateShader(int bytes) {
+        StringBuilder sb = new StringBuilder("#version 450\n\n");
+        for (int i = 0; sb.length() < bytes; i++) {
+            switch (i % 4) {
+                case 0 -> sb.append("layout (location = ").append(i).append(") in vec4 attr").append(i).append(";\n");
+                case 1 -> sb.append("layout(location=").append(i).append(") flat out ivec2 varying").append(i).append("[2];\n");
+                case 2 -> sb.append("// layout (location = ").append(i).append(") in vec3 commented;\n");
+                default -> sb.append("layout (std140, binding = ").append(i)
+                        .append(") uniform Block").append(i).append(" {\n    mat4 model;\n    vec4 color;\n} block").append(i).append(";\n");
+            }
+        }
+        sb.append("\nvoid main() {\n}\n");
+        return sb.toString();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        src = source.endsWith(".vert") || source.endsWith(".frag")
+                ? Files.readString(Path.of("resources/shaders/sources", source))
+                : generateShader(Integer.parseInt(source));
+    }
+
+    @Benchmark
+    public Object analyze() {
+        return ShaderAnalyzer.analyze(src);
+    }
+}
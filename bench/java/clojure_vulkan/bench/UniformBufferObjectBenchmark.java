@@ -0,0 +1,68 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.MemoryUtils;
+import clojure_vulkan.ShaderAnalyzer;
+import clojure_vulkan.UniformBufferObject;
+import clojure_vulkan.UniformWriter;
+import org.joml.Matrix4f;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniformBufferObjectBenchmark {
+    private static final int UBO_SIZE = 3 * 16 * Float.BYTES;
+
+    private ByteBuffer dest;
+    private UniformBufferObject ubo;
+    private Matrix4f model, view, projection;
+    private UniformWriter writer;
+    private int modelField, viewField, projectionField;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        dest = ByteBuffer.allocateDirect(UBO_SIZE).order(ByteOrder.nativeOrder());
+        model = new Matrix4f().rotateZ(1.0f);
+        view = new Matrix4f().lookAt(0, -0.1f, -1.5f, 0, 0, 0, 0, 0, 1);
+        projection = new Matrix4f().perspective((float) Math.toRadians(45), -4.0f / 3.0f, 0.1f, 10.0f, true);
+        ubo = new UniformBufferObject(model, view, projection);
+        writer = UniformWriter.create(ShaderAnalyzer.analyze(
+                "layout (binding = 0) uniform UniformBufferObject { mat4 model; mat4 view; mat4 projection; } mvp;").get(0));
+        modelField = writer.field("model");
+        viewField = writer.field("view");
+        projectionField = writer.field("projection");
+    }
+
+    @Benchmark
+    public ByteBuffer copyInfoByteBuffer() {
+        ubo.copyInfoByteBuffer(dest);
+        return dest;
+    }
+
+    @Benchmark
+    public ByteBuffer uniformWriter() {
+        writer.put(dest, 0, modelField, model);
+        writer.put(dest, 0, viewField, view);
+        writer.put(dest, 0, projectionField, projection);
+        return dest;
+    }
+
+    /**
+     * What {@code uniform/update-uniform-buffer} used to do every frame: build the matrices and the UBO, then copy.
+     */
+    @Benchmark
+    public ByteBuffer buildAndCopy() {
+        Matrix4f model = new Matrix4f().rotate(1.0f, 0, 0, 1);
+        Matrix4f view = new Matrix4f().lookAt(0, -0.1f, -1.5f, 0, 0, 0, 0, 0, 1);
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(45), -4.0f / 3.0f, 0.1f, 10.0f, true);
+        MemoryUtils.memcpyUBO(dest, new UniformBufferObject(model, view, projection));
+        return dest;
+    }
+}
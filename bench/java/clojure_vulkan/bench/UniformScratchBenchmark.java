@@ -0,0 +1,48 @@
+package clojure_vulkan.bench;
+
+import clojure_vulkan.ShaderAnalyzer;
+import clojure_vulkan.UniformWriter;
+import clojure_vulkan.Vulkan.RingAllocator;
+import clojure_vulkan.Vulkan.UniformScratch;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame uniform update. Run with {@code -prof gc}: gc.alloc.rate.norm should be ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniformScratchBenchmark {
+    @Param({"1", "1000"})
+    public int objectCount;
+
+    private UniformScratch scratch;
+    private UniformWriter writer;
+    private ByteBuffer dest;
+    private RingAllocator ring;
+    private double time;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        scratch = new UniformScratch();
+        writer = UniformWriter.create(ShaderAnalyzer.analyze(
+                "layout (binding = 0) uniform UniformBufferObject { mat4 model; mat4 view; mat4 projection; } mvp;").get(0));
+        int stride = (int) RingAllocator.alignUp(writer.size(), 256);
+        dest = ByteBuffer.allocateDirect(objectCount * stride).order(ByteOrder.nativeOrder());
+        ring = new RingAllocator(dest.capacity(), 256);
+    }
+
+    @Benchmark
+    public ByteBuffer update() {
+        time += 1.0 / 144;
+        scratch.update(writer, dest, ring, objectCount, time, 800, 600);
+        return dest;
+    }
+}
@@ -71,4 +71,10 @@
   :dependencies ~all-dependencies
   :java-source-paths ["src/java"]
   :jvm-opts ^:replace ~(jvm-opts)
-  :repl-options {:init-ns clojure-vulkan.core})
\ No newline at end of file
+  :repl-options {:init-ns clojure-vulkan.core}
+  :profiles {:bench {:java-source-paths ["bench/java"]
+                     :dependencies      [[org.openjdk.jmh/jmh-core "1.37"]
+                                         [org.openjdk.jmh/jmh-generator-annprocess "1.37"]]}}
+  ;; `lein bench [regexp] [jmh-options]`; results are written to target/jmh-result.json
+  :aliases {"bench" ["with-profile" "+bench" "run" "-m" "org.openjdk.jmh.Main"
+                     "-prof" "gc" "-rf" "json" "-rff" "target/jmh-result.json"]})
\ No newline at end of file
@@ -1,13 +1,16 @@
 (ns clojure-vulkan.command-buffers
-  (:require [clojure-vulkan.globals :refer [INDEX-BUFFER VERTEX-BUFFER]]
-            [clojure-vulkan.util :as util]
-            [clojure-vulkan.vertex :as vertex])
-  (:import (clojure_vulkan.Vulkan Buffer VulkanGlobals)
-           (java.util Collection Vector)
+  (:require [clojure-vulkan.globals :as globals :refer [*config* DRAW-BATCHER MULTI-DRAW-INDIRECT RECORDER VERTEX-BUFFER
+                                                          WIDE-INDEX-BUFFER]]
+            [clojure-vulkan.mesh :as mesh]
+            [clojure-vulkan.uniform :as uniform]
+            [clojure-vulkan.util :as util])
+  (:import (clojure_vulkan.Vulkan Buffer DrawBatcher Frame MeshRegistry$Mesh ParallelRecorder ParallelRecorder$DrawRange VulkanGlobals)
+           (java.nio IntBuffer)
+           (java.util.function IntFunction)
            (org.lwjgl.system MemoryStack)
            (org.lwjgl.vulkan VK13 VkClearColorValue VkClearValue VkCommandBuffer
-                             VkCommandBufferAllocateInfo VkCommandBufferBeginInfo VkCommandPoolCreateInfo VkOffset2D
-                             VkRect2D VkRect2D$Buffer VkRenderPassBeginInfo VkViewport VkViewport$Buffer)))
+                             VkCommandBufferAllocateInfo VkCommandBufferBeginInfo VkCommandPoolCreateInfo VkExtent2D
+                             VkOffset2D VkRect2D VkRenderPassBeginInfo VkViewport)))
 
 (defn create-command-pool []
   (util/with-memory-stack-push ^MemoryStack stack
@@ -22,60 +25,126 @@
         (.set VulkanGlobals/COMMAND_POOL (.get command-pool-ptr 0))
         (throw (RuntimeException. "Failed to create command pool."))))))
 
-(defn record-command-buffer [{:keys [^VkCommandBuffer command-buffer
-                                     ^VkCommandBufferBeginInfo command-buffer-begin-info
-                                     ^VkRenderPassBeginInfo render-pass-begin-info
-                                     ^VkRect2D$Buffer scissor-buffers
-                                     ^MemoryStack stack
-                                     swap-chain-frame-buffer-pointer
-                                     ^VkViewport$Buffer viewports-buffer
-                                     command-buffer-index]}]
+(defn create-recorder
+  "With more than one `:recording-threads`, the draws are recorded in parallel into secondary command buffers."
+  []
+  (let [threads (:recording-threads *config* 1)]
+    (when (< 1 threads)
+      (globals/set-global! RECORDER (ParallelRecorder. (VulkanGlobals/getLogicalDevice)
+                                                       (.graphicsFamily VulkanGlobals/QUEUE_FAMILIES)
+                                                       threads
+                                                       (Frame/framesInFlight))))))
+
+(defn- draw-list
+  "The draws of a frame. In the dynamic mode, one per object, each drawing the scene's first mesh with its own
+  dynamic offset. Otherwise the indirect draws of the slot's indirect buffer: with multiDrawIndirect, all of its
+  commands in one draw, the ones beyond the frame's draw list being empty. Without it, only the commands recorded by
+  the draw batcher, each in a draw of its own. Read on the calling thread, since the recording threads don't see its
+  bindings."
+  []
+  (cond (uniform/dynamic?)
+        (let [mesh (first @mesh/scene)]
+          {:draw-count (if mesh (uniform/object-count) 0)
+           :stride     (uniform/stride)
+           :mesh       mesh})
+
+        MULTI-DRAW-INDIRECT
+        {:draw-count  (.capacity DRAW-BATCHER)
+         :multi-draw? true}
+
+        :else
+        {:draw-count (max (.recorded DRAW-BATCHER 0) (.recorded DRAW-BATCHER 1))
+         :recorded   [(.recorded DRAW-BATCHER 0) (.recorded DRAW-BATCHER 1)]}))
+
+(defn record-draws
+  "Records the draws [from, to) together with all the state they need, so they may start a secondary command
+  buffer as well."
+  [^VkCommandBuffer command-buffer slot {:keys [stride ^MeshRegistry$Mesh mesh multi-draw? recorded]} from to]
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [^VkExtent2D extent (.get VulkanGlobals/SWAP_CHAIN_EXTENT)
+          viewports-buffer (doto (VkViewport/calloc 1 stack)
+                             (.x (float 0))
+                             (.y (float (.height extent))) ; ESSENTIAL FOR Y-AXIS VIEWPORT FLIPPING
+                             (.width (float (.width extent)))
+                             (.height (float (- (.height extent)))) ; ESSENTIAL FOR Y-AXIS VIEWPORT FLIPPING
+                             (.minDepth (float 0))
+                             (.maxDepth (float 1)))
+          scissor-buffers (doto (VkRect2D/calloc 1 stack)
+                            (.offset (.set (VkOffset2D/calloc stack) 0 0))
+                            (.extent extent))
+          descriptor-sets (.longs stack (.get VulkanGlobals/DESCRIPTOR_SET_POINTERS (int slot)))
+          bind-descriptor-sets (fn [dynamic-offsets]
+                                 (VK13/vkCmdBindDescriptorSets command-buffer
+                                                               VK13/VK_PIPELINE_BIND_POINT_GRAPHICS
+                                                               (.get VulkanGlobals/PIPELINE_LAYOUT_POINTER)
+                                                               0
+                                                               descriptor-sets
+                                                               ^IntBuffer dynamic-offsets))]
+      (VK13/vkCmdBindPipeline command-buffer VK13/VK_PIPELINE_BIND_POINT_GRAPHICS (.get VulkanGlobals/GRAPHICS_PIPELINE_POINTER)) ; graphics or compute pipeline?
+      (VK13/vkCmdSetViewport command-buffer 0 viewports-buffer)
+      (VK13/vkCmdSetScissor command-buffer 0 scissor-buffers)
+      (VK13/vkCmdBindVertexBuffers command-buffer 0 (.longs stack (.bufferPointer VERTEX-BUFFER)) (.longs stack 0))
+      (if stride
+        (let [dynamic-offsets (.mallocInt stack 1)]
+          (mesh/bind-index-buffer command-buffer (.wideIndices mesh))
+          (loop [i (long from)]
+            (when (< i (long to))
+              (.put dynamic-offsets 0 (int (* i (long stride))))
+              (bind-descriptor-sets dynamic-offsets)
+              (VK13/vkCmdDrawIndexed command-buffer (.indexCount mesh)
+                                     #_instance-count 1
+                                     (.firstIndex mesh)
+                                     (.vertexOffset mesh)
+                                     #_first-instance 0)
+              (recur (inc i)))))
+        (let [indirect-buffer (.bufferPointer ^Buffer (.get VulkanGlobals/INDIRECT_BUFFERS (int slot)))]
+          (bind-descriptor-sets nil)
+          (doseq [wide? (if WIDE-INDEX-BUFFER [false true] [false])
+                  :let [base (if wide? (.wideOffset DRAW-BATCHER) 0)]]
+            (mesh/bind-index-buffer command-buffer wide?)
+            (if multi-draw?
+              (when (< (long from) (long to))
+                (VK13/vkCmdDrawIndexedIndirect command-buffer indirect-buffer (+ base (* (long from) DrawBatcher/COMMAND_BYTES))
+                                               (- (long to) (long from)) DrawBatcher/COMMAND_BYTES))
+              (let [to (min (long to) (long (recorded (if wide? 1 0))))]
+                (loop [i (long from)]
+                  (when (< i to)
+                    (VK13/vkCmdDrawIndexedIndirect command-buffer indirect-buffer (+ base (* i DrawBatcher/COMMAND_BYTES))
+                                                   1 DrawBatcher/COMMAND_BYTES)
+                    (recur (inc i))))))))))))
+
+(defn record-command-buffer
+  "Records the render pass into the framebuffer, with the draws inline or, with a `RECORDER`, by executing the
+  slot's secondary command buffers."
+  [{:keys [^VkCommandBuffer command-buffer
+           ^VkCommandBufferBeginInfo command-buffer-begin-info
+           ^VkRenderPassBeginInfo render-pass-begin-info
+           swap-chain-frame-buffer-pointer
+           draws
+           slot]}]
   (when (not= (VK13/vkBeginCommandBuffer command-buffer command-buffer-begin-info)
               VK13/VK_SUCCESS)
     (throw (RuntimeException. "Failed to begin recording command buffer.")))
   (.framebuffer render-pass-begin-info swap-chain-frame-buffer-pointer)
-  (VK13/vkCmdBeginRenderPass command-buffer render-pass-begin-info VK13/VK_SUBPASS_CONTENTS_INLINE)
-  (VK13/vkCmdBindPipeline command-buffer VK13/VK_PIPELINE_BIND_POINT_GRAPHICS (.get VulkanGlobals/GRAPHICS_PIPELINE_POINTER)) ; graphics or compute pipeline?
-  (VK13/vkCmdSetViewport command-buffer 0 viewports-buffer)
-  (VK13/vkCmdSetScissor command-buffer 0 scissor-buffers)
-  (let [vertex-buffers (.longs stack (.bufferPointer VERTEX-BUFFER))
-        offsets (.longs stack 0)]
-    (VK13/vkCmdBindVertexBuffers command-buffer 0 vertex-buffers offsets))
-  (VK13/vkCmdBindIndexBuffer command-buffer (.bufferPointer ^Buffer INDEX-BUFFER) 0 VK13/VK_INDEX_TYPE_UINT16) ;; short
-  (VK13/vkCmdBindDescriptorSets command-buffer
-                                VK13/VK_PIPELINE_BIND_POINT_GRAPHICS
-                                (.get VulkanGlobals/PIPELINE_LAYOUT_POINTER)
-                                0
-                                (.longs stack ^long (.get (VulkanGlobals/DESCRIPTOR_SET_POINTERS) command-buffer-index))
-                                nil)
-  (VK13/vkCmdDrawIndexed command-buffer (count vertex/indices)
-                         #_instance-count 1
-                         #_first-index 0
-                         #_vertex-offset 0
-                         #_first-instance 0)
+  (if RECORDER
+    (do (VK13/vkCmdBeginRenderPass command-buffer render-pass-begin-info VK13/VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS)
+        (.execute RECORDER command-buffer slot))
+    (do (VK13/vkCmdBeginRenderPass command-buffer render-pass-begin-info VK13/VK_SUBPASS_CONTENTS_INLINE)
+        (record-draws command-buffer slot draws 0 (:draw-count draws))))
   (VK13/vkCmdEndRenderPass command-buffer)
   (when (not= (VK13/vkEndCommandBuffer command-buffer)
               VK13/VK_SUCCESS)
     (throw (RuntimeException. "Failed to record command buffer."))))
 
-(defn create-command-buffers []
+(defn record-command-buffers
+  "Re-records the allocated command buffers; the pool resets them implicitly on begin. Only safe while the GPU
+  doesn't execute any of them."
+  []
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [command-buffers-count 3
-          command-buffer-allocate-info (doto (VkCommandBufferAllocateInfo/calloc stack)
-                                         (.sType VK13/VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO)
-                                         (.commandPool (.get VulkanGlobals/COMMAND_POOL))
-                                         (.level VK13/VK_COMMAND_BUFFER_LEVEL_PRIMARY)
-                                         (.commandBufferCount command-buffers-count))
-          command-buffers-ptr (.mallocPointer stack command-buffers-count)
+    (let [draws (draw-list)
           render-area (doto (VkRect2D/calloc stack)
                         (.offset (.set (VkOffset2D/calloc stack) 0 0))
                         (.extent (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))
-          _ (if (= (VK13/vkAllocateCommandBuffers (VulkanGlobals/getLogicalDevice) command-buffer-allocate-info command-buffers-ptr)
-                   VK13/VK_SUCCESS)
-              (.set VulkanGlobals/COMMAND_BUFFERS
-                    (Vector. ^Collection (mapv #(VkCommandBuffer. (.get command-buffers-ptr ^int %) (VulkanGlobals/getLogicalDevice))
-                                               (range command-buffers-count))))
-              (throw (RuntimeException. "Failed to allocate command buffers.")))
           command-buffer-begin-info (doto (VkCommandBufferBeginInfo/calloc stack)
                                       (.sType VK13/VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO)
                                       (.flags 0)
@@ -83,28 +152,63 @@
                                       )
           clear-values (VkClearValue/calloc 1 stack)
           _ (.float32 ^VkClearColorValue (.color clear-values) (.floats stack 0 0 0 1))
-          viewports-buffer (doto (VkViewport/calloc 1 stack)
-                             (.x (float 0))
-                             (.y (float (.height (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))) ; ESSENTIAL FOR Y-AXIS VIEWPORT FLIPPING
-                             (.width (float (.width (.get VulkanGlobals/SWAP_CHAIN_EXTENT))))
-                             (.height (float (- (.height (.get VulkanGlobals/SWAP_CHAIN_EXTENT))))) ; ESSENTIAL FOR Y-AXIS VIEWPORT FLIPPING
-                             (.minDepth (float 0))
-                             (.maxDepth (float 1)))
           render-pass-begin-info (doto (VkRenderPassBeginInfo/calloc stack)
                                    (.sType VK13/VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
                                    (.renderPass (.get VulkanGlobals/RENDER_PASS_POINTER))
                                    (.renderArea render-area)
                                    (.clearValueCount 1)
-                                   (.pClearValues clear-values))
-          scissor-buffers (doto (VkRect2D/calloc 1 stack)
-                            (.offset (.set (VkOffset2D/calloc stack) 0 0))
-                            (.extent (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))]
-      (dotimes [i command-buffers-count]
-        (record-command-buffer {:command-buffer                  (.get VulkanGlobals/COMMAND_BUFFERS i)
-                                :command-buffer-begin-info       command-buffer-begin-info
-                                :render-pass-begin-info          render-pass-begin-info
-                                :scissor-buffers                 scissor-buffers
-                                :swap-chain-frame-buffer-pointer (.get VulkanGlobals/SWAP_CHAIN_FRAME_BUFFER_POINTERS i)
-                                :viewports-buffer                viewports-buffer
-                                :stack                           stack
-                                :command-buffer-index            i})))))
\ No newline at end of file
+                                   (.pClearValues clear-values))]
+      (dotimes [slot (.size VulkanGlobals/COMMAND_BUFFERS)]
+        (let [^objects command-buffers (.get VulkanGlobals/COMMAND_BUFFERS slot)]
+          (when RECORDER
+            (.record RECORDER slot (.get VulkanGlobals/RENDER_PASS_POINTER) 0 (:draw-count draws)
+                     (reify ParallelRecorder$DrawRange
+                       (record [_ secondary from to]
+                         (record-draws secondary slot draws from to)))))
+          (dotimes [i (alength command-buffers)]
+            (record-command-buffer {:command-buffer                  (aget command-buffers i)
+                                    :command-buffer-begin-info       command-buffer-begin-info
+                                    :render-pass-begin-info          render-pass-begin-info
+                                    :swap-chain-frame-buffer-pointer (.get VulkanGlobals/SWAP_CHAIN_FRAME_BUFFER_POINTERS i)
+                                    :draws                           draws
+                                    :slot                            slot})))))))
+
+(defn create-command-buffers
+  "Allocates and records a command buffer for each swap chain image in each frame slot: a slot's buffers bind
+  its own descriptor set, and are only resubmitted after that slot's fence has been waited on."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [image-count (.size VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS)
+          command-buffers-count (* (Frame/framesInFlight) image-count)
+          command-buffer-allocate-info (doto (VkCommandBufferAllocateInfo/calloc stack)
+                                         (.sType VK13/VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO)
+                                         (.commandPool (.get VulkanGlobals/COMMAND_POOL))
+                                         (.level VK13/VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                                         (.commandBufferCount command-buffers-count))
+          command-buffers-ptr (.mallocPointer stack command-buffers-count)]
+      (if (= (VK13/vkAllocateCommandBuffers (VulkanGlobals/getLogicalDevice) command-buffer-allocate-info command-buffers-ptr)
+             VK13/VK_SUCCESS)
+        (.fill VulkanGlobals/COMMAND_BUFFERS
+               (reify IntFunction
+                 (apply [_ slot]
+                   (into-array VkCommandBuffer
+                               (map #(VkCommandBuffer. (.get command-buffers-ptr (int (+ (* slot image-count) %)))
+                                                       (VulkanGlobals/getLogicalDevice))
+                                    (range image-count))))))
+        (throw (RuntimeException. "Failed to allocate command buffers.")))))
+  (record-command-buffers))
+
+(defn command-buffer
+  "The current frame slot's command buffer for the swap chain image."
+  ^VkCommandBuffer [image-index]
+  (aget ^"[Lorg.lwjgl.vulkan.VkCommandBuffer;" (.current VulkanGlobals/COMMAND_BUFFERS) (int image-index)))
+
+(defn free-command-buffers []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (dotimes [slot (.size VulkanGlobals/COMMAND_BUFFERS)]
+      (let [^objects command-buffers (.get VulkanGlobals/COMMAND_BUFFERS slot)
+            command-buffers-ptr (.mallocPointer stack (alength command-buffers))]
+        (dotimes [i (alength command-buffers)]
+          (.put command-buffers-ptr i ^VkCommandBuffer (aget command-buffers i)))
+        (VK13/vkFreeCommandBuffers (VulkanGlobals/getLogicalDevice) (long (.get VulkanGlobals/COMMAND_POOL)) command-buffers-ptr))))
+  (.free VulkanGlobals/COMMAND_BUFFERS))
@@ -8,7 +8,7 @@
             [clojure-vulkan.util :as util]
             [clojure-vulkan.vulkan :as vulkan]
             [clojure-vulkan.window :as window])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals)
+  (:import (clojure_vulkan.Vulkan FrameTimings ResourceRegistry VulkanGlobals)
            (org.lwjgl.vulkan VK13)
            (org.lwjgl.glfw GLFW)))
 
@@ -20,6 +20,8 @@
               util/*current-debug-filename* (when (:file-debug config) (util/debug-filename))]
       (when (:enable-validation-layers config)
         (VulkanGlobals/enableValidationLayers))
+      (FrameTimings/setEnabled (boolean (:frame-timings config)))
+      (ResourceRegistry/setCaptureSites (boolean (:resource-sites config)))
       (try
         ;; init
         (glfw/init)
@@ -32,6 +34,8 @@
           (glfw/poll-events)
           (render/draw-frame))
         (VK13/vkDeviceWaitIdle (VulkanGlobals/getLogicalDevice))
+        (when (FrameTimings/isEnabled)
+          (util/log "Frame timings:\n" (FrameTimings/report)))
 
         (catch Throwable t
           (util/log "An error occured:" (.getMessage t)
@@ -1,7 +1,6 @@
 (ns clojure-vulkan.frame-buffers
   (:require [clojure-vulkan.util :as util])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals VulkanGlobalsInterfaces$VkPointer VulkanGlobalsInterfaces$VkPointerVector)
-           (java.util Collection Vector)
+  (:import (clojure_vulkan.Vulkan VulkanGlobals)
            (org.lwjgl.system MemoryStack)
            (org.lwjgl.vulkan VK13 VkFramebufferCreateInfo)))
 
@@ -15,15 +14,13 @@
                                      (.attachmentCount 1)
                                      (.width (.width (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))
                                      (.height (.height (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))
-                                     (.layers 1))]
-      (.set VulkanGlobals/SWAP_CHAIN_FRAME_BUFFER_POINTERS
-            (VulkanGlobalsInterfaces$VkPointerVector/asVkPointerVector
-              (Vector. ^Collection
-                       (mapv (fn [^VulkanGlobalsInterfaces$VkPointer image-view-ptr]
-                               (.put attachments-buffer 0 (.get image-view-ptr))
-                               (.pAttachments frame-buffer-create-info attachments-buffer)
-                               (if (= (VK13/vkCreateFramebuffer (VulkanGlobals/getLogicalDevice) frame-buffer-create-info nil frame-buffer-ptr)
-                                      VK13/VK_SUCCESS)
-                                 (.get frame-buffer-ptr 0)
-                                 (throw (RuntimeException. "Failed to create framebuffer."))))
-                             (.get (VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS)))))))))
+                                     (.layers 1))
+          image-count (.size VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS)]
+      (.allocate VulkanGlobals/SWAP_CHAIN_FRAME_BUFFER_POINTERS image-count)
+      (dotimes [i image-count]
+        (.put attachments-buffer 0 (.get VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS i))
+        (.pAttachments frame-buffer-create-info attachments-buffer)
+        (if (= (VK13/vkCreateFramebuffer (VulkanGlobals/getLogicalDevice) frame-buffer-create-info nil frame-buffer-ptr)
+               VK13/VK_SUCCESS)
+          (.put VulkanGlobals/SWAP_CHAIN_FRAME_BUFFER_POINTERS i (.get frame-buffer-ptr 0))
+          (throw (RuntimeException. "Failed to create framebuffer.")))))))
@@ -1,5 +1,5 @@
 (ns clojure-vulkan.globals
-  (:import (clojure_vulkan.Vulkan Buffer Texture)))
+  (:import (clojure_vulkan.Vulkan Buffer DrawBatcher MeshRegistry ParallelRecorder StreamedTexture Texture TextureManager TransferContext)))
 
 (defmacro set-global! [global-var new-value]
   `(alter-var-root (var ~global-var) (constantly ~new-value)))
@@ -8,5 +8,16 @@
 
 (def ^Buffer VERTEX-BUFFER nil)
 (def ^Buffer INDEX-BUFFER nil)
+(def ^Buffer WIDE-INDEX-BUFFER nil)
+(def ^MeshRegistry MESH-REGISTRY nil)
+(def ^DrawBatcher DRAW-BATCHER nil)
+;; whether one vkCmdDrawIndexedIndirect may issue more than one draw
+(def MULTI-DRAW-INDIRECT false)
 
-(def ^Texture TEXTURE (Texture.))
\ No newline at end of file
+(def ^Texture TEXTURE (Texture.))
+(def ^StreamedTexture STREAMED-TEXTURE nil)
+(def ^TextureManager TEXTURE-MANAGER nil)
+
+(def ^TransferContext TRANSFER-CONTEXT nil)
+
+(def ^ParallelRecorder RECORDER nil)
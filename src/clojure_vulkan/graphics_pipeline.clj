@@ -1,5 +1,6 @@
 (ns clojure-vulkan.graphics-pipeline
-  (:require [clojure-vulkan.shaders :as shaders]
+  (:require [clojure-vulkan.pipeline-cache :as pipeline-cache]
+            [clojure-vulkan.shaders :as shaders]
             [clojure-vulkan.util :as util]
             [clojure-vulkan.vertex :as vertex])
   (:import (clojure_vulkan.shaders SpirVShader)
@@ -27,8 +28,9 @@
 
 (defn create-graphics-pipeline []
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [vertex-shader-in-spir-v-format (shaders/compile-shader "shader.vert" :shader-type/vertex "shader-vert.spv")
-          fragment-shader-in-spir-v-format (shaders/compile-shader "shader.frag" :shader-type/fragment "shader-frag.spv")
+    (let [[vertex-shader-in-spir-v-format
+           fragment-shader-in-spir-v-format] (map :shader (shaders/compile-shaders [{:source "shader.vert" :stage :shader-type/vertex}
+                                                                                     {:source "shader.frag" :stage :shader-type/fragment}]))
           vertex-shader-module (create-shader-module vertex-shader-in-spir-v-format)
           fragment-shader-module (create-shader-module fragment-shader-in-spir-v-format)
           entry-point (.UTF8 stack "main")
@@ -120,9 +122,11 @@
                    VK13/VK_SUCCESS)
               (.set VulkanGlobals/PIPELINE_LAYOUT_POINTER (.get pipeline-layout-ptr 0))
               (throw (RuntimeException. "Couldn't create pipeline layout.")))
+          creation-feedback (pipeline-cache/creation-feedback stack 2)
           pipeline-create-infos (doto (VkGraphicsPipelineCreateInfo/calloc 1 stack)
                                   ;; create info structs
                                   (.sType VK13/VK_STRUCTURE_TYPE_GRAPHICS_PIPELINE_CREATE_INFO)
+                                  (.pNext creation-feedback)
                                   (.pStages shader-stages)
                                   (.pVertexInputState vertex-input-state-create-info)
                                   (.pInputAssemblyState input-assembly-state-create-info)
@@ -138,11 +142,14 @@
                                   (.subpass 0)
                                   (.basePipelineHandle VK13/VK_NULL_HANDLE)
                                   (.basePipelineIndex -1))
-          graphics-pipeline-ptr (.mallocLong stack 1)]
-      (if (= (VK13/vkCreateGraphicsPipelines (VulkanGlobals/getLogicalDevice) VK13/VK_NULL_HANDLE pipeline-create-infos nil graphics-pipeline-ptr)
+          graphics-pipeline-ptr (.mallocLong stack 1)
+          start (System/nanoTime)]
+      (if (= (VK13/vkCreateGraphicsPipelines (VulkanGlobals/getLogicalDevice) ^long (.get VulkanGlobals/PIPELINE_CACHE_POINTER)
+                                             pipeline-create-infos nil graphics-pipeline-ptr)
              VK13/VK_SUCCESS)
         (.set VulkanGlobals/GRAPHICS_PIPELINE_POINTER (.get graphics-pipeline-ptr 0))
         (throw (RuntimeException. "Couldn't create graphics pipeline.")))
+      (pipeline-cache/record-creation "graphics pipeline" creation-feedback (- (System/nanoTime) start))
       (VK13/vkDestroyShaderModule (VulkanGlobals/getLogicalDevice) vertex-shader-module nil)
       (VK13/vkDestroyShaderModule (VulkanGlobals/getLogicalDevice) fragment-shader-module nil)
       (.free ^SpirVShader vertex-shader-in-spir-v-format)
@@ -1,9 +1,8 @@
 (ns clojure-vulkan.image-views
   (:require [clojure-vulkan.util :as util])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals VulkanGlobalsInterfaces$VkPointer VulkanGlobalsInterfaces$VkPointerVector)
+  (:import (clojure_vulkan.Vulkan VulkanGlobals)
            (org.lwjgl.system MemoryStack)
-           (org.lwjgl.vulkan VK13 VkImageViewCreateInfo)
-           (java.util Vector Collection)))
+           (org.lwjgl.vulkan VK13 VkImageViewCreateInfo)))
 
 (defn create-image-views []
   (util/with-memory-stack-push ^MemoryStack stack
@@ -23,13 +22,11 @@
                   (.levelCount 1)
                   (.baseArrayLayer 0)
                   (.layerCount 1)))
-          image-views (mapv (fn [^VulkanGlobalsInterfaces$VkPointer swap-chain-image]
-                              (.image image-view-create-info (.get swap-chain-image))
-                              (if (= (VK13/vkCreateImageView (VulkanGlobals/getLogicalDevice) image-view-create-info nil image-view-ptr)
-                                     VK13/VK_SUCCESS)
-                                (.get image-view-ptr 0)
-                                (throw (RuntimeException. "Couldn't create image views."))))
-                            (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS))]
-      (.set VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS
-            (VulkanGlobalsInterfaces$VkPointerVector/asVkPointerVector
-              (Vector. ^Collection image-views))))))
+          image-count (.size VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS)]
+      (.allocate VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS image-count)
+      (dotimes [i image-count]
+        (.image image-view-create-info (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS i))
+        (if (= (VK13/vkCreateImageView (VulkanGlobals/getLogicalDevice) image-view-create-info nil image-view-ptr)
+               VK13/VK_SUCCESS)
+          (.put VulkanGlobals/SWAP_CHAIN_IMAGE_VIEWS_POINTERS i (.get image-view-ptr 0))
+          (throw (RuntimeException. "Couldn't create image views.")))))))
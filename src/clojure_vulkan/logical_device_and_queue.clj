@@ -1,5 +1,6 @@
 (ns clojure-vulkan.logical-device-and-queue
-  (:require [clojure-vulkan.physical-device :as physical-device]
+  (:require [clojure-vulkan.globals :as globals :refer [MULTI-DRAW-INDIRECT]]
+            [clojure-vulkan.physical-device :as physical-device]
             [clojure-vulkan.util :as util]
             [clojure-vulkan.validation-layers :as validation-layers])
   (:import (clojure_vulkan.Vulkan VulkanGlobals)
@@ -9,16 +10,20 @@
 
 (defn create-logical-device []
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [{:keys [graphics-family present-family]} (.get VulkanGlobals/QUEUE_FAMILIES)
-          unique-queue-families (hash-set graphics-family present-family)
+    (let [{:keys [graphics-family present-family transfer-family]} (.get VulkanGlobals/QUEUE_FAMILIES)
+          unique-queue-families (hash-set graphics-family present-family transfer-family)
           ^VkDeviceQueueCreateInfo$Buffer queue-create-infos (VkDeviceQueueCreateInfo/calloc (count unique-queue-families) stack)
           _ (doseq [[i queue-family] (map-indexed (fn [i family] [i family]) unique-queue-families)]
               (doto ^VkDeviceQueueCreateInfo (.get queue-create-infos ^Long i)
                 (.sType VK13/VK_STRUCTURE_TYPE_DEVICE_QUEUE_CREATE_INFO)
                 (.queueFamilyIndex queue-family)
                 (.pQueuePriorities (.floats stack (float 1.0)))))
+          ^VkPhysicalDeviceFeatures supported-features (VkPhysicalDeviceFeatures/calloc stack)
+          _ (VK13/vkGetPhysicalDeviceFeatures (.get VulkanGlobals/PHYSICAL_DEVICE) supported-features)
+          _ (globals/set-global! MULTI-DRAW-INDIRECT (.multiDrawIndirect supported-features))
           ^VkPhysicalDeviceFeatures device-features (doto (VkPhysicalDeviceFeatures/calloc stack)
-                                                      (.samplerAnisotropy true))
+                                                      (.samplerAnisotropy true)
+                                                      (.multiDrawIndirect MULTI-DRAW-INDIRECT))
           ^VkDeviceCreateInfo device-create-info (doto (VkDeviceCreateInfo/calloc stack)
                                                    (.sType VK13/VK_STRUCTURE_TYPE_DEVICE_CREATE_INFO)
                                                    (.pQueueCreateInfos queue-create-infos)
@@ -33,9 +38,12 @@
               (throw (RuntimeException. "Failed to create a logical device.")))
           device (VkDevice. (.get device-ptr 0) (.get VulkanGlobals/PHYSICAL_DEVICE) device-create-info)
           graphics-queue-ptr (.pointers stack VK13/VK_NULL_HANDLE)
-          present-queue-ptr (.pointers stack VK13/VK_NULL_HANDLE)]
+          present-queue-ptr (.pointers stack VK13/VK_NULL_HANDLE)
+          transfer-queue-ptr (.pointers stack VK13/VK_NULL_HANDLE)]
       (VK13/vkGetDeviceQueue device graphics-family 0 graphics-queue-ptr)
       (VK13/vkGetDeviceQueue device present-family 0 present-queue-ptr)
+      (VK13/vkGetDeviceQueue device transfer-family 0 transfer-queue-ptr)
       (.set VulkanGlobals/LOGICAL_DEVICE device)
       (.set VulkanGlobals/GRAPHICS_QUEUE (VkQueue. (.get graphics-queue-ptr 0) (VulkanGlobals/getLogicalDevice)))
-      (.set VulkanGlobals/PRESENT_QUEUE (VkQueue. (.get present-queue-ptr 0) (VulkanGlobals/getLogicalDevice))))))
+      (.set VulkanGlobals/PRESENT_QUEUE (VkQueue. (.get present-queue-ptr 0) (VulkanGlobals/getLogicalDevice)))
+      (.set VulkanGlobals/TRANSFER_QUEUE (VkQueue. (.get transfer-queue-ptr 0) (VulkanGlobals/getLogicalDevice))))))
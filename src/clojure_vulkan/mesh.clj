@@ -0,0 +1,138 @@
+(ns clojure-vulkan.mesh
+  (:require [clojure-vulkan.buffer :as buffer]
+            [clojure-vulkan.globals :as globals :refer [*config* DRAW-BATCHER INDEX-BUFFER MESH-REGISTRY MULTI-DRAW-INDIRECT
+                                                          TRANSFER-CONTEXT VERTEX-BUFFER WIDE-INDEX-BUFFER]]
+            [clojure-vulkan.transfer :as transfer]
+            [clojure-vulkan.util :as util]
+            [clojure-vulkan.vertex :as vertex])
+  (:import (clojure.lang Indexed)
+           (clojure_vulkan MemoryUtils ModelLoader$ImportedMesh)
+           (clojure_vulkan.Vulkan Buffer DrawBatcher Frame MeshRegistry MeshRegistry$Mesh VulkanGlobals)
+           (java.nio ByteBuffer)
+           (java.util.function IntFunction)
+           (org.lwjgl.system MemoryStack MemoryUtil)
+           (org.lwjgl.vulkan VK13 VkCommandBuffer)))
+
+(defn- vertex-stride ^long []
+  (:in-stride vertex/current-triangle-vbo-characterictics))
+
+(defn- index-arena
+  "The index buffer of meshes with 32-bit or 16-bit indices, its index type and the size of an index."
+  [wide?]
+  (if wide?
+    [WIDE-INDEX-BUFFER VK13/VK_INDEX_TYPE_UINT32 Integer/BYTES]
+    [INDEX-BUFFER VK13/VK_INDEX_TYPE_UINT16 Short/BYTES]))
+
+(defn create-arenas
+  "The device-local vertex and index arenas all meshes are placed in, bound as `VERTEX-BUFFER`, `INDEX-BUFFER` and
+  `WIDE-INDEX-BUFFER`, with room for `:arena-vertices`, `:arena-indices` 16-bit and `:arena-wide-indices` 32-bit
+  indices. Without room for wide indices, there is no `WIDE-INDEX-BUFFER`."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [vertex-capacity (:arena-vertices *config* 1048576)
+          index-capacity (:arena-indices *config* 4194304)
+          wide-index-capacity (:arena-wide-indices *config* 4194304)
+          buffer-ptr* (.mallocLong stack 1)
+          create-arena (fn [byte-size usage]
+                         (buffer/create-buffer byte-size
+                                               (bit-or usage VK13/VK_BUFFER_USAGE_TRANSFER_DST_BIT)
+                                               VK13/VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT
+                                               buffer-ptr*
+                                               stack))]
+      (globals/set-global! MESH-REGISTRY (MeshRegistry. vertex-capacity index-capacity wide-index-capacity))
+      (globals/set-global! VERTEX-BUFFER (create-arena (* vertex-capacity (vertex-stride)) VK13/VK_BUFFER_USAGE_VERTEX_BUFFER_BIT))
+      (globals/set-global! INDEX-BUFFER (create-arena (* index-capacity Short/BYTES) VK13/VK_BUFFER_USAGE_INDEX_BUFFER_BIT))
+      (when (pos? wide-index-capacity)
+        (globals/set-global! WIDE-INDEX-BUFFER (create-arena (* wide-index-capacity Integer/BYTES) VK13/VK_BUFFER_USAGE_INDEX_BUFFER_BIT))))))
+
+(defn- upload
+  "Places a mesh into the arenas and records the copies of its data, which `write-staging` writes into the
+  start of a mapped staging buffer: the vertices followed by the indices."
+  ^MeshRegistry$Mesh [vertex-count index-count wide? write-staging]
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [[^Buffer index-buffer _ index-size] (index-arena wide?)
+          mesh (.add MESH-REGISTRY (int vertex-count) (int index-count) (boolean wide?))
+          vertex-bytes (* (long vertex-count) (vertex-stride))
+          index-bytes (* (long index-count) (long index-size))
+          staging-buffer (buffer/create-buffer (+ vertex-bytes index-bytes)
+                                               VK13/VK_BUFFER_USAGE_TRANSFER_SRC_BIT
+                                               (bit-or VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
+                                                       VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
+                                               (.mallocLong stack 1)
+                                               stack)]
+      (write-staging (.clear (.mappedByteBuffer staging-buffer)))
+      (transfer/copy-buffer (.bufferPointer staging-buffer) (.bufferPointer VERTEX-BUFFER)
+                            0 (* (.vertexOffset mesh) (vertex-stride)) vertex-bytes)
+      (transfer/copy-buffer (.bufferPointer staging-buffer) (.bufferPointer index-buffer)
+                            vertex-bytes (* (.firstIndex mesh) (long index-size)) index-bytes)
+      (.retireOnCompletion TRANSFER-CONTEXT staging-buffer)
+      mesh)))
+
+(defn upload-mesh
+  "Places a mesh with 16-bit indices into the arenas and records the copies of its data on the transfer context.
+  Indices are relative to the mesh's own vertices."
+  ^MeshRegistry$Mesh [^floats vertices ^shorts indices]
+  (upload (quot (alength vertices) (long (:components-per-vertex vertex/current-triangle-vbo-characterictics)))
+          (alength indices)
+          false
+          (fn [^ByteBuffer staging]
+            (MemoryUtils/memcpyFloats staging vertices)
+            (MemoryUtils/memcpyShorts staging indices))))
+
+(defn upload-imported-mesh
+  "Like `upload-mesh`, for a mesh of the model loader laid out like the vertex shader's inputs."
+  ^MeshRegistry$Mesh [^ModelLoader$ImportedMesh imported]
+  (upload (.vertexCount imported)
+          (.indexCount imported)
+          (.wideIndices imported)
+          (fn [^ByteBuffer staging]
+            (doto staging
+              (.put (.vertices imported))
+              (.put (.indices imported))))))
+
+(defn bind-index-buffer
+  "Binds the arena of the 16-bit or 32-bit indices."
+  [^VkCommandBuffer command-buffer wide?]
+  (let [[^Buffer index-buffer index-type] (index-arena wide?)]
+    (VK13/vkCmdBindIndexBuffer command-buffer (.bufferPointer index-buffer) 0 (int index-type))))
+
+(defn remove-mesh
+  "The mesh's ranges are reused once the frames in flight, which may still draw it, have completed."
+  [^MeshRegistry$Mesh mesh]
+  (.remove MESH-REGISTRY mesh))
+
+(def scene
+  "The meshes drawn every frame, in order."
+  (atom []))
+
+(defn create-indirect-buffers
+  "One host-visible indirect buffer per frame slot with room for `:max-draws` draws of each index width, kept
+  mapped. The recorded indirect draws may cover more commands than the draw list has, so it starts out as empty
+  draws."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [max-draws (int (:max-draws *config* 1024))
+          byte-size (* 2 max-draws DrawBatcher/COMMAND_BYTES)
+          buffer-ptr* (.mallocLong stack 1)]
+      (globals/set-global! DRAW-BATCHER (DrawBatcher. max-draws))
+      (.fill VulkanGlobals/INDIRECT_BUFFERS
+             (reify IntFunction
+               (apply [_ _slot]
+                 (let [indirect-buffer (buffer/create-buffer byte-size VK13/VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT
+                                                             (bit-or VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
+                                                                     VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
+                                                             buffer-ptr* stack)]
+                   (MemoryUtil/memSet (.map indirect-buffer) 0 byte-size)
+                   indirect-buffer)))))))
+
+(defn write-draw-list
+  "Writes the scene's draws into the current frame slot's indirect buffer, once its fence has been waited on.
+  Returns true if the draws recorded without multiDrawIndirect no longer cover them, and the command buffers must be
+  re-recorded."
+  []
+  (let [^Indexed meshes @scene]
+    (.clear DRAW-BATCHER)
+    (dotimes [i (count meshes)]
+      (.add DRAW-BATCHER (.nth meshes i)))
+    (.write DRAW-BATCHER (Frame/currentSlot) (.mappedAddress ^Buffer (.current VulkanGlobals/INDIRECT_BUFFERS)))
+    (and (not MULTI-DRAW-INDIRECT) (.cover DRAW-BATCHER))))
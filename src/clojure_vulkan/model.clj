@@ -0,0 +1,45 @@
+(ns clojure-vulkan.model
+  (:require [clojure-vulkan.globals :refer [TRANSFER-CONTEXT]]
+            [clojure-vulkan.mesh :as mesh]
+            [clojure-vulkan.util :as util]
+            [clojure-vulkan.vertex :as vertex])
+  (:import (clojure_vulkan ModelLoader ModelLoader$Attribute ModelLoader$MeshConsumer ModelLoader$Source)))
+
+(defn attribute-source
+  "The model data a vertex shader input is filled from, by its name."
+  [input-name]
+  (condp re-find input-name
+    #"(?i)pos" ModelLoader$Source/POSITION
+    #"(?i)norm" ModelLoader$Source/NORMAL
+    #"(?i)colou?r" ModelLoader$Source/COLOR
+    #"(?i)tex|uv" ModelLoader$Source/TEX_COORD
+    ModelLoader$Source/NONE))
+
+(defn vertex-layout
+  "The loader's vertex layout for the `:in` attributes of `vertex/analyze-shader-characteristics`, in location order."
+  [{:keys [in]}]
+  (into-array ModelLoader$Attribute
+              (for [{:keys [name components]} (sort-by :location in)]
+                (ModelLoader$Attribute. (attribute-source name) components))))
+
+(defn load-model
+  "Imports all meshes of a model file into the mesh arenas, one at a time: each mesh's copies are flushed, and its
+  staging buffer freed, before the next one is read. Besides Assimp's scene, memory use peaks at the loader's
+  off-heap scratch, the deduplicated vertices and indices of the largest mesh with its remap and lookup tables,
+  plus that mesh's staging copy. If a mesh fails, e.g. for a full arena, the meshes added so far are removed.
+  Returns the meshes."
+  [path]
+  (let [loader (ModelLoader. (vertex-layout vertex/current-triangle-vbo-characterictics))
+        meshes (volatile! [])]
+    (try
+      (let [stats (.load loader path (reify ModelLoader$MeshConsumer
+                                       (accept [_ imported]
+                                         (vswap! meshes conj (mesh/upload-imported-mesh imported))
+                                         (.flush TRANSFER-CONTEXT))))]
+        (util/log "Loaded " path ": " stats "."))
+      @meshes
+      (catch Throwable t
+        (run! mesh/remove-mesh @meshes)
+        (throw t))
+      (finally
+        (.free loader)))))
@@ -22,6 +22,19 @@
                                         set)]
       (every? #(contains? available-extensions-set %) device-extensions))))
 
+(defn transfer-family
+  "Index of the queue family for uploads: one with transfers only if there is any, as it is usually backed by the
+  DMA engines whose copies overlap with rendering, then one without graphics, and the graphics family otherwise."
+  [queue-flags graphics-family]
+  (let [has? (fn [flags bit] (not (zero? (bit-and flags bit))))
+        family (fn [pred] (first (keep-indexed (fn [i flags] (when (pred flags) i)) queue-flags)))]
+    (or (family #(and (has? % VK13/VK_QUEUE_TRANSFER_BIT)
+                      (not (has? % VK13/VK_QUEUE_GRAPHICS_BIT))
+                      (not (has? % VK13/VK_QUEUE_COMPUTE_BIT))))
+        (family #(and (has? % VK13/VK_QUEUE_TRANSFER_BIT)
+                      (not (has? % VK13/VK_QUEUE_GRAPHICS_BIT))))
+        graphics-family)))
+
 (defn- find-queue-families [^VkPhysicalDevice device]
   (util/with-memory-stack-push ^MemoryStack stack
     (let [queue-family-count-ptr (.ints stack 0)
@@ -43,16 +56,20 @@
                                 (= (.get present-support 0) VK13/VK_TRUE) (assoc :present-family i)))))
                   {}
                   (range queue-family-count))]
-      graphics-and-present-family-map)))
+      (assoc graphics-and-present-family-map
+        :transfer-family (transfer-family (mapv #(.queueFlags ^VkQueueFamilyProperties (.get queue-families-ptr (int %)))
+                                                (range queue-family-count))
+                                          (:graphics-family graphics-and-present-family-map))))))
 
 (defn- pick-suitable-device [^PointerBuffer devices-ptr device-count]
   (let [devices (volatile! ())
         graphics-family* (volatile! nil)
-        present-family* (volatile! nil)]
+        present-family* (volatile! nil)
+        transfer-family* (volatile! nil)]
     (util/with-memory-stack-push ^MemoryStack stack
       (dotimes [i device-count]
         (let [device (VkPhysicalDevice. (.get devices-ptr ^long i) (.get VulkanGlobals/VULKAN_INSTANCE))
-              {:keys [graphics-family present-family]} (find-queue-families device)
+              {:keys [graphics-family present-family transfer-family]} (find-queue-families device)
               ^VkPhysicalDeviceProperties device-properties (VkPhysicalDeviceProperties/calloc stack)
               ^VkPhysicalDeviceFeatures device-features (VkPhysicalDeviceFeatures/calloc stack)
               score (volatile! 0)
@@ -76,10 +93,12 @@
                   (vreset! score nil))
                 (vswap! devices conj (list @score device))
                 (vreset! graphics-family* graphics-family)
-                (vreset! present-family* present-family))
+                (vreset! present-family* present-family)
+                (vreset! transfer-family* transfer-family))
             (vreset! score nil))))
       {:graphics-family @graphics-family*
        :present-family  @present-family*
+       :transfer-family @transfer-family*
        :physical-device (->> @devices (remove (fn [[score _]]
                                                 (nil? score)))
                              (sort-by (fn [[score _]]
@@ -96,10 +115,11 @@
               (throw (RuntimeException. "No GPU with Vulkan support found.")))
           physical-devices-ptr (.mallocPointer stack device-count)
           _ (VK13/vkEnumeratePhysicalDevices (.get VulkanGlobals/VULKAN_INSTANCE) device-count-ptr physical-devices-ptr)
-          {:keys [graphics-family present-family physical-device]} (pick-suitable-device physical-devices-ptr device-count)]
+          {:keys [graphics-family present-family transfer-family physical-device]} (pick-suitable-device physical-devices-ptr device-count)]
       (when-not physical-device
         (throw (RuntimeException. "No suitable GPU found.")))
       (.set VulkanGlobals/PHYSICAL_DEVICE physical-device)
       (-> VulkanGlobals/QUEUE_FAMILIES
           (.graphicsFamily graphics-family)
-          (.presentFamily present-family)))))
+          (.presentFamily present-family)
+          (.transferFamily transfer-family)))))
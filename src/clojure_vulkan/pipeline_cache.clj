@@ -0,0 +1,138 @@
+(ns clojure-vulkan.pipeline-cache
+  (:require [clojure-vulkan.util :as util])
+  (:import (clojure_vulkan.Vulkan VulkanGlobals)
+           (java.io File)
+           (java.nio ByteBuffer ByteOrder)
+           (java.nio.file CopyOption Files OpenOption StandardCopyOption)
+           (org.lwjgl.system MemoryStack MemoryUtil)
+           (org.lwjgl.vulkan VK13 VkPhysicalDeviceProperties VkPipelineCacheCreateInfo VkPipelineCreationFeedback
+                             VkPipelineCreationFeedbackCreateInfo)))
+
+(def pipeline-cache-file "resources/pipeline-cache.bin")
+
+(def header-size
+  "Size of VkPipelineCacheHeaderVersionOne: header size, header version, vendor ID, device ID and a 16 byte UUID."
+  32)
+
+(defn cache-header
+  "Reads the VkPipelineCacheHeaderVersionOne at the start of a cache blob, or returns nil if the blob is too
+  short to have one. The header is in the host's byte order."
+  [^ByteBuffer blob]
+  (when (>= (.remaining blob) header-size)
+    (let [blob (.order (.slice blob) (ByteOrder/nativeOrder))
+          uuid (byte-array 16)]
+      (.get blob 16 uuid)
+      {:header-size    (.getInt blob 0)
+       :header-version (.getInt blob 4)
+       :vendor-id      (.getInt blob 8)
+       :device-id      (.getInt blob 12)
+       :uuid           (vec uuid)})))
+
+(defn device-header [^VkPhysicalDeviceProperties properties]
+  (let [uuid (byte-array 16)]
+    (.get (.pipelineCacheUUID properties) uuid)
+    {:header-size    header-size
+     :header-version VK13/VK_PIPELINE_CACHE_HEADER_VERSION_ONE
+     :vendor-id      (.vendorID properties)
+     :device-id      (.deviceID properties)
+     :uuid           (vec uuid)}))
+
+(defn compatible-header?
+  "A driver rejects, or worse, misreads a cache blob written by another driver version or device, so a blob is
+  only passed on when its header matches the device's exactly."
+  [header device-header]
+  (and (some? header) (= header device-header)))
+
+(def stats
+  "Pipeline creations so far: counts and total creation nanoseconds of pipeline cache hits, misses and
+  creations the driver gave no feedback for."
+  (atom {:hit 0 :hit-nanos 0 :miss 0 :miss-nanos 0 :unknown 0 :unknown-nanos 0}))
+
+(defn- read-cache-blob
+  "The saved cache blob in a malloc'ed buffer, or nil if there is none or it belongs to another device."
+  [device-header]
+  (let [file (File. ^String pipeline-cache-file)]
+    (when (.exists file)
+      (let [^"[B" bytes (Files/readAllBytes (.toPath file))
+            blob (.flip (.put (MemoryUtil/memAlloc (alength bytes)) bytes))]
+        (if (compatible-header? (cache-header blob) device-header)
+          blob
+          (do (util/log "Ignoring the pipeline cache " pipeline-cache-file ", it was written for another device or driver.")
+              (MemoryUtil/memFree ^ByteBuffer blob)
+              nil))))))
+
+(defn create-pipeline-cache
+  "Creates the pipeline cache all pipelines are created with, seeded from `pipeline-cache-file` when it was
+  written for this device."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [properties (VkPhysicalDeviceProperties/malloc stack)
+          _ (VK13/vkGetPhysicalDeviceProperties (.get VulkanGlobals/PHYSICAL_DEVICE) properties)
+          blob (read-cache-blob (device-header properties))
+          create-info (doto (VkPipelineCacheCreateInfo/calloc stack)
+                        (.sType VK13/VK_STRUCTURE_TYPE_PIPELINE_CACHE_CREATE_INFO)
+                        (.pInitialData blob))
+          pipeline-cache-ptr (.mallocLong stack 1)]
+      (try
+        (if (= (VK13/vkCreatePipelineCache (VulkanGlobals/getLogicalDevice) create-info nil pipeline-cache-ptr)
+               VK13/VK_SUCCESS)
+          (.set VulkanGlobals/PIPELINE_CACHE_POINTER (.get pipeline-cache-ptr 0))
+          (throw (RuntimeException. "Couldn't create pipeline cache.")))
+        (util/log "Pipeline cache created" (if blob (str "from " (.remaining ^ByteBuffer blob) " saved bytes.") "empty."))
+        (finally
+          (when blob
+            (MemoryUtil/memFree ^ByteBuffer blob)))))))
+
+(defn save-pipeline-cache
+  "Writes the cache's data to `pipeline-cache-file` through a temporary file, so a crash while saving never
+  leaves a torn blob behind."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [device (VulkanGlobals/getLogicalDevice)
+          pipeline-cache (long (.get VulkanGlobals/PIPELINE_CACHE_POINTER))
+          size-ptr (.mallocPointer stack 1)
+          _ (VK13/vkGetPipelineCacheData device pipeline-cache size-ptr ^ByteBuffer (identity nil))
+          data (MemoryUtil/memAlloc (int (.get size-ptr 0)))]
+      (try
+        (when (not= (VK13/vkGetPipelineCacheData device pipeline-cache size-ptr data)
+                    VK13/VK_SUCCESS)
+          (throw (RuntimeException. "Couldn't get pipeline cache data.")))
+        (let [file (File. ^String pipeline-cache-file)
+              tmp (File. (str pipeline-cache-file ".tmp"))
+              bytes (byte-array (.get size-ptr 0))]
+          (.get data bytes)
+          (Files/write (.toPath tmp) bytes ^"[Ljava.nio.file.OpenOption;" (make-array OpenOption 0))
+          (Files/move (.toPath tmp) (.toPath file) (into-array CopyOption [StandardCopyOption/ATOMIC_MOVE StandardCopyOption/REPLACE_EXISTING]))
+          (util/log "Pipeline cache saved, " (alength bytes) " bytes. Pipeline creations:" @stats))
+        (finally
+          (MemoryUtil/memFree data))))))
+
+;; ***********************************************************************************************************
+;; hit/miss timing
+
+(defn creation-feedback
+  "Pipeline creation feedback to chain into a pipeline create info's pNext."
+  ^VkPipelineCreationFeedbackCreateInfo [^MemoryStack stack stage-count]
+  (let [feedbacks (fn [n] (.ncalloc stack VkPipelineCreationFeedback/ALIGNOF n VkPipelineCreationFeedback/SIZEOF))]
+    (doto (VkPipelineCreationFeedbackCreateInfo/calloc stack)
+      (.sType VK13/VK_STRUCTURE_TYPE_PIPELINE_CREATION_FEEDBACK_CREATE_INFO)
+      (.pPipelineCreationFeedback (VkPipelineCreationFeedback/create ^long (feedbacks 1)))
+      (.pPipelineStageCreationFeedbacks (VkPipelineCreationFeedback/create ^long (feedbacks stage-count) (int stage-count))))))
+
+(defn record-creation
+  "Classifies a pipeline creation as a cache hit or miss from its feedback and adds it to `stats`. The
+  driver's duration is used when it reports one, `wall-nanos` otherwise."
+  [pipeline-name ^VkPipelineCreationFeedbackCreateInfo feedback wall-nanos]
+  (let [flags (.flags (.pPipelineCreationFeedback feedback))
+        valid? (not (zero? (bit-and flags VK13/VK_PIPELINE_CREATION_FEEDBACK_VALID_BIT)))
+        outcome (cond (not valid?) :unknown
+                      (zero? (bit-and flags VK13/VK_PIPELINE_CREATION_FEEDBACK_APPLICATION_PIPELINE_CACHE_HIT_BIT)) :miss
+                      :else :hit)
+        nanos (if valid? (.duration (.pPipelineCreationFeedback feedback)) wall-nanos)]
+    (swap! stats (fn [stats]
+                   (-> stats
+                       (update outcome inc)
+                       (update (keyword (str (name outcome) "-nanos")) + nanos))))
+    (util/log (format "Created %s in %.2f ms (pipeline cache %s)." pipeline-name (/ nanos 1e6)
+                      (if (= outcome :unknown) "feedback unavailable" (name outcome))))
+    outcome))
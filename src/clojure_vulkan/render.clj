@@ -1,8 +1,13 @@
 (ns clojure-vulkan.render
-  (:require [clojure-vulkan.swap-chain :as swap-chain]
+  (:require [clojure-vulkan.command-buffers :as command-buffers]
+            [clojure-vulkan.globals :refer [STREAMED-TEXTURE]]
+            [clojure-vulkan.mesh :as mesh]
+            [clojure-vulkan.swap-chain :as swap-chain]
+            [clojure-vulkan.texture-manager :as texture-manager]
+            [clojure-vulkan.texture-streaming :as texture-streaming]
             [clojure-vulkan.util :as util]
             [clojure-vulkan.uniform :as uniform])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals Frame)
+  (:import (clojure_vulkan.Vulkan FrameTimings FrameTimings$Phase Frame ResourceRegistry VulkanGlobals)
            (org.lwjgl.system MemoryStack Pointer)
            (org.lwjgl.vulkan KHRSwapchain VK13 VkFenceCreateInfo VkPresentInfoKHR VkSemaphoreCreateInfo VkSubmitInfo)))
 
@@ -19,9 +24,9 @@
                               (.sType VK13/VK_STRUCTURE_TYPE_FENCE_CREATE_INFO)
                               ; fence is created signaled -> a solution for the very first frame which cannot wait for the previous one
                               (.flags VK13/VK_FENCE_CREATE_SIGNALED_BIT))
-          image-available-semaphore-ptr (.mallocLong stack Frame/MAX_FRAMES_IN_FLIGHT)
-          render-finished-semaphore-ptr (.mallocLong stack Frame/MAX_FRAMES_IN_FLIGHT)
-          in-flight-fence-ptr (.mallocLong stack Frame/MAX_FRAMES_IN_FLIGHT)]
+          image-available-semaphore-ptr (.mallocLong stack (Frame/framesInFlight))
+          render-finished-semaphore-ptr (.mallocLong stack (Frame/framesInFlight))
+          in-flight-fence-ptr (.mallocLong stack (Frame/framesInFlight))]
       (Frame/createFrames
         (mapv (fn [^Integer i]
                 (when (or (not= (VK13/vkCreateSemaphore (VulkanGlobals/getLogicalDevice) semaphore-create-info nil image-available-semaphore-ptr)
@@ -35,16 +40,32 @@
                   (.imageAvailableSemaphorePointer (.get image-available-semaphore-ptr 0))
                   (.renderFinishedSemaphorePointer (.get render-finished-semaphore-ptr 0))
                   (.inFlightFencePointer (.get in-flight-fence-ptr 0))))
-              (range Frame/MAX_FRAMES_IN_FLIGHT))))))
+              (range (Frame/framesInFlight)))))))
+
+(defn- pump-texture-uploads
+  "Descriptor writes aren't picked up by pre-recorded command buffers, so the texture descriptors are only
+  rewritten, and the command buffers re-recorded, once the bound texture has become resident."
+  []
+  (when (some #(identical? STREAMED-TEXTURE %) (texture-streaming/pump-uploads))
+    (VK13/vkDeviceWaitIdle (VulkanGlobals/getLogicalDevice))
+    (uniform/write-texture-descriptors)
+    (command-buffers/record-command-buffers)))
 
 (defn draw-frame []
+  (FrameTimings/beginFrame)
   (util/with-memory-stack-push ^MemoryStack stack
     (let [this-frame (Frame/currentFrame)
           image-index-ptr (.mallocInt stack 1)
           _ (VK13/vkWaitForFences (VulkanGlobals/getLogicalDevice) (.inFlightFencePointer this-frame) true infinite-timeout)
+          _ (FrameTimings/lap FrameTimings$Phase/WAIT_FOR_FENCE)
+          _ (ResourceRegistry/drain (Frame/currentSlot) (- (Frame/frameNumber) (Frame/framesInFlight)))
+          _ (texture-manager/trim)
+          _ (pump-texture-uploads)
+          _ (FrameTimings/lap FrameTimings$Phase/TEXTURES)
           acquire-result (KHRSwapchain/vkAcquireNextImageKHR (VulkanGlobals/getLogicalDevice) (.get VulkanGlobals/SWAP_CHAIN_POINTER) infinite-timeout
                                                              (.imageAvailableSemaphorePointer this-frame)
-                                                             VK13/VK_NULL_HANDLE image-index-ptr)]
+                                                             VK13/VK_NULL_HANDLE image-index-ptr)
+          _ (FrameTimings/lap FrameTimings$Phase/ACQUIRE_IMAGE)]
       (cond (= KHRSwapchain/VK_ERROR_OUT_OF_DATE_KHR acquire-result)
             (swap-chain/recreate-swap-chain)                ;; and return: last expression
 
@@ -52,18 +73,23 @@
             (let [wait-semaphores (.longs stack (.imageAvailableSemaphorePointer this-frame))
                   wait-stages (.ints stack VK13/VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
                   signal-semaphores (.longs stack (.renderFinishedSemaphorePointer this-frame))
-                  _ (uniform/update-uniform-buffer (.get image-index-ptr 0) stack)
+                  _ (uniform/update-uniform-buffer)
+                  _ (when (mesh/write-draw-list)
+                      (VK13/vkDeviceWaitIdle (VulkanGlobals/getLogicalDevice))
+                      (command-buffers/record-command-buffers))
+                  _ (FrameTimings/lap FrameTimings$Phase/UPDATE_UNIFORMS)
                   submit-info (doto (VkSubmitInfo/calloc stack)
                                 (.sType VK13/VK_STRUCTURE_TYPE_SUBMIT_INFO)
                                 (.waitSemaphoreCount 1)
                                 (.pWaitSemaphores wait-semaphores)
                                 (.pWaitDstStageMask wait-stages)
-                                (.pCommandBuffers (.pointers stack ^Pointer (.get VulkanGlobals/COMMAND_BUFFERS (.get image-index-ptr 0))))
+                                (.pCommandBuffers (.pointers stack ^Pointer (command-buffers/command-buffer (.get image-index-ptr 0))))
                                 (.pSignalSemaphores signal-semaphores))
                   _ (VK13/vkResetFences (VulkanGlobals/getLogicalDevice) (.longs stack (.inFlightFencePointer this-frame)))
                   _ (when (not= (VK13/vkQueueSubmit (.get VulkanGlobals/GRAPHICS_QUEUE) submit-info (.inFlightFencePointer this-frame))
                                 VK13/VK_SUCCESS)
                       (throw (RuntimeException. "Failed to submit draw command buffer.")))
+                  _ (FrameTimings/lap FrameTimings$Phase/SUBMIT)
                   present-info (doto (VkPresentInfoKHR/calloc stack)
                                  (.sType KHRSwapchain/VK_STRUCTURE_TYPE_PRESENT_INFO_KHR)
                                  (.pWaitSemaphores signal-semaphores)
@@ -71,7 +97,8 @@
                                  (.pSwapchains (.longs stack (.get VulkanGlobals/SWAP_CHAIN_POINTER)))
                                  (.pImageIndices image-index-ptr)
                                  (.pResults nil))
-                  present-result (KHRSwapchain/vkQueuePresentKHR (.get VulkanGlobals/PRESENT_QUEUE) present-info)]
+                  present-result (KHRSwapchain/vkQueuePresentKHR (.get VulkanGlobals/PRESENT_QUEUE) present-info)
+                  _ (FrameTimings/lap FrameTimings$Phase/PRESENT)]
               (cond
                 (or (#{KHRSwapchain/VK_ERROR_OUT_OF_DATE_KHR KHRSwapchain/VK_SUBOPTIMAL_KHR} present-result)
                     Frame/isFrameBufferResized)
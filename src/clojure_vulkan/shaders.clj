@@ -2,74 +2,226 @@
   (:refer-clojure :exclude [load])
   (:require [clojure.edn :as edn]
             [clojure.java.io :as io]
+            [clojure-vulkan.globals :refer [*config*]]
             [clojure-vulkan.util :as util]
             [me.raynes.fs :as fs])
-  (:import (java.io ByteArrayOutputStream File)
-           (java.nio DirectByteBuffer Buffer)
-           (org.lwjgl.system MemoryStack NativeResource)
+  (:import (java.io File FileOutputStream)
+           (java.nio ByteBuffer DirectByteBuffer)
+           (java.nio.channels FileChannel FileChannel$MapMode)
+           (java.nio.charset StandardCharsets)
+           (java.nio.file CopyOption Files OpenOption StandardCopyOption StandardOpenOption)
+           (java.util.concurrent Callable ConcurrentHashMap ConcurrentLinkedQueue ExecutionException ExecutorService Executors Future ThreadFactory TimeUnit)
+           (java.util.function Supplier)
+           (org.lwjgl.system MemoryStack MemoryUtil NativeResource)
            (org.lwjgl.util.shaderc Shaderc)
+           (org.lwjgl.util.lz4 LZ4)
+           (org.lwjgl.util.xxhash XXHash)
+           (org.lwjgl.util.zstd Zstd)
            (org.lwjgl.vulkan VK13)))
 
 (defn direct-byte-buffer? [buf]
-  (= (class buf) DirectByteBuffer))
+  (and (instance? ByteBuffer buf) (.isDirect ^ByteBuffer buf)))
 
 (def shaders-root "resources/shaders/")
 (def shader-sources-root (str shaders-root "sources/"))
 (def compiled-shaders-root (str shaders-root "compiled/"))
-(def ^String precompiled-shaders-database-file (str shaders-root "precompiled-vulkan-shaders.edn"))
+(def ^String precompiled-shaders-database-file
+  "Append-only index of the shader cache, one {:key :source :offset :length :raw-length :codec} EDN map per line."
+  (str shaders-root "precompiled-vulkan-shaders.edn"))
 
 (defn ^"[B" direct-byte-buffer->byte-array [^DirectByteBuffer byte-buffer]
   (let [arr (byte-array (.remaining byte-buffer))]
     (.get byte-buffer arr)
     arr))
 
+;; ***********************************************************************************************************
+;; cache keys
+
+(def ^:private include-pattern #"(?m)^[ \t]*#[ \t]*include[ \t]+[\"<]([^\">]+)[\">]")
+
+(def compiler-options
+  "Describes the options the shaderc options objects are created with. Part of every cache key, so it has to
+  change whenever the options do."
+  "shaderc-defaults;entry-point=main")
+
+(defn- resolve-includes
+  "The sources of all files `source` includes, transitively and each once, as [path source] pairs in the
+  order they are first included. Include paths are resolved against `shader-sources-root`."
+  [^String source]
+  (loop [pending (map second (re-seq include-pattern source))
+         seen #{}
+         resolved []]
+    (if-let [[path & more] (seq pending)]
+      (if (seen path)
+        (recur more seen resolved)
+        (let [file (File. (str shader-sources-root path))
+              included (if (.exists file) (slurp file) "")]
+          (recur (concat (map second (re-seq include-pattern included)) more)
+                 (conj seen path)
+                 (conj resolved [path included]))))
+      resolved)))
+
+(defn cache-key
+  "An xxHash64 of the source, its resolved includes, the stage and `compiler-options`, as 16 hex digits."
+  [^String source shader-type]
+  (let [parts (concat [(str shader-type) compiler-options source]
+                      (mapcat identity (resolve-includes source)))
+        ^"[B" bytes (.getBytes ^String (apply str (interleave parts (repeat "\u0000"))) StandardCharsets/UTF_8)
+        buffer (MemoryUtil/memAlloc (alength bytes))]
+    (try (.put buffer bytes)
+         (.flip buffer)
+         (format "%016x" (XXHash/XXH64 buffer 0))
+         (finally (MemoryUtil/memFree buffer)))))
+
+;; ***********************************************************************************************************
+;; the pack
+
+(defn- shader-pack-file
+  "All cached SPIR-V modules, appended one after another at 16-byte aligned offsets."
+  ^File []
+  (File. (str compiled-shaders-root "shaders.pack")))
+
+(defn- compress
+  "Compresses SPIR-V bytecode with `codec` (:none, :lz4 or :zstd) and returns [codec blob]. A compressed blob
+  is malloc'ed and has to be freed with MemoryUtil/memFree."
+  [codec ^ByteBuffer bytecode]
+  (case codec
+    :none [:none bytecode]
+    :lz4 (let [blob (MemoryUtil/memAlloc (LZ4/LZ4_compressBound (.remaining bytecode)))
+               size (LZ4/LZ4_compress_default bytecode blob)]
+           (when (<= size 0)
+             (MemoryUtil/memFree blob)
+             (throw (RuntimeException. "Failed to LZ4-compress SPIR-V bytecode.")))
+           [:lz4 (.limit blob size)])
+    :zstd (let [blob (MemoryUtil/memAlloc (int (Zstd/ZSTD_compressBound (.remaining bytecode))))
+                size (Zstd/ZSTD_compress blob bytecode Zstd/ZSTD_CLEVEL_DEFAULT)]
+            (when (Zstd/ZSTD_isError size)
+              (MemoryUtil/memFree blob)
+              (throw (RuntimeException. (str "Failed to Zstd-compress SPIR-V bytecode: " (Zstd/ZSTD_getErrorName size)))))
+            [:zstd (.limit blob (int size))])
+    (throw (RuntimeException. (str "Unknown shader cache compression: " codec)))))
+
+(defn- decompress
+  "Decompresses a pack entry into a malloc'ed buffer."
+  ^ByteBuffer [codec ^ByteBuffer blob raw-length]
+  (let [bytecode (MemoryUtil/memAlloc (int raw-length))
+        size (case codec
+               :lz4 (LZ4/LZ4_decompress_safe blob bytecode)
+               :zstd (let [size (Zstd/ZSTD_decompress bytecode blob)]
+                       (if (Zstd/ZSTD_isError size) -1 size))
+               -1)]
+    (when (not= size raw-length)
+      (MemoryUtil/memFree bytecode)
+      (throw (RuntimeException. (str "Corrupt " codec " entry in the shader pack."))))
+    bytecode))
+
+(defn- map-pack
+  "Maps the whole pack read-only, or returns nil if there is none. Slices of an older mapping stay valid after
+  the pack is remapped."
+  ^ByteBuffer []
+  (let [file (shader-pack-file)]
+    (when (pos? (.length file))
+      (with-open [channel (FileChannel/open (.toPath file) (into-array OpenOption [StandardOpenOption/READ]))]
+        (.map channel FileChannel$MapMode/READ_ONLY 0 (.size channel))))))
+
+(defn- append-to-pack
+  "Appends blobs to the pack at 16-byte aligned offsets and syncs it. Returns their [offset length] pairs."
+  [blobs]
+  (let [file (shader-pack-file)]
+    (.mkdirs (.getParentFile file))
+    (with-open [channel (FileChannel/open (.toPath file) (into-array OpenOption [StandardOpenOption/CREATE
+                                                                                 StandardOpenOption/WRITE
+                                                                                 StandardOpenOption/APPEND]))]
+      (let [placements (mapv (fn [^ByteBuffer blob]
+                               (let [blob (.duplicate blob)
+                                     length (.remaining blob)]
+                                 (.write channel (ByteBuffer/allocate (int (mod (- (.size channel)) 16))))
+                                 (let [offset (.size channel)]
+                                   (while (.hasRemaining blob)
+                                     (.write channel blob))
+                                   [offset length])))
+                             blobs)]
+        (.force channel false)
+        placements))))
+
+;; ***********************************************************************************************************
+;; the index
+
 (defprotocol IShaderDatabase
   (load [this])
-  (add-src->bytecode-out [this src-file bytecode-file bytecode])
-  (shader-modified? [this src-file])
+  (lookup [this key]
+    "A direct buffer with the cached bytecode of a cache key, or nil. Uncompressed entries are slices of the
+    read-only pack mapping; compressed ones are decompressed into a malloc'ed buffer the caller frees.")
+  (add-compiled-shaders [this entries]
+    "Appends the blobs of entries {:key :source :codec :blob :raw-length} to the pack, then their index lines
+    in a single write.")
   (reset-shaders-cache! [this]))
 
-(deftype ShaderDatabase [^:unsynchronized-mutable shader-database]
+(defn- read-index-entries
+  "Reads the append-only index; a torn last line from an interrupted append is ignored."
+  [^File file]
+  (with-open [reader (io/reader file)]
+    (into []
+          (keep #(try (let [entry (edn/read-string %)]
+                        (when (and (map? entry) (:key entry) (:offset entry)) entry))
+                      (catch Exception _ nil)))
+          (line-seq reader))))
+
+(defn- write-index-atomically [^File file entries]
+  (let [tmp (File. (str (.getPath file) ".tmp"))]
+    (spit tmp (apply str (map #(str (pr-str %) \newline) entries)))
+    (Files/move (.toPath tmp) (.toPath file) (into-array CopyOption [StandardCopyOption/ATOMIC_MOVE StandardCopyOption/REPLACE_EXISTING]))))
+
+(deftype ShaderDatabase [^ConcurrentHashMap index ^:volatile-mutable ^ByteBuffer pack]
   IShaderDatabase
   (load [this]
-    (set! shader-database (try (edn/read-string (slurp precompiled-shaders-database-file))
-                               (catch Throwable t
-                                 (util/log "Couldn't open and edn-read precompiled shaders database file: "
-                                           precompiled-shaders-database-file)
-                                 (.printStackTrace t)
-                                 (throw t)))))
-  (add-src->bytecode-out [this src-file bytecode-file bytecode]
-    (let [direct-byte-buffer? (direct-byte-buffer? bytecode)
-          byte-array (if direct-byte-buffer?
-                       (direct-byte-buffer->byte-array bytecode)
-                       bytecode)
-          new-database (assoc shader-database src-file {:last-modified (.lastModified (File. (str shader-sources-root src-file)))
-                                                        :spv-filepath  bytecode-file})]
-      (io/copy (io/input-stream byte-array)
-               (File. ^String (str compiled-shaders-root bytecode-file)))
-      (spit precompiled-shaders-database-file new-database)
-      (set! shader-database new-database)
-      (when direct-byte-buffer?
-        (.rewind ^Buffer bytecode))))
-  (shader-modified? [this src-file]
-    (if-let [record-data (get shader-database src-file)]
-      (or (nil? (:spv-filepath record-data))
-          (not record-data)
-          (> (.lastModified (File. (str shader-sources-root src-file)))
-             (:last-modified record-data))
-          (not (fs/exists? (str compiled-shaders-root (:spv-filepath record-data)))))
-      true))
+    (locking this
+      (let [file (File. precompiled-shaders-database-file)
+            entries (try (read-index-entries file)
+                         (catch Throwable t
+                           (util/log "Couldn't read the precompiled shaders index file: " precompiled-shaders-database-file)
+                           (.printStackTrace t)
+                           (throw t)))]
+        (set! pack (map-pack))
+        (.clear index)
+        (doseq [entry entries]
+          (.put index (:key entry) entry))
+        ;; compact once superseded lines outnumber the live ones
+        (when (> (count entries) (* 2 (.size index)))
+          (write-index-atomically file (vals index))))))
+  (lookup [this key]
+    (let [pack pack]
+      (when-let [{:keys [offset length raw-length codec]} (.get index key)]
+        ;; the pack may have been truncated under an older index
+        (when (and pack (<= (+ offset length) (.capacity pack)))
+          (let [blob (.slice pack (int offset) (int length))]
+            (if (= codec :none)
+              blob
+              (decompress codec blob raw-length)))))))
+  (add-compiled-shaders [this entries]
+    (locking this
+      (let [placements (append-to-pack (map :blob entries))
+            index-entries (mapv (fn [{:keys [key source codec raw-length]} [offset length]]
+                                  {:key key :source source :offset offset :length length :raw-length raw-length :codec codec})
+                                entries placements)]
+        (with-open [out (FileOutputStream. precompiled-shaders-database-file true)]
+          (.write out (.getBytes ^String (apply str (map #(str (pr-str %) \newline) index-entries)) StandardCharsets/UTF_8)))
+        (set! pack (map-pack))
+        (doseq [entry index-entries]
+          (.put index (:key entry) entry)))))
   (reset-shaders-cache! [this]
-    (doseq [file (fs/list-dir compiled-shaders-root)]
-      (fs/delete file))
-    (set! shader-database {})
-    (spit precompiled-shaders-database-file {})))
+    (locking this
+      (doseq [file (fs/list-dir compiled-shaders-root)]
+        (fs/delete file))
+      (set! pack nil)
+      (.clear index)
+      (spit precompiled-shaders-database-file ""))))
 
-(def THE-DATABASE (ShaderDatabase. nil))
+(def THE-DATABASE (ShaderDatabase. (ConcurrentHashMap.) nil))
 
 (when-not (fs/exists? precompiled-shaders-database-file)
   (util/log "Creating precompiled shders database file: " precompiled-shaders-database-file)
-  (spit precompiled-shaders-database-file "{}"))
+  (spit precompiled-shaders-database-file ""))
 
 (load THE-DATABASE)
 
@@ -80,53 +232,137 @@
     :shader-type/geometry Shaderc/shaderc_glsl_geometry_shader
     (throw (RuntimeException. (str "Unknown shader type: " shader-type)))))
 
-(defn ^"[B" slurp-bytes [source]
-  (with-open [out (ByteArrayOutputStream.)]
-    (io/copy (io/input-stream source) out)
-    (.toByteArray out)))
-
 (defprotocol ISpirVShader
   (get-bytebuffer [this]))
 
-(deftype SpirVShader [address ^:unsynchronized-mutable bytecode]
+(deftype SpirVShader [address ^:unsynchronized-mutable bytecode owned?]
   NativeResource
   (free [this]
-    (when-not (= address :shader-state/already-compiled)
+    (if (= address :shader-state/already-compiled)
+      (when owned?
+        (MemoryUtil/memFree ^ByteBuffer bytecode))
       (Shaderc/shaderc_result_release address))
     (set! bytecode nil))
   ISpirVShader
   (get-bytebuffer [this]
-    (if (= DirectByteBuffer (class bytecode))
+    (if (direct-byte-buffer? bytecode)
       bytecode
       (.bytes (MemoryStack/stackGet) ^"[B" bytecode))))
 
-(defn ^SpirVShader compile-shader
-  ([shader-source-file shader-type spv-filepath]
-   (let [should-compile? (shader-modified? THE-DATABASE shader-source-file)]
-     (if should-compile?
-       (try (let [full-relative-path (str shader-sources-root shader-source-file)
-                  compiler (Shaderc/shaderc_compiler_initialize)
-                  _ (when (= compiler VK13/VK_NULL_HANDLE)
-                      (throw (RuntimeException. "Failed to initialize shader compiler.")))
-                  source (slurp full-relative-path)
-                  result (Shaderc/shaderc_compile_into_spv ^long compiler
-                                                           ^String source
-                                                           ^int (shader-type->integer-id shader-type)
-                                                           full-relative-path
-                                                           "main"
-                                                           VK13/VK_NULL_HANDLE)
-                  _ (do (when (= result VK13/VK_NULL_HANDLE)
-                          (throw (RuntimeException. (str "Failed to compile shader " full-relative-path " into SPIR-V."))))
-                        (when (not= (Shaderc/shaderc_result_get_compilation_status result)
-                                    Shaderc/shaderc_compilation_status_success)
-                          (throw (RuntimeException. (str "Failed to compile shader " full-relative-path " into SPIR-V:\n"
-                                                         (Shaderc/shaderc_result_get_error_message result)))))
-                        (Shaderc/shaderc_compiler_release compiler))
-                  spv-bytecode (Shaderc/shaderc_result_get_bytes result)]
-              (if (nil? spv-filepath)
-                (util/log "Couldn't save precompiled shader bytecode: destination not supplied.")
-                (add-src->bytecode-out THE-DATABASE shader-source-file spv-filepath spv-bytecode))
-              (SpirVShader. result spv-bytecode))
-            (catch Throwable t (.printStackTrace t)))
-       (SpirVShader. :shader-state/already-compiled (.bytes (MemoryStack/stackGet)
-                                                            (slurp-bytes (str compiled-shaders-root spv-filepath))))))))
+(defn- compile-source
+  "Compiles a shader and returns the shaderc result handle, which is released when the returned SpirVShader
+  is freed."
+  [compiler options shader-source-file ^String source shader-type]
+  (let [full-relative-path (str shader-sources-root shader-source-file)
+        result (Shaderc/shaderc_compile_into_spv (long compiler)
+                                                 source
+                                                 ^int (shader-type->integer-id shader-type)
+                                                 full-relative-path
+                                                 "main"
+                                                 (long options))]
+    (when (= result VK13/VK_NULL_HANDLE)
+      (throw (RuntimeException. (str "Failed to compile shader " full-relative-path " into SPIR-V."))))
+    (when (not= (Shaderc/shaderc_result_get_compilation_status result)
+                Shaderc/shaderc_compilation_status_success)
+      (let [message (Shaderc/shaderc_result_get_error_message result)]
+        (Shaderc/shaderc_result_release result)
+        (throw (RuntimeException. (str "Failed to compile shader " full-relative-path " into SPIR-V:\n" message)))))
+    result))
+
+(defn- initialize-compiler []
+  (let [compiler (Shaderc/shaderc_compiler_initialize)]
+    (when (= compiler VK13/VK_NULL_HANDLE)
+      (throw (RuntimeException. "Failed to initialize shader compiler.")))
+    compiler))
+
+(defn- compiler-thread-factory []
+  (let [thread-count (atom 0)]
+    (reify ThreadFactory
+      (newThread [_ runnable]
+        (doto (Thread. runnable (str "shader-compiler-" (swap! thread-count inc)))
+          (.setDaemon true))))))
+
+(defn- free-compiled
+  "Releases the shaders of a failed batch's results."
+  [outcomes]
+  (doseq [outcome outcomes]
+    (.free ^SpirVShader (:shader outcome))))
+
+(defn compile-shaders
+  "Compiles a batch of shaders, given as maps of `:source` (relative to `shader-sources-root`) and `:stage` (a
+  :shader-type/* keyword), on a pool of at most `parallelism` threads. Each worker thread initializes one
+  shaderc compiler and options object and reuses them for all of its shaders. Shaders whose `cache-key` is
+  in the cache are loaded instead of compiled.
+
+  Returns a vector in the order of `shaders`, of the input maps with `:shader` (a SpirVShader), `:key`,
+  `:cached?` and `:millis`, the time spent on that shader. The workers compress new bytecode with the
+  :shader-cache-compression of the config; it is appended to the pack and the index once at the end. If any
+  shader fails to compile, all compiled results are released and the first failure is rethrown."
+  ([shaders] (compile-shaders shaders (.availableProcessors (Runtime/getRuntime))))
+  ([shaders parallelism]
+   (let [shaders (vec shaders)
+         codec (:shader-cache-compression *config* :none)
+         compilers (ConcurrentLinkedQueue.)
+         worker-compiler (ThreadLocal/withInitial
+                           (reify Supplier
+                             (get [_]
+                               (let [compiler (initialize-compiler)
+                                     options (Shaderc/shaderc_compile_options_initialize)]
+                                 (.add compilers [compiler options])
+                                 [compiler options]))))
+         compile-one (fn [{:keys [source stage]}]
+                       (let [start (System/nanoTime)
+                             source-code (slurp (str shader-sources-root source))
+                             key (cache-key source-code stage)
+                             cached (lookup THE-DATABASE key)]
+                         (if cached
+                           ;; only decompressed bytecode is owned, slices of the pack mapping are read-only
+                           {:shader  (SpirVShader. :shader-state/already-compiled cached (not (.isReadOnly ^ByteBuffer cached)))
+                            :key     key
+                            :cached? true
+                            :millis  (/ (- (System/nanoTime) start) 1e6)}
+                           (let [[compiler options] (.get worker-compiler)
+                                 result (compile-source compiler options source source-code stage)
+                                 bytecode (Shaderc/shaderc_result_get_bytes result)
+                                 [codec blob] (compress codec bytecode)]
+                             {:shader     (SpirVShader. result bytecode false)
+                              :key        key
+                              :cached?    false
+                              :codec      codec
+                              :blob       blob
+                              :raw-length (.remaining bytecode)
+                              :millis     (/ (- (System/nanoTime) start) 1e6)}))))
+         ^ExecutorService pool (Executors/newFixedThreadPool (max 1 (min (count shaders) parallelism))
+                                                             (compiler-thread-factory))]
+     (try
+       (let [futures (mapv (fn [shader]
+                             (.submit pool ^Callable (fn [] (compile-one shader))))
+                           shaders)
+             outcomes (mapv (fn [^Future f]
+                              (try (.get f)
+                                   (catch ExecutionException e
+                                     (.getCause e))))
+                            futures)]
+         (try
+           (when-let [^Throwable failure (first (filter #(instance? Throwable %) outcomes))]
+             (free-compiled (filter map? outcomes))
+             (throw failure))
+           (when-let [compiled (seq (for [[shader outcome] (map vector shaders outcomes)
+                                          :when (not (:cached? outcome))]
+                                      (assoc (select-keys outcome [:key :codec :blob :raw-length]) :source (:source shader))))]
+             (add-compiled-shaders THE-DATABASE (vals (into {} (map (juxt :key identity)) compiled))))
+           (finally
+             (doseq [outcome outcomes :when (and (map? outcome) (not= :none (:codec outcome :none)))]
+               (MemoryUtil/memFree ^ByteBuffer (:blob outcome)))))
+         (mapv (fn [shader outcome]
+                 (merge shader (dissoc outcome :codec :blob :raw-length)))
+               shaders outcomes))
+       (finally
+         (.shutdown pool)
+         (.awaitTermination pool 1 TimeUnit/MINUTES)
+         (doseq [[compiler options] compilers]
+           (Shaderc/shaderc_compile_options_release options)
+           (Shaderc/shaderc_compiler_release compiler)))))))
+
+(defn ^SpirVShader compile-shader [shader-source-file shader-type]
+  (:shader (first (compile-shaders [{:source shader-source-file :stage shader-type}] 1))))
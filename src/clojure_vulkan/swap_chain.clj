@@ -5,13 +5,12 @@
             [clojure-vulkan.image-views :as image-views]
             [clojure-vulkan.render-pass :as render-pass]
             [clojure-vulkan.util :as util])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals VulkanGlobalsInterfaces$VkPointerVector)
+  (:import (clojure_vulkan.Vulkan VulkanGlobals)
            (java.nio IntBuffer)
            (org.lwjgl.glfw GLFW)
            (org.lwjgl.system MemoryStack)
            (org.lwjgl.vulkan KHRSurface KHRSwapchain VK13 VkExtent2D VkPhysicalDevice VkSurfaceCapabilitiesKHR VkSurfaceFormatKHR
-                             VkSurfaceFormatKHR$Buffer VkSwapchainCreateInfoKHR)
-           (java.util Vector Collection)))
+                             VkSurfaceFormatKHR$Buffer VkSwapchainCreateInfoKHR)))
 
 (defonce UINT32-MAX 0xffffffff)
 
@@ -114,16 +113,13 @@
                 (KHRSwapchain/vkGetSwapchainImagesKHR (VulkanGlobals/getLogicalDevice) (.get VulkanGlobals/SWAP_CHAIN_POINTER) image-count-ptr nil))
           swapchain-images-ptr (.mallocLong stack (.get image-count-ptr 0))]
       (KHRSwapchain/vkGetSwapchainImagesKHR (VulkanGlobals/getLogicalDevice) (.get VulkanGlobals/SWAP_CHAIN_POINTER) image-count-ptr swapchain-images-ptr)
-      (.set VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS
-            (VulkanGlobalsInterfaces$VkPointerVector/asVkPointerVector
-              (Vector. ^Collection (mapv #(.get swapchain-images-ptr ^int %)
-                                         (range image-count)))))
+      (.set VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS swapchain-images-ptr)
       (.set VulkanGlobals/SWAP_CHAIN_IMAGE_FORMAT (.format surface-format))
       (.set VulkanGlobals/SWAP_CHAIN_EXTENT (doto (VkExtent2D/create)
                                               (.set extent))))))
 
 (defn cleanup-swap-chain []
-  (.free VulkanGlobals/COMMAND_BUFFERS)
+  (command-buffers/free-command-buffers)
   (graphics-pipeline/destroy-graphics-pipeline)
   (.free VulkanGlobals/SWAP_CHAIN_IMAGE_FORMAT)
   (.free VulkanGlobals/PIPELINE_LAYOUT_POINTER)
@@ -1,95 +1,121 @@
 (ns clojure-vulkan.texture
   (:require [clojure-vulkan.buffer :as buffer]
-            [clojure-vulkan.globals :refer [TEXTURE]]
+            [clojure-vulkan.globals :refer [TEXTURE TRANSFER-CONTEXT]]
+            [clojure-vulkan.transfer :as transfer]
             [clojure-vulkan.util :as util])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals Buffer)
-           (java.nio IntBuffer ByteBuffer LongBuffer)
-           (org.lwjgl.stb STBImage)
+  (:import (clojure_vulkan MipChain)
+           (clojure_vulkan.Vulkan ResourceRegistry ResourceRegistry$Type Texture VulkanGlobals)
            (org.lwjgl.system MemoryStack)
-           (org.lwjgl.vulkan VK13 VkImageCreateInfo VkMemoryAllocateInfo VkMemoryRequirements VkImageMemoryBarrier VkBufferImageCopy VkExtent3D VkOffset3D VkImageViewCreateInfo VkSamplerCreateInfo VkPhysicalDeviceProperties)))
+           (org.lwjgl.vulkan VK13 VkBufferImageCopy VkCommandBuffer VkExtent3D VkImageCreateInfo VkImageMemoryBarrier
+                             VkMemoryRequirements VkOffset3D VkPhysicalDeviceProperties VkSamplerCreateInfo)))
 
 (def textures-root "resources/textures/")
 
-(defn transition-image-layout [image-pointer image-format old-layout new-layout]
+(defn- layout-transition-masks
+  "[src-access-mask dst-access-mask src-stage-mask dst-stage-mask] of a supported layout transition."
+  [old-layout new-layout]
+  (cond (and (= old-layout VK13/VK_IMAGE_LAYOUT_UNDEFINED)
+             (= new-layout VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL))
+        [0
+         VK13/VK_ACCESS_TRANSFER_WRITE_BIT
+         VK13/VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT
+         VK13/VK_PIPELINE_STAGE_TRANSFER_BIT]
+
+        (and (= old-layout VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+             (= new-layout VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL))
+        [VK13/VK_ACCESS_TRANSFER_WRITE_BIT
+         VK13/VK_ACCESS_SHADER_READ_BIT
+         VK13/VK_PIPELINE_STAGE_TRANSFER_BIT
+         VK13/VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT]
+
+        :else
+        (throw (RuntimeException. "Unsupported layout transition."))))
+
+(defn- record-image-barriers
+  "Records one pipeline barrier transitioning all mip levels of all `image-pointers` between the layouts."
+  [^VkCommandBuffer command-buffer image-pointers old-layout new-layout src-access-mask dst-access-mask
+   source-stage-mask destination-stage-mask src-queue-family dst-queue-family ^MemoryStack stack]
+  (let [image-memory-barriers (VkImageMemoryBarrier/calloc (count image-pointers) stack)]
+    (doseq [[i image-pointer] (map-indexed vector image-pointers)]
+      (doto ^VkImageMemoryBarrier (.get image-memory-barriers (int i))
+        (.sType VK13/VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+        (.oldLayout old-layout)
+        (.newLayout new-layout)
+        (.srcQueueFamilyIndex src-queue-family)
+        (.dstQueueFamilyIndex dst-queue-family)
+        (.image image-pointer)
+        (.. subresourceRange (aspectMask VK13/VK_IMAGE_ASPECT_COLOR_BIT))
+        (.. subresourceRange (baseMipLevel 0))
+        (.. subresourceRange (levelCount VK13/VK_REMAINING_MIP_LEVELS))
+        (.. subresourceRange (baseArrayLayer 0))
+        (.. subresourceRange (layerCount 1))
+        (.srcAccessMask src-access-mask)
+        (.dstAccessMask dst-access-mask)))
+    (VK13/vkCmdPipelineBarrier command-buffer source-stage-mask destination-stage-mask
+                               #_dependency-flags 0
+                               #_memory-barriers nil
+                               #_buffer-memory-barriers nil
+                               image-memory-barriers)))
+
+(defn record-layout-transitions [^VkCommandBuffer command-buffer image-pointers old-layout new-layout ^MemoryStack stack]
+  (let [[src-access-mask dst-access-mask source-stage-mask destination-stage-mask] (layout-transition-masks old-layout new-layout)]
+    (record-image-barriers command-buffer image-pointers old-layout new-layout src-access-mask dst-access-mask
+                           source-stage-mask destination-stage-mask VK13/VK_QUEUE_FAMILY_IGNORED VK13/VK_QUEUE_FAMILY_IGNORED stack)))
+
+(defn record-handoff-transitions
+  "Records the transition of images written by the transfer context into the layout the graphics queue reads them in,
+  transferring their ownership if the transfers run on a dedicated queue family."
+  [image-pointers old-layout new-layout ^MemoryStack stack]
+  (let [[src-access-mask dst-access-mask source-stage-mask destination-stage-mask] (layout-transition-masks old-layout new-layout)]
+    (doseq [[command-buffer src-access-mask dst-access-mask source-stage-mask destination-stage-mask src-queue-family dst-queue-family]
+            (transfer/handoff-stages src-access-mask dst-access-mask source-stage-mask destination-stage-mask)]
+      (record-image-barriers command-buffer image-pointers old-layout new-layout src-access-mask dst-access-mask
+                             source-stage-mask destination-stage-mask src-queue-family dst-queue-family stack))))
+
+(defn transition-image-layout
+  "Records the transition into the transfer context, which runs it with its next submission."
+  [image-pointer image-format old-layout new-layout]
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [command-buffer (util/begin-single-time-commands)
-          image-memory-barriers (doto (VkImageMemoryBarrier/calloc 1 stack)
-                                  (.sType VK13/VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
-                                  (.oldLayout old-layout)
-                                  (.newLayout new-layout)
-                                  (.srcQueueFamilyIndex VK13/VK_QUEUE_FAMILY_IGNORED)
-                                  (.dstQueueFamilyIndex VK13/VK_QUEUE_FAMILY_IGNORED)
-                                  (.image image-pointer)
-                                  (.. subresourceRange (aspectMask VK13/VK_IMAGE_ASPECT_COLOR_BIT))
-                                  (.. subresourceRange (baseMipLevel 0))
-                                  (.. subresourceRange (levelCount 1))
-                                  (.. subresourceRange (baseArrayLayer 0))
-                                  (.. subresourceRange (layerCount 1))
-                                  (.srcAccessMask 0)
-                                  (.dstAccessMask 0))
-          [source-stage-mask destination-stage-mask] (cond (and (= old-layout VK13/VK_IMAGE_LAYOUT_UNDEFINED)
-                                                                (= new-layout VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL))
-                                                           (do (.srcAccessMask image-memory-barriers 0)
-                                                               (.dstAccessMask image-memory-barriers VK13/VK_ACCESS_TRANSFER_WRITE_BIT)
-                                                               [VK13/VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT
-                                                                VK13/VK_PIPELINE_STAGE_TRANSFER_BIT])
-
-                                                           (and (= old-layout VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
-                                                                (= new-layout VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL))
-                                                           (do (.srcAccessMask image-memory-barriers VK13/VK_ACCESS_TRANSFER_WRITE_BIT)
-                                                               (.dstAccessMask image-memory-barriers VK13/VK_ACCESS_SHADER_READ_BIT)
-                                                               [VK13/VK_PIPELINE_STAGE_TRANSFER_BIT
-                                                                VK13/VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT])
-
-                                                           :else
-                                                           (throw (RuntimeException. "Unsupported layout transition.")))]
-      (VK13/vkCmdPipelineBarrier command-buffer source-stage-mask destination-stage-mask
-                                 #_dependency-flags 0
-                                 #_memory-barriers nil
-                                 #_buffer-memory-barriers nil
-                                 image-memory-barriers)
-      (util/end-single-time-commands command-buffer))))
-
-(defn copy-buffer-to-image [staging-buffer-ptr image-pointer image-width image-height]
+    (if (= new-layout VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+      (record-handoff-transitions [image-pointer] old-layout new-layout stack)
+      (record-layout-transitions (.commands TRANSFER-CONTEXT) [image-pointer] old-layout new-layout stack))))
+
+(defn record-copy-buffer-to-image
+  "Records the copy of a mip chain packed as by `MipChain` at `buffer-offset` into the image, one region per level."
+  [^VkCommandBuffer command-buffer staging-buffer-ptr buffer-offset image-pointer image-width image-height mip-levels ^MemoryStack stack]
+  (let [level-offsets (MipChain/levelOffsets image-width image-height)
+        buffer-image-copy-regions (VkBufferImageCopy/calloc (int mip-levels) stack)]
+    (dotimes [level mip-levels]
+      (doto ^VkBufferImageCopy (.get buffer-image-copy-regions level)
+        (.bufferOffset (+ (long buffer-offset) (aget level-offsets level)))
+        (.bufferRowLength 0)
+        (.bufferImageHeight 0)
+        (.. imageSubresource (aspectMask VK13/VK_IMAGE_ASPECT_COLOR_BIT))
+        (.. imageSubresource (mipLevel level))
+        (.. imageSubresource (baseArrayLayer 0))
+        (.. imageSubresource (layerCount 1))
+        (.imageOffset (.set (VkOffset3D/calloc stack) 0 0 0))
+        (.imageExtent (.set (VkExtent3D/calloc stack) (MipChain/levelWidth image-width level) (MipChain/levelHeight image-height level) 1))))
+    (VK13/vkCmdCopyBufferToImage command-buffer staging-buffer-ptr image-pointer VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL buffer-image-copy-regions)))
+
+(defn copy-buffer-to-image
+  "Records the copy into the transfer context, which runs it with its next submission."
+  [staging-buffer-ptr image-pointer image-width image-height]
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [command-buffer (util/begin-single-time-commands)
-          buffer-image-copy-region (doto (VkBufferImageCopy/calloc 1 stack)
-                                     (.bufferOffset 0)
-                                     (.bufferRowLength 0)
-                                     (.bufferImageHeight 0)
-                                     (.. imageSubresource (aspectMask VK13/VK_IMAGE_ASPECT_COLOR_BIT))
-                                     (.. imageSubresource (mipLevel 0))
-                                     (.. imageSubresource (baseArrayLayer 0))
-                                     (.. imageSubresource (layerCount 1))
-                                     (.imageOffset (.set (VkOffset3D/calloc stack) 0 0 0))
-                                     (.imageExtent (.set (VkExtent3D/calloc stack) image-width image-height 1)))]
-      (VK13/vkCmdCopyBufferToImage command-buffer staging-buffer-ptr image-pointer VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL buffer-image-copy-region)
-      (util/end-single-time-commands command-buffer))))
-
-(defn create-texture-image [texture-filepath]
+    (record-copy-buffer-to-image (.commands TRANSFER-CONTEXT) staging-buffer-ptr 0 image-pointer image-width image-height 1 stack)))
+
+(defn create-image
+  "Creates a device local, sampled R8G8B8A8_SRGB image with `mip-levels` levels and its memory into `texture`."
+  [^Texture texture width height mip-levels]
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [[^IntBuffer texture-width* ^IntBuffer texture-height* ^IntBuffer texture-channels] (repeatedly #(.mallocInt stack 1))
-          filepath (str textures-root texture-filepath)
-          ^ByteBuffer pixels (STBImage/stbi_load (.UTF8 stack filepath) texture-width* texture-height* texture-channels STBImage/STBI_rgb_alpha)
-          image-size (* STBImage/STBI_rgb_alpha (.get texture-width* 0) (.get texture-height* 0))
-          _ (when (nil? pixels)
-              (throw (RuntimeException. (str "Texture " texture-filepath " couldn't be loaded."))))
-          [^LongBuffer buffer-ptr* ^LongBuffer buffer-memory-ptr*] (repeatedly #(.mallocLong stack 1))
-          staging-buffer
-          (buffer/create-buffer image-size VK13/VK_BUFFER_USAGE_TRANSFER_SRC_BIT (util/bit-ors VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
-                                                                                               VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
-                                buffer-ptr* buffer-memory-ptr* stack)
-          data-ptr* (.mallocPointer stack 1)
-          _ (do (buffer/staging-buffer-memcpy (.bufferMemoryPointer staging-buffer) image-size data-ptr* pixels :buffer-copy/byte-buffer)
-                (STBImage/stbi_image_free pixels))
-          image-ptr* (.mallocLong stack 1)
+    (let [image-ptr* (.mallocLong stack 1)
           image-create-info (doto (VkImageCreateInfo/calloc stack)
                               (.sType VK13/VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO)
                               (.imageType VK13/VK_IMAGE_TYPE_2D)
-                              (.. extent (width (.get texture-width* 0)))
-                              (.. extent (height (.get texture-height* 0)))
+                              (.. extent (width width))
+                              (.. extent (height height))
                               (.. extent (depth 1))
-                              (.mipLevels 1)
+                              (.mipLevels mip-levels)
                               (.arrayLayers 1)
                               (.format VK13/VK_FORMAT_R8G8B8A8_SRGB)
                               (.tiling VK13/VK_IMAGE_TILING_OPTIMAL)
@@ -101,53 +127,61 @@
                               (.flags 0))
           _ (if (= (VK13/vkCreateImage (VulkanGlobals/getLogicalDevice) image-create-info nil image-ptr*)
                    VK13/VK_SUCCESS)
-              (.imagePointer TEXTURE (.get image-ptr* 0))
-              (throw (RuntimeException. (str "Failed to create image: " texture-filepath))))
+              (.imagePointer texture (.get image-ptr* 0))
+              (throw (RuntimeException. "Failed to create image.")))
           memory-requirements (VkMemoryRequirements/calloc stack)
-          _ (VK13/vkGetImageMemoryRequirements (VulkanGlobals/getLogicalDevice) (.imagePointer TEXTURE) memory-requirements)
-          memory-allocate-info (doto (VkMemoryAllocateInfo/calloc stack)
-                                 (.sType VK13/VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
-                                 (.allocationSize (.size memory-requirements))
-                                 (.memoryTypeIndex (util/find-memory-type (.memoryTypeBits memory-requirements)
-                                                                          VK13/VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT
-                                                                          stack :memory-kind/image)))
-          image-memory-ptr* (.mallocLong stack 1)
-          _ (do (if (= (VK13/vkAllocateMemory (VulkanGlobals/getLogicalDevice) memory-allocate-info nil image-memory-ptr*)
-                       VK13/VK_SUCCESS)
-                  (.imageMemoryPointer TEXTURE (.get image-memory-ptr* 0))
-                  (throw (RuntimeException. "Failed to allocate image memory.")))
-                (VK13/vkBindImageMemory (VulkanGlobals/getLogicalDevice) (.imagePointer TEXTURE) (.imageMemoryPointer TEXTURE) 0))]
-      (transition-image-layout (.imagePointer TEXTURE) VK13/VK_FORMAT_R8G8B8A8_SRGB VK13/VK_IMAGE_LAYOUT_UNDEFINED VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
-      (copy-buffer-to-image (.bufferPointer staging-buffer) (.imagePointer TEXTURE) (.get texture-width* 0) (.get texture-height* 0))
-      (transition-image-layout (.imagePointer TEXTURE) VK13/VK_FORMAT_R8G8B8A8_SRGB VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
-      (.free ^Buffer staging-buffer))))
-
-(defn create-texture-image-view []
-  (.textureImageViewPointer TEXTURE (util/create-image-view (.imagePointer TEXTURE) VK13/VK_FORMAT_R8G8B8A8_SRGB)))
+          _ (VK13/vkGetImageMemoryRequirements (VulkanGlobals/getLogicalDevice) (.imagePointer texture) memory-requirements)
+          allocation (buffer/allocate-memory memory-requirements VK13/VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT true stack :memory-kind/image)]
+      (.imageAllocation texture allocation)
+      (.bytes texture (.size memory-requirements))
+      (ResourceRegistry/register texture ResourceRegistry$Type/IMAGE (.size memory-requirements))
+      (when (not= (VK13/vkBindImageMemory (VulkanGlobals/getLogicalDevice) (.imagePointer texture) (.memory allocation) (.offset allocation))
+                  VK13/VK_SUCCESS)
+        (throw (RuntimeException. "Failed to bind image memory."))))))
 
-(defn create-texture-sampler []
+(def default-sampler-settings {:filter :linear :address-mode :repeat :anisotropy? true})
+
+(defn- vk-filter [filter]
+  (case filter
+    :linear VK13/VK_FILTER_LINEAR
+    :nearest VK13/VK_FILTER_NEAREST))
+
+(defn- vk-address-mode [address-mode]
+  (case address-mode
+    :repeat VK13/VK_SAMPLER_ADDRESS_MODE_REPEAT
+    :mirrored-repeat VK13/VK_SAMPLER_ADDRESS_MODE_MIRRORED_REPEAT
+    :clamp-to-edge VK13/VK_SAMPLER_ADDRESS_MODE_CLAMP_TO_EDGE
+    :clamp-to-border VK13/VK_SAMPLER_ADDRESS_MODE_CLAMP_TO_BORDER))
+
+(defn create-sampler
+  "Creates a sampler from settings like `default-sampler-settings` and returns its handle."
+  [{:keys [filter address-mode anisotropy?]}]
   (util/with-memory-stack-push ^MemoryStack stack
     (let [physical-device-properties (VkPhysicalDeviceProperties/malloc stack)
           _ (VK13/vkGetPhysicalDeviceProperties (.get VulkanGlobals/PHYSICAL_DEVICE) physical-device-properties)
           sampler-create-info (doto (VkSamplerCreateInfo/calloc stack)
                                 (.sType VK13/VK_STRUCTURE_TYPE_SAMPLER_CREATE_INFO)
-                                (.magFilter VK13/VK_FILTER_LINEAR) ; VK13/VK_FILTER_NEAREST is the 2nd option
-                                (.minFilter VK13/VK_FILTER_LINEAR)
-                                (.addressModeU VK13/VK_SAMPLER_ADDRESS_MODE_REPEAT)
-                                (.addressModeV VK13/VK_SAMPLER_ADDRESS_MODE_REPEAT)
-                                (.addressModeW VK13/VK_SAMPLER_ADDRESS_MODE_REPEAT)
-                                (.anisotropyEnable false)   ; ANISOTROPH DISABLED
+                                (.magFilter (vk-filter filter))
+                                (.minFilter (vk-filter filter))
+                                (.addressModeU (vk-address-mode address-mode))
+                                (.addressModeV (vk-address-mode address-mode))
+                                (.addressModeW (vk-address-mode address-mode))
+                                (.anisotropyEnable (boolean anisotropy?)) ; samplerAnisotropy is required of the physical device
                                 (.maxAnisotropy (.maxSamplerAnisotropy (.limits physical-device-properties)))
                                 (.borderColor VK13/VK_BORDER_COLOR_INT_OPAQUE_BLACK)
                                 (.unnormalizedCoordinates false) ; [0; 1], otherwise [0; width] or [0; height]
                                 (.compareEnable false)
                                 (.compareOp VK13/VK_COMPARE_OP_ALWAYS)
-                                (.mipmapMode VK13/VK_SAMPLER_MIPMAP_MODE_LINEAR) ; MIPMAPPING: irrelevant for now
+                                (.mipmapMode (if (= filter :nearest) VK13/VK_SAMPLER_MIPMAP_MODE_NEAREST VK13/VK_SAMPLER_MIPMAP_MODE_LINEAR))
                                 (.mipLodBias 0)
                                 (.minLod 0)
-                                (.maxLod 0))
+                                ; a sampler may be shared by several textures, each view clamps it to its own mip chain
+                                (.maxLod VK13/VK_LOD_CLAMP_NONE))
           texture-sampler-ptr* (.mallocLong stack 1)]
       (if (= (VK13/vkCreateSampler (VulkanGlobals/getLogicalDevice) sampler-create-info nil texture-sampler-ptr*)
              VK13/VK_SUCCESS)
-        (.textureSamplerPointer TEXTURE (.get texture-sampler-ptr* 0))
+        (.get texture-sampler-ptr* 0)
         (throw (RuntimeException. "Failed to create texture sampler."))))))
+
+(defn create-texture-sampler []
+  (.textureSamplerPointer TEXTURE (create-sampler default-sampler-settings)))
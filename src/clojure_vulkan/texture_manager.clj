@@ -0,0 +1,43 @@
+(ns clojure-vulkan.texture-manager
+  (:require [clojure-vulkan.globals :as globals :refer [*config* TEXTURE-MANAGER]]
+            [clojure-vulkan.texture :as texture]
+            [clojure-vulkan.texture-streaming :as texture-streaming])
+  (:import (clojure_vulkan.Vulkan StreamedTexture TextureManager)
+           (java.util.function Function)))
+
+(defn- load-texture ^StreamedTexture [[path sampler-settings]]
+  (let [texture (texture-streaming/stream-texture path)]
+    (.textureSamplerPointer (.texture texture) (texture/create-sampler sampler-settings))
+    texture))
+
+(defn create-texture-manager
+  "Textures are evicted once the resident ones exceed `:texture-budget` bytes of device memory."
+  []
+  (globals/set-global! TEXTURE-MANAGER (TextureManager. (reify Function
+                                                          (apply [_ key] (load-texture key)))
+                                                        (:texture-budget *config* (* 256 1024 1024)))))
+
+(defn acquire
+  "The texture at `path` relative to `texture/textures-root`, shared with every other acquirer of the same path and
+  sampler settings. It streams in as by `texture-streaming/stream-texture` and must be released when unused."
+  (^StreamedTexture [path] (acquire path texture/default-sampler-settings))
+  (^StreamedTexture [path sampler-settings]
+   (.acquire TEXTURE-MANAGER [path (merge texture/default-sampler-settings sampler-settings)])))
+
+(defn release
+  ([path] (release path texture/default-sampler-settings))
+  ([path sampler-settings]
+   (.release TEXTURE-MANAGER [path (merge texture/default-sampler-settings sampler-settings)])))
+
+(defn trim
+  "Called once per frame: evicts textures over the budget, which are destroyed once the frames in flight have
+  completed."
+  []
+  (.evict TEXTURE-MANAGER))
+
+(defn stats []
+  {:hits           (.hits TEXTURE-MANAGER)
+   :misses         (.misses TEXTURE-MANAGER)
+   :evictions      (.evictions TEXTURE-MANAGER)
+   :resident-bytes (.residentBytes TEXTURE-MANAGER)
+   :budget         (.budget TEXTURE-MANAGER)})
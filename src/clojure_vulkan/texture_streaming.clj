@@ -0,0 +1,171 @@
+(ns clojure-vulkan.texture-streaming
+  (:require [clojure-vulkan.buffer :as buffer]
+            [clojure-vulkan.globals :refer [*config* TEXTURE TRANSFER-CONTEXT]]
+            [clojure-vulkan.texture :as texture]
+            [clojure-vulkan.util :as util])
+  (:import (clojure_vulkan MemoryUtils MipChain)
+           (clojure_vulkan.Vulkan Buffer ResourceRegistry ResourceRegistry$Type StreamedTexture Texture TransferContext$State)
+           (java.nio ByteBuffer)
+           (java.util.concurrent ConcurrentLinkedQueue ExecutorService Executors ForkJoinPool ThreadFactory TimeUnit)
+           (org.lwjgl.stb STBImage)
+           (org.lwjgl.system MemoryStack MemoryUtil)
+           (org.lwjgl.vulkan VK13)))
+
+(def ^:private ^ConcurrentLinkedQueue decoded
+  "Textures whose pixels are decoded and wait for an upload batch."
+  (ConcurrentLinkedQueue.))
+
+(defn- decoder-thread-factory []
+  (let [thread-count (atom 0)]
+    (reify ThreadFactory
+      (newThread [_ runnable]
+        (doto (Thread. runnable (str "texture-decoder-" (swap! thread-count inc)))
+          (.setDaemon true))))))
+
+(def ^:private decode-pool
+  (delay (Executors/newFixedThreadPool (:texture-decode-threads *config* (max 1 (dec (.availableProcessors (Runtime/getRuntime)))))
+                                       (decoder-thread-factory))))
+
+(defn- mip-chain
+  "Copies the decoded level 0 into a malloc'ed buffer big enough for the whole chain and downsamples the other
+  levels on the common fork-join pool."
+  ^ByteBuffer [^ByteBuffer pixels width height]
+  (let [chain (MemoryUtil/memAlloc (int (MipChain/chainSize width height)))]
+    (MemoryUtil/memCopy pixels chain)
+    (MipChain/generate (MemoryUtil/memAddress chain) width height (ForkJoinPool/commonPool))
+    chain))
+
+(defn- decode [^StreamedTexture texture]
+  (try
+    (util/with-memory-stack-push ^MemoryStack stack
+      (let [width* (.mallocInt stack 1)
+            height* (.mallocInt stack 1)
+            channels* (.mallocInt stack 1)
+            pixels (STBImage/stbi_load (.UTF8 stack (str texture/textures-root (.path texture))) width* height* channels* STBImage/STBI_rgb_alpha)]
+        (when (nil? pixels)
+          (throw (RuntimeException. (str "Texture " (.path texture) " couldn't be loaded: " (STBImage/stbi_failure_reason)))))
+        (let [width (.get width* 0)
+              height (.get height* 0)
+              chain (try (mip-chain pixels width height)
+                         (finally (STBImage/stbi_image_free pixels)))]
+          (.decoded texture chain false width height (MipChain/levelCount width height)))
+        (.add decoded texture)))
+    (catch Throwable t
+      (util/log (.getMessage t))
+      (.failed texture t))))
+
+(defn ^StreamedTexture stream-texture
+  "Starts decoding a texture from `texture/textures-root` on the decoder pool and returns its handle right away.
+  The texture is uploaded by a later `pump-uploads` and shows the placeholder until then."
+  [texture-filepath]
+  (let [texture (StreamedTexture. texture-filepath)]
+    (.submit ^ExecutorService @decode-pool ^Runnable (fn [] (decode texture)))
+    texture))
+
+;; ***********************************************************************************************************
+;; upload batches
+
+(def ^:private in-flight
+  "The textures of the upload batch the GPU is working on. Only touched by the render thread."
+  (atom nil))
+
+(defn- drain-decoded
+  "Takes decoded textures off the queue until their pixels exceed `budget` bytes; always at least one."
+  [budget]
+  (loop [batch []
+         bytes 0]
+    (let [^StreamedTexture texture (.peek decoded)]
+      (if (and texture (or (empty? batch) (<= (+ bytes (.remaining (.pixels texture))) budget)))
+        (do (.poll decoded)
+            (recur (conj batch texture) (+ bytes (.remaining (.pixels texture)))))
+        batch))))
+
+(defn- submit-batch
+  "Copies the textures' pixels into one staging buffer and submits their layout transitions and copies with the
+  transfer context."
+  [textures]
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [offsets (reductions (fn [offset ^StreamedTexture texture]
+                                (MemoryUtils/alignAs (+ offset (.remaining (.pixels texture))) 16))
+                              0 textures)
+          staging-size (last offsets)
+          ^Buffer staging-buffer (buffer/create-buffer staging-size VK13/VK_BUFFER_USAGE_TRANSFER_SRC_BIT
+                                                       (util/bit-ors VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
+                                                                     VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
+                                                       (.mallocLong stack 1) stack)
+          staging-address (.map staging-buffer)
+          command-buffer (.commands TRANSFER-CONTEXT)
+          images (mapv (fn [^StreamedTexture texture]
+                         (texture/create-image (.texture texture) (.width texture) (.height texture) (.mipLevels texture))
+                         (.imagePointer (.texture texture)))
+                       textures)]
+      (texture/record-layout-transitions command-buffer images VK13/VK_IMAGE_LAYOUT_UNDEFINED VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL stack)
+      (doseq [[^StreamedTexture texture offset] (map vector textures offsets)]
+        (MemoryUtil/memCopy (MemoryUtil/memAddress (.pixels texture)) (+ staging-address (long offset)) (.remaining (.pixels texture)))
+        (texture/record-copy-buffer-to-image command-buffer (.bufferPointer staging-buffer) offset
+                                             (.imagePointer (.texture texture)) (.width texture) (.height texture) (.mipLevels texture) stack)
+        (.textureImageViewPointer (.texture texture) (util/create-image-view (.imagePointer (.texture texture)) VK13/VK_FORMAT_R8G8B8A8_SRGB
+                                                                             (.mipLevels texture)))
+        (.uploading texture))
+      (texture/record-handoff-transitions images VK13/VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL stack)
+      (.retireOnCompletion TRANSFER-CONTEXT staging-buffer)
+      (.submit TRANSFER-CONTEXT)
+      (reset! in-flight textures))))
+
+(defn- retire-batch
+  "Marks the batch in flight resident once the transfer context has retired it, or right away after waiting for it
+  when `wait?`. Returns the textures which became resident."
+  [wait?]
+  (when-let [textures @in-flight]
+    (if wait?
+      (.await TRANSFER-CONTEXT)
+      (.poll TRANSFER-CONTEXT))
+    (when-not (= (.state TRANSFER-CONTEXT) TransferContext$State/SUBMITTED)
+      (doseq [^StreamedTexture texture textures]
+        (.resident texture))
+      (reset! in-flight nil)
+      textures)))
+
+(defn pump-uploads
+  "Called once per frame by the render thread, never blocks. Retires the upload batch in flight if the GPU is done
+  with it, otherwise submits the decoded textures that fit into `:texture-upload-budget` bytes as the next batch.
+  Returns the textures which became resident."
+  []
+  (if @in-flight
+    (retire-batch false)
+    (do (when-not (.isEmpty decoded)
+          (submit-batch (drain-decoded (:texture-upload-budget *config* (* 64 1024 1024)))))
+        nil)))
+
+(defn create-placeholder-texture
+  "Uploads a 2x2 grey checkerboard into `TEXTURE`, blocking until it is resident. Streamed textures show it until
+  they are uploaded."
+  []
+  (let [pixels (MemoryUtil/memAlloc 16)
+        placeholder (StreamedTexture. "placeholder")]
+    (doseq [grey [0x80 0xC0 0xC0 0x80]]
+      (.put pixels (byte-array [(unchecked-byte grey) (unchecked-byte grey) (unchecked-byte grey) (unchecked-byte 0xFF)])))
+    (.decoded placeholder (.flip pixels) false 2 2)
+    (retire-batch true)
+    (submit-batch [placeholder])
+    (retire-batch true)
+    (let [^Texture texture (.texture placeholder)]
+      (ResourceRegistry/unregister texture)
+      (doto TEXTURE
+        (.imagePointer (.imagePointer texture))
+        (.imageAllocation (.imageAllocation texture))
+        (.textureImageViewPointer (.textureImageViewPointer texture))
+        (.bytes (.bytes texture))
+        (ResourceRegistry/register ResourceRegistry$Type/IMAGE (.bytes texture))))))
+
+(defn shutdown
+  "Waits for the batch in flight, stops the decoders and frees textures still waiting for an upload."
+  []
+  (retire-batch true)
+  (when (realized? decode-pool)
+    (doto ^ExecutorService @decode-pool
+      (.shutdownNow)
+      (.awaitTermination 1 TimeUnit/MINUTES)))
+  (doseq [^StreamedTexture texture (iterator-seq (.iterator decoded))]
+    (.free texture))
+  (.clear decoded))
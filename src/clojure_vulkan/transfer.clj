@@ -0,0 +1,56 @@
+(ns clojure-vulkan.transfer
+  (:require [clojure-vulkan.globals :as globals :refer [TRANSFER-CONTEXT]]
+            [clojure-vulkan.util :as util])
+  (:import (clojure_vulkan.Vulkan TransferContext VulkanGlobals)
+           (org.lwjgl.system MemoryStack)
+           (org.lwjgl.vulkan VK13 VkBufferCopy VkBufferMemoryBarrier VkCommandBuffer)))
+
+(defn create-transfer-context []
+  (globals/set-global! TRANSFER-CONTEXT (TransferContext. (VulkanGlobals/getLogicalDevice)
+                                                          (.transferFamily VulkanGlobals/QUEUE_FAMILIES)
+                                                          (.get VulkanGlobals/TRANSFER_QUEUE)
+                                                          (.graphicsFamily VulkanGlobals/QUEUE_FAMILIES)
+                                                          (.get VulkanGlobals/GRAPHICS_QUEUE)))
+  (when (.isDedicated TRANSFER-CONTEXT)
+    (util/log "Using the dedicated transfer queue family " (.transferFamily TRANSFER-CONTEXT) ".")))
+
+(defn handoff-stages
+  "The barriers handing resources written by transfers over to their readers on the graphics queue: a single one,
+  or with a dedicated transfer queue family a release into the transfer commands and an acquire into the acquire
+  commands. Each is [command-buffer src-access dst-access src-stage dst-stage src-family dst-family]."
+  [src-access dst-access src-stage dst-stage]
+  (if (.isDedicated TRANSFER-CONTEXT)
+    (let [transfer-family (.transferFamily TRANSFER-CONTEXT)
+          graphics-family (.graphicsFamily TRANSFER-CONTEXT)]
+      [[(.commands TRANSFER-CONTEXT) src-access 0 src-stage VK13/VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT transfer-family graphics-family]
+       [(.acquireCommands TRANSFER-CONTEXT) 0 dst-access VK13/VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT dst-stage transfer-family graphics-family]])
+    [[(.commands TRANSFER-CONTEXT) src-access dst-access src-stage dst-stage VK13/VK_QUEUE_FAMILY_IGNORED VK13/VK_QUEUE_FAMILY_IGNORED]]))
+
+(defn copy-buffer
+  "Records a copy into a buffer read by the graphics queue from then on. `src-buffer` must stay alive until the
+  transfer context retires it. The barrier only covers the bytes copied, so other ranges of the destination may
+  still be in use."
+  ([src-buffer-ptr dest-buffer-ptr buffer-size]
+   (copy-buffer src-buffer-ptr dest-buffer-ptr 0 0 buffer-size))
+  ([src-buffer-ptr dest-buffer-ptr src-offset dest-offset buffer-size]
+   (util/with-memory-stack-push ^MemoryStack stack
+     (VK13/vkCmdCopyBuffer (.commands TRANSFER-CONTEXT) src-buffer-ptr dest-buffer-ptr (doto (VkBufferCopy/calloc 1 stack)
+                                                                                         (.srcOffset src-offset)
+                                                                                         (.dstOffset dest-offset)
+                                                                                         (.size buffer-size)))
+     (doseq [[^VkCommandBuffer command-buffer src-access dst-access src-stage dst-stage src-family dst-family]
+             (handoff-stages VK13/VK_ACCESS_TRANSFER_WRITE_BIT VK13/VK_ACCESS_MEMORY_READ_BIT
+                             VK13/VK_PIPELINE_STAGE_TRANSFER_BIT VK13/VK_PIPELINE_STAGE_ALL_COMMANDS_BIT)]
+       (VK13/vkCmdPipelineBarrier command-buffer src-stage dst-stage
+                                  #_dependency-flags 0
+                                  #_memory-barriers nil
+                                  (doto (VkBufferMemoryBarrier/calloc 1 stack)
+                                    (.sType VK13/VK_STRUCTURE_TYPE_BUFFER_MEMORY_BARRIER)
+                                    (.srcAccessMask src-access)
+                                    (.dstAccessMask dst-access)
+                                    (.srcQueueFamilyIndex src-family)
+                                    (.dstQueueFamilyIndex dst-family)
+                                    (.buffer dest-buffer-ptr)
+                                    (.offset dest-offset)
+                                    (.size buffer-size))
+                                  #_image-memory-barriers nil)))))
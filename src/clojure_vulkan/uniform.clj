@@ -1,22 +1,37 @@
 (ns clojure-vulkan.uniform
   (:require [clojure-vulkan.buffer :as buffer]
-            [clojure-vulkan.globals :refer [TEXTURE]]
+            [clojure-vulkan.globals :refer [*config* STREAMED-TEXTURE TEXTURE]]
             [clojure-vulkan.util :as util]
             [clojure-vulkan.vertex :as vertex])
-  (:import (clojure_vulkan UniformBufferObject)
-           (clojure_vulkan.Vulkan Buffer VulkanGlobals VulkanGlobalsInterfaces$VkPointerVector)
-           (java.util Collection Vector)
-           (org.joml Matrix4f)
+  (:import (clojure_vulkan MemoryUtils UniformWriter)
+           (clojure_vulkan.Vulkan Buffer Frame RingAllocator VulkanGlobals)
+           (java.util.function IntFunction)
            (org.lwjgl.glfw GLFW)
            (org.lwjgl.system MemoryStack)
-           (org.lwjgl.vulkan VK13 VkDescriptorBufferInfo VkDescriptorPoolCreateInfo VkDescriptorPoolSize VkDescriptorSetAllocateInfo VkDescriptorSetLayoutBinding VkDescriptorSetLayoutCreateInfo VkWriteDescriptorSet VkDescriptorImageInfo)))
+           (org.lwjgl.vulkan VK13 VkDescriptorBufferInfo VkDescriptorPoolCreateInfo VkDescriptorPoolSize VkDescriptorSetAllocateInfo VkDescriptorSetLayoutBinding VkDescriptorSetLayoutCreateInfo VkWriteDescriptorSet VkDescriptorImageInfo VkDescriptorImageInfo$Buffer VkExtent2D VkPhysicalDeviceProperties)))
+
+(defn dynamic?
+  "In the dynamic mode, the uniform data of all objects is packed into one buffer per frame slot
+  and each draw selects its object with a dynamic offset."
+  []
+  (= :dynamic (:uniform-buffer-mode *config*)))
+
+(defn object-count []
+  (if (dynamic?)
+    (:uniform-object-count *config* 1)
+    1))
+
+(defn descriptor-type []
+  (if (dynamic?)
+    VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC
+    VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER))
 
 (defn create-descriptor-set-layout []
   (util/with-memory-stack-push ^MemoryStack stack
     (let [descriptor-set-layout-bindings (VkDescriptorSetLayoutBinding/calloc 2 stack)
           _ (do (doto ^VkDescriptorSetLayoutBinding (.get descriptor-set-layout-bindings 0)
                   (.binding ^int (get-in vertex/current-triangle-vbo-characterictics [:uniform 0 :binding]))
-                  (.descriptorType VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)
+                  (.descriptorType (descriptor-type))
                   (.descriptorCount 1)                      ; the shader variable can represent an array of UBOs
                   (.stageFlags VK13/VK_SHADER_STAGE_VERTEX_BIT)
                   (.pImmutableSamplers nil))
@@ -35,85 +50,109 @@
         (.set VulkanGlobals/DESCRIPTOR_SET_LAYOUT_POINTER (.get descriptor-set-layout-ptr 0))
         (throw (RuntimeException. "Failed to create descriptor set layout."))))))
 
-(def buffer-size (+ (* #_number-of-matrix4f-fields 3 #_floats-per-matrix 16 Float/BYTES)
-                    #_(* #_coords-per-vertex 2 #_vertices 4 #_xy-coord-sizeof Float/BYTES)))
+(def ^UniformWriter ubo-writer
+  "Writes the vertex shader's uniform block (binding 0) in the std140 layout."
+  (UniformWriter/create (first (filter #(= 0 (:binding %)) (:uniform vertex/current-triangle-vbo-characterictics)))))
+
+(def buffer-size (.size ubo-writer))
+
+(defn min-uniform-buffer-offset-alignment []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [physical-device-properties (VkPhysicalDeviceProperties/malloc stack)]
+      (VK13/vkGetPhysicalDeviceProperties (.get VulkanGlobals/PHYSICAL_DEVICE) physical-device-properties)
+      (.minUniformBufferOffsetAlignment (.limits physical-device-properties)))))
+
+(defn stride
+  "Distance between the uniform data of two consecutive objects."
+  []
+  (MemoryUtils/alignAs buffer-size (int (min-uniform-buffer-offset-alignment))))
 
-(defn create-uniform-buffers []
+(defn create-uniform-buffers
+  "One uniform buffer per frame slot, each mapped once here and kept mapped until it is freed.
+  The objects' data is placed by the buffer's ring allocator at `stride` offsets."
+  []
   (util/with-memory-stack-push ^MemoryStack stack
     (let [buffer-ptr* (.mallocLong stack 1)
-          buffer-memory-ptr* (.mallocLong stack 1)
-          uniform-buffers
-          (repeatedly (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS))
-                      (fn []
-                        (buffer/create-buffer buffer-size VK13/VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT (util/bit-ors VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
-                                                                                                                VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
-                                              buffer-ptr* buffer-memory-ptr* stack)
-                        (doto (Buffer.)
-                          (.bufferPointer (.get buffer-ptr* 0))
-                          (.bufferMemoryPointer (.get buffer-memory-ptr* 0)))))]
-      (.set VulkanGlobals/UNIFORM_BUFFERS (Vector. ^Collection uniform-buffers)))))
+          alignment (min-uniform-buffer-offset-alignment)
+          capacity (* (object-count) (stride))]
+      (.fill VulkanGlobals/UNIFORM_BUFFERS
+             (reify IntFunction
+               (apply [_ _slot]
+                 (doto (buffer/create-buffer capacity VK13/VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT (util/bit-ors VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
+                                                                                                            VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
+                                             buffer-ptr* stack)
+                   (.map)
+                   (.ring (RingAllocator. capacity alignment)))))))))
 
-(defn update-uniform-buffer [current-frame-index ^MemoryStack stack]
-  (let [model #_(Matrix4f.) (.rotate (Matrix4f.) (* (GLFW/glfwGetTime)
-                                                  (Math/toRadians 90)) 0 0 1)
-        view #_(Matrix4f.) (.lookAt (Matrix4f.) 0 -0.1 -1.5,, 0 0 0,, 0 0 1)
-        proj (.perspective (Matrix4f.)
-                           (float (Math/toRadians 45))
-                           (float (/ (- (.width (.get VulkanGlobals/SWAP_CHAIN_EXTENT)))
-                                     (.height (.get VulkanGlobals/SWAP_CHAIN_EXTENT))))
-                           (float 0.1)
-                           (float 10)
-                           true)
-        ubo (UniformBufferObject. model view proj)
-        data-ptr* (.mallocPointer stack 1)]
-    (buffer/staging-buffer-memcpy (.bufferMemoryPointer ^Buffer (.get VulkanGlobals/UNIFORM_BUFFERS current-frame-index))
-                                  buffer-size data-ptr* ubo :buffer-copy/uniform-buffer-object)))
+(defn update-uniform-buffer
+  "Writes the uniform data of all objects into the mapped buffer of the current frame slot, using the
+  current frame's scratch matrices. Allocates nothing in a steady state."
+  []
+  (let [^Buffer uniform-buffer (.current VulkanGlobals/UNIFORM_BUFFERS)
+        ^VkExtent2D extent (.get VulkanGlobals/SWAP_CHAIN_EXTENT)]
+    (.update (.uniformScratch (Frame/currentFrame))
+             ubo-writer
+             (.mappedByteBuffer uniform-buffer)
+             (.ring uniform-buffer)
+             (int (object-count))
+             (GLFW/glfwGetTime)
+             (.width extent)
+             (.height extent))))
 
 (defn create-descriptor-pool []
   (util/with-memory-stack-push ^MemoryStack stack
     (let [descriptor-pool-sizes (VkDescriptorPoolSize/calloc 2 stack)
           _ (do (doto ^VkDescriptorPoolSize (.get descriptor-pool-sizes 0)
-                  (.type VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)
-                  (.descriptorCount (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS))))
+                  (.type (descriptor-type))
+                  (.descriptorCount (Frame/framesInFlight)))
                 (doto ^VkDescriptorPoolSize (.get descriptor-pool-sizes 1)
                   (.type VK13/VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
-                  (.descriptorCount (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS)))))
+                  (.descriptorCount (Frame/framesInFlight))))
           descriptor-pool-create-info (doto (VkDescriptorPoolCreateInfo/calloc stack)
                                         (.sType VK13/VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO)
                                         (.pPoolSizes descriptor-pool-sizes)
-                                        (.maxSets (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS))))
+                                        (.maxSets (Frame/framesInFlight)))
           descriptor-pool-ptr* (.mallocLong stack 1)]
       (if (= (VK13/vkCreateDescriptorPool (VulkanGlobals/getLogicalDevice) descriptor-pool-create-info nil descriptor-pool-ptr*)
              VK13/VK_SUCCESS)
         (.set VulkanGlobals/DESCRIPTOR_POOL_POINTER (.get descriptor-pool-ptr* 0))
         (throw (RuntimeException. "Failed to create descriptor pool."))))))
 
+(defn- texture-image-info
+  "The streamed texture once it is resident, the placeholder in `TEXTURE` until then."
+  ^VkDescriptorImageInfo$Buffer [^MemoryStack stack]
+  (doto (VkDescriptorImageInfo/calloc 1 stack)
+    (.imageLayout VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+    (.imageView (if STREAMED-TEXTURE
+                  (.imageView STREAMED-TEXTURE TEXTURE)
+                  (.textureImageViewPointer TEXTURE)))
+    (.sampler (if STREAMED-TEXTURE
+                (.sampler STREAMED-TEXTURE TEXTURE)
+                (.textureSamplerPointer TEXTURE)))))
+
 (defn create-descriptor-sets []
   (util/with-memory-stack-push ^MemoryStack stack
-    (let [descriptor-set-layouts-ptr (.mallocLong stack (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS)))
+    (let [descriptor-set-layouts-ptr (.mallocLong stack (Frame/framesInFlight))
           _ (dotimes [i (.capacity descriptor-set-layouts-ptr)]
               (.put descriptor-set-layouts-ptr i (.get VulkanGlobals/DESCRIPTOR_SET_LAYOUT_POINTER)))
           descriptor-set-allocate-info (doto (VkDescriptorSetAllocateInfo/calloc stack)
                                          (.sType VK13/VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
                                          (.descriptorPool (.get VulkanGlobals/DESCRIPTOR_POOL_POINTER))
                                          (.pSetLayouts descriptor-set-layouts-ptr))
-          descriptor-sets-ptr (.mallocLong stack (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS)))
+          descriptor-sets-ptr (.mallocLong stack (Frame/framesInFlight))
           _ (when (not= (VK13/vkAllocateDescriptorSets (VulkanGlobals/getLogicalDevice) descriptor-set-allocate-info descriptor-sets-ptr)
                         VK13/VK_SUCCESS)
               (throw (RuntimeException. "Failed to allocate descriptor sets.")))
           descriptor-buffer-info (doto (VkDescriptorBufferInfo/calloc 1 stack)
                                    (.offset 0)
                                    (.range buffer-size))
-          image-info (doto (VkDescriptorImageInfo/calloc 1 stack)
-                       (.imageLayout VK13/VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
-                       (.imageView (.textureImageViewPointer TEXTURE))
-                       (.sampler (.textureSamplerPointer TEXTURE)))
+          image-info (texture-image-info stack)
           write-descriptor-sets (VkWriteDescriptorSet/calloc 2 stack)
           _ (do (doto ^VkWriteDescriptorSet (.get write-descriptor-sets 0)
                   (.sType VK13/VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
                   (.dstBinding 0)
                   (.dstArrayElement 0)
-                  (.descriptorType VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)
+                  (.descriptorType (descriptor-type))
                   (.descriptorCount 1)
                   (.pBufferInfo descriptor-buffer-info)
                   (.pTexelBufferView nil))
@@ -123,13 +162,26 @@
                   (.dstArrayElement 0)
                   (.descriptorType VK13/VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
                   (.descriptorCount 1)
-                  (.pImageInfo image-info)))
-          descriptor-set-ptrs (mapv (fn [^Integer i]
-                                      (let [descriptor-set (.get descriptor-sets-ptr i)]
-                                        (.buffer descriptor-buffer-info (.bufferPointer ^Buffer (.get VulkanGlobals/UNIFORM_BUFFERS i)))
-                                        (.dstSet ^VkWriteDescriptorSet (.get write-descriptor-sets 0) descriptor-set)
-                                        (.dstSet ^VkWriteDescriptorSet (.get write-descriptor-sets 1) descriptor-set)
-                                        (VK13/vkUpdateDescriptorSets (VulkanGlobals/getLogicalDevice) write-descriptor-sets nil)
-                                        descriptor-set))
-                                    (range (.size (.get VulkanGlobals/SWAP_CHAIN_IMAGE_POINTERS))))]
-      (.set VulkanGlobals/DESCRIPTOR_SET_POINTERS (VulkanGlobalsInterfaces$VkPointerVector/asVkPointerVector (Vector. ^Collection descriptor-set-ptrs))))))
\ No newline at end of file
+                  (.pImageInfo image-info)))]
+      (.set VulkanGlobals/DESCRIPTOR_SET_POINTERS descriptor-sets-ptr)
+      (dotimes [slot (Frame/framesInFlight)]
+        (let [descriptor-set (.get descriptor-sets-ptr slot)]
+          (.buffer descriptor-buffer-info (.bufferPointer ^Buffer (.get VulkanGlobals/UNIFORM_BUFFERS slot)))
+          (.dstSet ^VkWriteDescriptorSet (.get write-descriptor-sets 0) descriptor-set)
+          (.dstSet ^VkWriteDescriptorSet (.get write-descriptor-sets 1) descriptor-set)
+          (VK13/vkUpdateDescriptorSets (VulkanGlobals/getLogicalDevice) write-descriptor-sets nil))))))
+
+(defn write-texture-descriptors
+  "Points binding 1 of every descriptor set at the current texture. The descriptor sets must not be in use."
+  []
+  (util/with-memory-stack-push ^MemoryStack stack
+    (let [write-descriptor-set (doto (VkWriteDescriptorSet/calloc 1 stack)
+                                 (.sType VK13/VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                                 (.dstBinding 1)
+                                 (.dstArrayElement 0)
+                                 (.descriptorType VK13/VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                                 (.descriptorCount 1)
+                                 (.pImageInfo (texture-image-info stack)))]
+      (dotimes [slot (.size VulkanGlobals/DESCRIPTOR_SET_POINTERS)]
+        (.dstSet write-descriptor-set (.get VulkanGlobals/DESCRIPTOR_SET_POINTERS slot))
+        (VK13/vkUpdateDescriptorSets (VulkanGlobals/getLogicalDevice) write-descriptor-set nil)))))
@@ -1,11 +1,6 @@
 (ns clojure-vulkan.vertex
-  (:require [clojure-vulkan.buffer :as buffer]
-            [clojure-vulkan.globals :as globals :refer [INDEX-BUFFER VERTEX-BUFFER]]
-            [clojure-vulkan.shaders :as shaders]
-            [clojure-vulkan.util :as util])
-  (:import (clojure_vulkan ShaderAnalyzer)
-           (clojure_vulkan.Vulkan VulkanGlobals)
-           (org.lwjgl PointerBuffer)
+  (:require [clojure-vulkan.shaders :as shaders])
+  (:import (clojure_vulkan ShaderAnalyzer SpirVReflection)
            (org.lwjgl.system MemoryStack)
            (org.lwjgl.vulkan VK13 VkVertexInputAttributeDescription VkVertexInputBindingDescription)
            (clojure_vulkan.math GLSL GLSL$GLSLType)))
@@ -36,8 +31,16 @@
 (defn analyze-shader-attribute-descriptions [shader-source]
   (ShaderAnalyzer/analyze (slurp (str shaders/shader-sources-root shader-source))))
 
+(defn reflect-shader-attribute-descriptions
+  "Reflects the same descriptions from the shader's SPIR-V, which comes from the shader cache when it is
+  up to date, instead of parsing the GLSL."
+  [shader-source shader-type]
+  (let [shader (shaders/compile-shader shader-source shader-type)]
+    (try (SpirVReflection/reflect (shaders/get-bytebuffer shader))
+         (finally (.free shader)))))
+
 (defn analyze-shader-characteristics [shader-source]
-  (let [attribute-descriptions (analyze-shader-attribute-descriptions shader-source)]
+  (let [attribute-descriptions (reflect-shader-attribute-descriptions shader-source :shader-type/vertex)]
     (as-> attribute-descriptions m
           (map #(if-let [^GLSL$GLSLType type (.get GLSL/keywordToType (:type %))]
                   (assoc % :component-sizeof (.componentSizeof type)
@@ -71,62 +74,3 @@
             0
             (sort-by :location < in))
     attribute-descriptions))
-
-(defn create-vertex-buffer []
-  (util/with-memory-stack-push ^MemoryStack stack
-    (let [buffer-size (* (:in-stride current-triangle-vbo-characterictics) ; bytes per vertex
-                         (/ (count vertices)                ; vertices
-                            (:components-per-vertex current-triangle-vbo-characterictics)))
-          buffer-ptr* (.mallocLong stack 1)
-          buffer-memory-ptr* (.mallocLong stack 1)
-
-          staging-buffer
-          (buffer/create-buffer buffer-size                 ;; create staging buffer
-                                VK13/VK_BUFFER_USAGE_TRANSFER_SRC_BIT
-                                (bit-or VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
-                                        VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT)
-                                buffer-ptr*
-                                buffer-memory-ptr*
-                                stack)
-          ^PointerBuffer data-ptr* (.mallocPointer stack 1)
-          _ (buffer/staging-buffer-memcpy (.bufferMemoryPointer staging-buffer) buffer-size data-ptr* vertices :buffer-copy/floats)
-          vertex-buffer
-          (buffer/create-buffer buffer-size                 ;; create vertex buffer
-                                (bit-or VK13/VK_BUFFER_USAGE_VERTEX_BUFFER_BIT
-                                        VK13/VK_BUFFER_USAGE_TRANSFER_DST_BIT)
-                                (bit-or VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
-                                        VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
-                                buffer-ptr*
-                                buffer-memory-ptr*
-                                stack)]
-      (buffer/copy-buffer (.bufferPointer staging-buffer) (.bufferPointer vertex-buffer) buffer-size stack)
-      (VK13/vkDestroyBuffer (VulkanGlobals/getLogicalDevice) (.bufferPointer staging-buffer) nil)
-      (VK13/vkFreeMemory (VulkanGlobals/getLogicalDevice) (.bufferMemoryPointer staging-buffer) nil)
-      (globals/set-global! VERTEX-BUFFER vertex-buffer))))
-
-(defn create-index-buffer []
-  (util/with-memory-stack-push ^MemoryStack stack
-    (let [buffer-size (* (count indices) Short/SIZE)
-          buffer-ptr* (.mallocLong stack 1)
-          buffer-memory-ptr* (.mallocLong stack 1)
-          staging-buffer
-          (buffer/create-buffer buffer-size
-                                VK13/VK_BUFFER_USAGE_TRANSFER_SRC_BIT
-                                (bit-or VK13/VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT
-                                        VK13/VK_MEMORY_PROPERTY_HOST_COHERENT_BIT)
-                                buffer-ptr*
-                                buffer-memory-ptr*
-                                stack)
-          data-ptr* (.mallocPointer stack 1)
-          _ (buffer/staging-buffer-memcpy (.bufferMemoryPointer staging-buffer) buffer-size data-ptr* indices :buffer-copy/shorts)
-          index-buffer
-          (buffer/create-buffer buffer-size
-                                (bit-or VK13/VK_BUFFER_USAGE_TRANSFER_DST_BIT
-                                        VK13/VK_BUFFER_USAGE_INDEX_BUFFER_BIT)
-                                VK13/VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT
-                                buffer-ptr*
-                                buffer-memory-ptr*
-                                stack)]
-      (buffer/copy-buffer (.bufferPointer staging-buffer) (.bufferPointer index-buffer) buffer-size stack)
-      (.free staging-buffer)
-      (globals/set-global! INDEX-BUFFER index-buffer))))
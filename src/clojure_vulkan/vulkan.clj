@@ -1,5 +1,6 @@
 (ns clojure-vulkan.vulkan
-  (:require [clojure-vulkan.command-buffers :as command-buffers]
+  (:require [clojure-vulkan.buffer :as buffer]
+            [clojure-vulkan.command-buffers :as command-buffers]
             [clojure-vulkan.debug :as debug]
             [clojure-vulkan.frame-buffers :as frame-buffers]
             [clojure-vulkan.globals :as globals]
@@ -7,24 +8,33 @@
             [clojure-vulkan.image-views :as image-views]
             [clojure-vulkan.instance :as instance]
             [clojure-vulkan.logical-device-and-queue :as logical-device-and-queue]
+            [clojure-vulkan.mesh :as mesh]
+            [clojure-vulkan.model :as model]
             [clojure-vulkan.vertex :as vertex]
             [clojure-vulkan.physical-device :as physical-device]
+            [clojure-vulkan.pipeline-cache :as pipeline-cache]
             [clojure-vulkan.render :as render]
             [clojure-vulkan.render-pass :as render-pass]
             [clojure-vulkan.swap-chain :as swap-chain]
             [clojure-vulkan.texture :as texture]
+            [clojure-vulkan.texture-manager :as texture-manager]
+            [clojure-vulkan.texture-streaming :as texture-streaming]
+            [clojure-vulkan.transfer :as transfer]
             [clojure-vulkan.uniform :as uniform]
             [clojure-vulkan.util :as util]
             [clojure-vulkan.window-surface :as window-surface])
-  (:import (clojure_vulkan.Vulkan VulkanGlobals Frame)
+  (:import (clojure_vulkan.Vulkan Frame ResourceRegistry VulkanGlobals)
            (org.lwjgl.glfw GLFW)))
 
 (defn init []
+  (Frame/setFramesInFlight (int (:frames-in-flight globals/*config* 2)))
   (instance/create)
   (debug/setup-debug-messenger)
   (window-surface/create-surface)
   (physical-device/pick-physical-device)
   (logical-device-and-queue/create-logical-device)
+  (buffer/create-memory-allocator)
+  (pipeline-cache/create-pipeline-cache)
   (swap-chain/create-swap-chain)
   (image-views/create-image-views)
   (render-pass/create-render-pass)
@@ -32,11 +42,18 @@
   (graphics-pipeline/create-graphics-pipeline)
   (frame-buffers/create-frame-buffers)
   (command-buffers/create-command-pool)
-  (texture/create-texture-image "pavian.jpg")
-  (texture/create-texture-image-view)
+  (command-buffers/create-recorder)
+  (transfer/create-transfer-context)
+  (texture-streaming/create-placeholder-texture)
   (texture/create-texture-sampler)
-  (vertex/create-vertex-buffer)
-  (vertex/create-index-buffer)
+  (texture-manager/create-texture-manager)
+  (globals/set-global! globals/STREAMED-TEXTURE (texture-manager/acquire "pavian.jpg"))
+  (mesh/create-arenas)
+  (reset! mesh/scene (if-let [path (:model globals/*config*)]
+                       (model/load-model path)
+                       [(mesh/upload-mesh vertex/vertices vertex/indices)]))
+  (.flush globals/TRANSFER-CONTEXT)
+  (mesh/create-indirect-buffers)
   (uniform/create-uniform-buffers)
   (uniform/create-descriptor-pool)
   (uniform/create-descriptor-sets)
@@ -51,15 +68,32 @@
                (.printStackTrace ^Throwable %))
     (swap-chain/cleanup-swap-chain)
     (.free VulkanGlobals/DESCRIPTOR_POOL_POINTER)
+    (.free VulkanGlobals/DESCRIPTOR_SET_POINTERS)
     (.free VulkanGlobals/UNIFORM_BUFFERS)
+    (.free VulkanGlobals/INDIRECT_BUFFERS)
+    (.free globals/DRAW-BATCHER)
     (.free VulkanGlobals/DESCRIPTOR_SET_LAYOUT_POINTER)
     (.free globals/INDEX-BUFFER)
+    (some-> globals/WIDE-INDEX-BUFFER .free)
     (.free globals/VERTEX-BUFFER)
+    (reset! mesh/scene [])
+    (texture-streaming/shutdown)
+    (.free globals/TRANSFER-CONTEXT)
+    (util/log "Textures: " (texture-manager/stats))
+    (.free globals/TEXTURE-MANAGER)
     (.free globals/TEXTURE)
+    (ResourceRegistry/drainAll)
+    (let [leaks (ResourceRegistry/leakReport)]
+      (when (seq leaks)
+        (util/log "Resources never freed:\n" leaks)))
+    (.free VulkanGlobals/MEMORY_ALLOCATOR)
     (Frame/cleanup)
+    (some-> globals/RECORDER .free)
     (.free VulkanGlobals/COMMAND_POOL)
     (graphics-pipeline/destroy-graphics-pipeline)
     (.free VulkanGlobals/PIPELINE_LAYOUT_POINTER)
+    (pipeline-cache/save-pipeline-cache)
+    (.free VulkanGlobals/PIPELINE_CACHE_POINTER)
     (.free VulkanGlobals/RENDER_PASS_POINTER)
     (.free VulkanGlobals/WINDOW_SURFACE_POINTER)
     (.free VulkanGlobals/LOGICAL_DEVICE)
@@ -0,0 +1,102 @@
+package clojure_vulkan;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of non-negative longs in logarithmic buckets, each split linearly into 64 sub-buckets, so
+ * recorded values keep about two significant digits (under 1.6% error) across the whole range, as in HdrHistogram.
+ * Recording never allocates. Not thread-safe.
+ */
+public class LogHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private final long highestTrackable;
+    private final long[] counts;
+    private long totalCount;
+    private long total;
+    private long max;
+
+    /**
+     * @param highestTrackable larger values are recorded as this one
+     */
+    public LogHistogram(long highestTrackable) {
+        this.highestTrackable = highestTrackable;
+        this.counts = new long[index(highestTrackable) + 1];
+    }
+
+    private static int shift(long value) {
+        return Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    }
+
+    static int index(long value) {
+        int shift = shift(value);
+        if (shift == 0)
+            return (int) value;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+    }
+
+    static long lowestEquivalent(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return subBucket << shift;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        return lowestEquivalent(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        value = Math.min(Math.max(value, 0L), highestTrackable);
+        counts[index(value)]++;
+        totalCount++;
+        total += value;
+        if (value > max)
+            max = value;
+    }
+
+    public long count() {
+        return totalCount;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return totalCount == 0 ? 0.0 : (double) total / totalCount;
+    }
+
+    /**
+     * The highest value equivalent to the one at the percentile, at most {@link #max()}; 0 when empty.
+     */
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestEquivalent(i), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        totalCount = 0L;
+        total = 0L;
+        max = 0L;
+    }
+}
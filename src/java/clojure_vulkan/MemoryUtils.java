@@ -1,6 +1,7 @@
 package clojure_vulkan;
 
 import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
@@ -8,28 +9,47 @@ import java.util.Map;
 
 public class MemoryUtils {
     public static void memcpyFloats(ByteBuffer buf, float[] data) {
-        for (float f : data)
-            buf.putFloat(f);
+        memcpyFloats(buf, data, 0, data.length);
+    }
+
+    public static void memcpyFloats(ByteBuffer buf, float[] data, int offset, int length) {
+        buf.asFloatBuffer().put(data, offset, length);
+        advance(buf, length * Float.BYTES);
     }
 
     public static void memcpyShorts(ByteBuffer buf, short[] data) {
-        for (short s : data)
-            buf.putShort(s);
+        memcpyShorts(buf, data, 0, data.length);
+    }
+
+    public static void memcpyShorts(ByteBuffer buf, short[] data, int offset, int length) {
+        buf.asShortBuffer().put(data, offset, length);
+        advance(buf, length * Short.BYTES);
     }
 
     public static void memcpyIntegers(ByteBuffer buf, int[] data) {
-        for (int i : data)
-            buf.putInt(i);
+        memcpyIntegers(buf, data, 0, data.length);
+    }
+
+    public static void memcpyIntegers(ByteBuffer buf, int[] data, int offset, int length) {
+        buf.asIntBuffer().put(data, offset, length);
+        advance(buf, length * Integer.BYTES);
     }
 
     public static void memcpyBytes(ByteBuffer buf, byte[] data) {
-        for (byte b : data)
-            buf.put(b);
+        buf.put(data);
+    }
+
+    public static void memcpyBytes(ByteBuffer buf, byte[] data, int offset, int length) {
+        buf.put(data, offset, length);
     }
 
     public static void memcpyLongs(ByteBuffer buf, long[] data) {
-        for (long l : data)
-            buf.putLong(l);
+        memcpyLongs(buf, data, 0, data.length);
+    }
+
+    public static void memcpyLongs(ByteBuffer buf, long[] data, int offset, int length) {
+        buf.asLongBuffer().put(data, offset, length);
+        advance(buf, length * Long.BYTES);
     }
 
     public static void memcpyUBO(ByteBuffer buf, UniformBufferObject ubo) {
@@ -37,11 +57,34 @@ public class MemoryUtils {
     }
 
     public static void memCpyByteBuffer(ByteBuffer dest, ByteBuffer source, long size) {
+        if (dest.isDirect() && source.isDirect()) {
+            if (size > source.remaining() || size > dest.remaining())
+                throw new IndexOutOfBoundsException("Cannot copy " + size + " bytes: source has " + source.remaining()
+                        + " and destination " + dest.remaining() + " bytes remaining.");
+            MemoryUtil.memCopy(MemoryUtil.memAddress(source), MemoryUtil.memAddress(dest), size);
+            advance(dest, (int) size);
+            source.rewind();
+            return;
+        }
         source.limit((int) size);
         dest.put(source);
         source.limit(source.capacity()).rewind();
     }
 
+    public static void memCpyByteBuffer(ByteBuffer dest, int destOffset, ByteBuffer source, int sourceOffset, int size) {
+        if (sourceOffset + size > source.capacity() || destOffset + size > dest.capacity())
+            throw new IndexOutOfBoundsException("Cannot copy " + size + " bytes from offset " + sourceOffset
+                    + " to offset " + destOffset + ".");
+        if (dest.isDirect() && source.isDirect())
+            MemoryUtil.memCopy(MemoryUtil.memAddress0(source) + sourceOffset, MemoryUtil.memAddress0(dest) + destOffset, size);
+        else
+            dest.put(destOffset, source, sourceOffset, size);
+    }
+
+    private static void advance(ByteBuffer buf, int bytes) {
+        buf.position(buf.position() + bytes);
+    }
+
     private static final HashMap<Class<?>, Integer> SIZEOF_CACHE = new HashMap<>(Map.of(
             Matrix4f.class, 16 * Float.BYTES
     ));
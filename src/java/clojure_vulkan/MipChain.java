@@ -0,0 +1,156 @@
+package clojure_vulkan;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Full mip chains of off-heap RGBA8 sRGB images. The levels are tightly packed one after another, level 0 first,
+ * so the whole chain uploads from one staging buffer with one {@code VkBufferImageCopy} per level.
+ * <p>
+ * Each level is a 2x2 box filter of the previous one, averaged in linear space: averaging sRGB bytes directly
+ * darkens every edge between bright and dark texels. Alpha is linear and averaged as is. On an odd axis, the last
+ * texel averages the last 3 texels of the previous level.
+ */
+public class MipChain {
+    private static final int ENCODE_STEPS = 1 << 16;
+    private static final float[] TO_LINEAR = new float[256];
+    private static final byte[] TO_SRGB = new byte[ENCODE_STEPS + 1];
+    /**
+     * Destination texels one fork-join task downsamples without splitting further.
+     */
+    private static final int TASK_TEXELS = 1 << 14;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            float c = i / 255f;
+            TO_LINEAR[i] = c <= 0.04045f ? c / 12.92f : (float) Math.pow((c + 0.055f) / 1.055f, 2.4);
+        }
+        for (int i = 0; i <= ENCODE_STEPS; i++) {
+            float l = (float) i / ENCODE_STEPS;
+            float c = l <= 0.0031308f ? l * 12.92f : 1.055f * (float) Math.pow(l, 1 / 2.4) - 0.055f;
+            TO_SRGB[i] = (byte) Math.round(c * 255f);
+        }
+    }
+
+    public static int levelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    public static int levelWidth(int width, int level) {
+        return Math.max(1, width >> level);
+    }
+
+    public static int levelHeight(int height, int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * Byte offsets of all levels in a packed chain, plus the chain's size as the last element.
+     */
+    public static long[] levelOffsets(int width, int height) {
+        int levels = levelCount(width, height);
+        long[] offsets = new long[levels + 1];
+        for (int level = 0; level < levels; level++)
+            offsets[level + 1] = offsets[level] + 4L * levelWidth(width, level) * levelHeight(height, level);
+        return offsets;
+    }
+
+    public static long chainSize(int width, int height) {
+        long[] offsets = levelOffsets(width, height);
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Fills levels 1.. of the chain at {@code address}, whose level 0 is already in place. The chain must be
+     * {@link #chainSize(int, int)} bytes long.
+     */
+    public static void generate(long address, int width, int height, ForkJoinPool pool) {
+        long[] offsets = levelOffsets(width, height);
+        for (int level = 1; level < offsets.length - 1; level++) {
+            pool.invoke(new Downsample(address + offsets[level - 1], levelWidth(width, level - 1), levelHeight(height, level - 1),
+                    address + offsets[level], levelWidth(width, level), levelHeight(height, level),
+                    0, levelHeight(height, level)));
+        }
+    }
+
+    private static int encode(float linear) {
+        return TO_SRGB[(int) (linear * ENCODE_STEPS + 0.5f)] & 0xFF;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Downsample extends RecursiveAction {
+        private final long src, dst;
+        private final int srcWidth, srcHeight, dstWidth, dstHeight, fromRow, toRow;
+
+        Downsample(long src, int srcWidth, int srcHeight, long dst, int dstWidth, int dstHeight, int fromRow, int toRow) {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dst = dst;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow > 1 && (long) (toRow - fromRow) * dstWidth > TASK_TEXELS) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new Downsample(src, srcWidth, srcHeight, dst, dstWidth, dstHeight, fromRow, middle),
+                        new Downsample(src, srcWidth, srcHeight, dst, dstWidth, dstHeight, middle, toRow));
+                return;
+            }
+            for (int y = fromRow; y < toRow; y++) {
+                // the last texel of an odd axis covers the last 3 source texels, so no row or column is dropped
+                int rows = y == dstHeight - 1 ? srcHeight - 2 * y : 2;
+                long row0 = src + 4L * srcWidth * 2 * y;
+                long row1 = row0 + 4L * srcWidth;
+                long out = dst + 4L * dstWidth * y;
+                for (int x = 0; x < dstWidth; x++) {
+                    int columns = x == dstWidth - 1 ? srcWidth - 2 * x : 2;
+                    if (rows != 2 || columns != 2) {
+                        MemoryUtil.memPutInt(out + 4L * x, average(row0 + 8L * x, rows, columns));
+                        continue;
+                    }
+                    int a = MemoryUtil.memGetInt(row0 + 8L * x);
+                    int b = MemoryUtil.memGetInt(row0 + 8L * x + 4);
+                    int c = MemoryUtil.memGetInt(row1 + 8L * x);
+                    int d = MemoryUtil.memGetInt(row1 + 8L * x + 4);
+                    int texel = 0;
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        float linear = TO_LINEAR[(a >>> shift) & 0xFF] + TO_LINEAR[(b >>> shift) & 0xFF]
+                                + TO_LINEAR[(c >>> shift) & 0xFF] + TO_LINEAR[(d >>> shift) & 0xFF];
+                        texel |= encode(linear * 0.25f) << shift;
+                    }
+                    int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >>> 2;
+                    MemoryUtil.memPutInt(out + 4L * x, texel | alpha << 24);
+                }
+            }
+        }
+
+        /**
+         * The average of a footprint of 1 to 3 source rows and columns starting at {@code first}.
+         */
+        private int average(long first, int rows, int columns) {
+            float r = 0, g = 0, b = 0;
+            int alpha = 0;
+            for (int row = 0; row < rows; row++) {
+                long texels = first + 4L * srcWidth * row;
+                for (int column = 0; column < columns; column++) {
+                    int texel = MemoryUtil.memGetInt(texels + 4L * column);
+                    r += TO_LINEAR[texel & 0xFF];
+                    g += TO_LINEAR[(texel >>> 8) & 0xFF];
+                    b += TO_LINEAR[(texel >>> 16) & 0xFF];
+                    alpha += texel >>> 24;
+                }
+            }
+            int taps = rows * columns;
+            float weight = 1f / taps;
+            return encode(r * weight) | encode(g * weight) << 8 | encode(b * weight) << 16
+                    | (alpha + taps / 2) / taps << 24;
+        }
+    }
+}
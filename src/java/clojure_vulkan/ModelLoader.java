@@ -0,0 +1,326 @@
+package clojure_vulkan;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.assimp.Assimp.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Imports the meshes of a model file with Assimp one at a time into off-heap vertices laid out like a vertex
+ * shader's inputs. Identical vertices are merged through an off-heap open-addressing table keyed by their bits, and
+ * every mesh gets 16-bit indices when its vertices allow it, 32-bit ones otherwise.
+ * <p>
+ * Besides Assimp's own scene, all memory is off-heap scratch reused from mesh to mesh, so it is bounded by the
+ * largest mesh.
+ */
+public class ModelLoader implements NativeResource {
+    public enum Source {
+        POSITION, NORMAL, COLOR, TEX_COORD, NONE
+    }
+
+    public static final int MAX_NARROW_VERTICES = 1 << 16;
+    private static final int IMPORT_FLAGS = aiProcess_Triangulate | aiProcess_SortByPType | aiProcess_FlipUVs
+            | aiProcess_PreTransformVertices;
+    private static final int ONE = Float.floatToRawIntBits(1f);
+
+    /**
+     * One float vertex input: the data it is filled from and its component count. Components the source lacks are
+     * 0, or 1 for colors.
+     */
+    public static final class Attribute {
+        private final Source source;
+        private final int components;
+
+        public Attribute(Source source, int components) {
+            this.source = source;
+            this.components = components;
+        }
+    }
+
+    /**
+     * A mesh's vertices and indices, valid only while {@link MeshConsumer#accept(ImportedMesh)} runs.
+     */
+    public static final class ImportedMesh {
+        private ByteBuffer vertices;
+        private ByteBuffer indices;
+        private int vertexCount;
+        private int indexCount;
+        private boolean wideIndices;
+
+        public ByteBuffer vertices() {
+            return vertices;
+        }
+
+        public ByteBuffer indices() {
+            return indices;
+        }
+
+        public int vertexCount() {
+            return vertexCount;
+        }
+
+        public int indexCount() {
+            return indexCount;
+        }
+
+        public boolean wideIndices() {
+            return wideIndices;
+        }
+    }
+
+    @FunctionalInterface
+    public interface MeshConsumer {
+        void accept(ImportedMesh mesh);
+    }
+
+    public static final class Stats {
+        private int meshes;
+        private long importedVertices;
+        private long uniqueVertices;
+        private long nanos;
+
+        public int meshes() {
+            return meshes;
+        }
+
+        public long importedVertices() {
+            return importedVertices;
+        }
+
+        public long uniqueVertices() {
+            return uniqueVertices;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public double verticesPerSecond() {
+            return importedVertices * 1e9 / Math.max(1, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d meshes, %d of %d vertices unique, %.2f ms, %.0f vertices/s",
+                    meshes, uniqueVertices, importedVertices, nanos / 1e6, verticesPerSecond());
+        }
+    }
+
+    private final Attribute[] layout;
+    private final int vertexInts;
+    private final long[] sources;
+    private final int[] sourceStrides;
+    private final int[] sourceComponents;
+    private final ImportedMesh mesh = new ImportedMesh();
+
+    private long vertices = NULL;
+    private long verticesBytes;
+    private long indices = NULL;
+    private long indicesBytes;
+    private long remap = NULL;
+    private long remapBytes;
+    private long table = NULL;
+    private long tableBytes;
+
+    public ModelLoader(Attribute[] layout) {
+        this.layout = layout.clone();
+        int ints = 0;
+        for (Attribute attribute : layout)
+            ints += attribute.components;
+        this.vertexInts = ints;
+        this.sources = new long[layout.length];
+        this.sourceStrides = new int[layout.length];
+        this.sourceComponents = new int[layout.length];
+    }
+
+    public int vertexStride() {
+        return vertexInts * Integer.BYTES;
+    }
+
+    /**
+     * Imports every mesh of the model, handing each to the consumer before the next one is read.
+     */
+    public Stats load(String path, MeshConsumer consumer) {
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        AIScene scene = aiImportFile(path, IMPORT_FLAGS);
+        if (scene == null)
+            throw new RuntimeException("Failed to import model " + path + ": " + aiGetErrorString());
+        try {
+            PointerBuffer meshes = scene.mMeshes();
+            for (int i = 0; i < scene.mNumMeshes(); i++) {
+                AIMesh source = AIMesh.create(meshes.get(i));
+                if (importMesh(source)) {
+                    stats.meshes++;
+                    stats.importedVertices += source.mNumVertices();
+                    stats.uniqueVertices += mesh.vertexCount;
+                    consumer.accept(mesh);
+                }
+            }
+        } finally {
+            aiReleaseImport(scene);
+        }
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private static long capacity(long address, long bytes, long needed) {
+        return needed <= bytes ? address : nmemRealloc(address, needed);
+    }
+
+    private void ensureScratch(int vertexCount, int faceCount, int tableSlots) {
+        long needed = (long) vertexCount * vertexStride();
+        vertices = capacity(vertices, verticesBytes, needed);
+        verticesBytes = Math.max(verticesBytes, needed);
+        needed = (long) faceCount * 3 * Integer.BYTES;
+        indices = capacity(indices, indicesBytes, needed);
+        indicesBytes = Math.max(indicesBytes, needed);
+        needed = (long) vertexCount * Integer.BYTES;
+        remap = capacity(remap, remapBytes, needed);
+        remapBytes = Math.max(remapBytes, needed);
+        needed = (long) tableSlots * Integer.BYTES;
+        table = capacity(table, tableBytes, needed);
+        tableBytes = Math.max(tableBytes, needed);
+        if (vertices == NULL || indices == NULL || remap == NULL || table == NULL)
+            throw new RuntimeException("Failed to allocate " + vertexCount + " vertices for model import.");
+    }
+
+    private void bindSources(AIMesh source) {
+        for (int i = 0; i < layout.length; i++) {
+            long address = NULL;
+            int stride = 0;
+            int components = 0;
+            switch (layout[i].source) {
+                case POSITION:
+                    address = source.mVertices().address();
+                    stride = 3 * Float.BYTES;
+                    components = 3;
+                    break;
+                case NORMAL:
+                    address = memGetAddress(source.address() + AIMesh.MNORMALS);
+                    stride = 3 * Float.BYTES;
+                    components = 3;
+                    break;
+                case COLOR:
+                    address = memGetAddress(source.address() + AIMesh.MCOLORS);
+                    stride = 4 * Float.BYTES;
+                    components = 4;
+                    break;
+                case TEX_COORD:
+                    address = memGetAddress(source.address() + AIMesh.MTEXTURECOORDS);
+                    stride = 3 * Float.BYTES;
+                    components = source.mNumUVComponents(0);
+                    break;
+                default:
+                    break;
+            }
+            sources[i] = address;
+            sourceStrides[i] = stride;
+            sourceComponents[i] = address == NULL ? 0 : components;
+        }
+    }
+
+    /**
+     * Returns false for meshes without triangles.
+     */
+    private boolean importMesh(AIMesh source) {
+        int vertexCount = source.mNumVertices();
+        int faceCount = source.mNumFaces();
+        int tableSlots = Integer.highestOneBit(Math.max(8, vertexCount) * 2 - 1) << 1;
+        ensureScratch(vertexCount, faceCount, tableSlots);
+        bindSources(source);
+        memSet(remap, 0xFF, (long) vertexCount * Integer.BYTES);
+        memSet(table, 0, (long) tableSlots * Integer.BYTES);
+
+        int unique = 0;
+        int indexCount = 0;
+        long faces = source.mFaces().address();
+        for (int f = 0; f < faceCount; f++) {
+            long face = faces + (long) f * AIFace.SIZEOF;
+            if (AIFace.nmNumIndices(face) != 3)
+                continue;
+            long faceIndices = memGetAddress(face + AIFace.MINDICES);
+            for (int corner = 0; corner < 3; corner++) {
+                int v = memGetInt(faceIndices + corner * Integer.BYTES);
+                int merged = memGetInt(remap + (long) v * Integer.BYTES);
+                if (merged < 0) {
+                    merged = merge(v, unique, tableSlots - 1);
+                    if (merged == unique)
+                        unique++;
+                    memPutInt(remap + (long) v * Integer.BYTES, merged);
+                }
+                memPutInt(indices + (long) indexCount++ * Integer.BYTES, merged);
+            }
+        }
+        if (indexCount == 0)
+            return false;
+
+        boolean wide = unique > MAX_NARROW_VERTICES;
+        if (!wide)
+            for (int i = 0; i < indexCount; i++)
+                memPutShort(indices + (long) i * Short.BYTES, (short) memGetInt(indices + (long) i * Integer.BYTES));
+        mesh.vertices = memByteBuffer(vertices, unique * vertexStride());
+        mesh.indices = memByteBuffer(indices, indexCount * (wide ? Integer.BYTES : Short.BYTES));
+        mesh.vertexCount = unique;
+        mesh.indexCount = indexCount;
+        mesh.wideIndices = wide;
+        return true;
+    }
+
+    /**
+     * Lays out the source vertex at the next unique slot and looks its bits up among the unique vertices so far.
+     * Returns the index of an identical one, or {@code unique} if there is none.
+     */
+    private int merge(int v, int unique, int mask) {
+        long candidate = vertices + (long) unique * vertexStride();
+        int offset = 0;
+        int hash = 0;
+        for (int i = 0; i < layout.length; i++) {
+            long from = sources[i] + (long) v * sourceStrides[i];
+            for (int c = 0; c < layout[i].components; c++) {
+                int bits = c < sourceComponents[i]
+                        ? memGetInt(from + c * Integer.BYTES)
+                        : layout[i].source == Source.COLOR ? ONE : 0;
+                memPutInt(candidate + offset++ * Integer.BYTES, bits);
+                hash = 31 * hash + bits;
+            }
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = table + (long) slot * Integer.BYTES;
+            int stored = memGetInt(entry);
+            if (stored == 0) {
+                memPutInt(entry, unique + 1);
+                return unique;
+            }
+            long existing = vertices + (long) (stored - 1) * vertexStride();
+            if (equalVertices(existing, candidate))
+                return stored - 1;
+        }
+    }
+
+    private boolean equalVertices(long a, long b) {
+        for (int i = 0; i < vertexInts; i++)
+            if (memGetInt(a + i * Integer.BYTES) != memGetInt(b + i * Integer.BYTES))
+                return false;
+        return true;
+    }
+
+    @Override
+    public void free() {
+        nmemFree(vertices);
+        nmemFree(indices);
+        nmemFree(remap);
+        nmemFree(table);
+        vertices = indices = remap = table = NULL;
+        verticesBytes = indicesBytes = remapBytes = tableBytes = 0;
+    }
+}
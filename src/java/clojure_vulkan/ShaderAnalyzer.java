@@ -4,6 +4,11 @@ import clojure.lang.*;
 
 import java.util.*;
 
+/**
+ * Finds the {@code layout(...)} qualified in/out/uniform declarations of a GLSL source in a single pass.
+ * The source is never copied: tokens are kept as index ranges into it and only the names and types
+ * which end up in the result are turned into strings.
+ */
 public class ShaderAnalyzer {
     enum Mode {
         IN,
@@ -18,7 +23,9 @@ public class ShaderAnalyzer {
                 modeKW = Keyword.intern("mode"),
                 inKW = Keyword.intern("in"),
                 outKW = Keyword.intern("out"),
-                uniformKW = Keyword.intern("uniform");
+                uniformKW = Keyword.intern("uniform"),
+                arraySizeKW = Keyword.intern("array-size"),
+                membersKW = Keyword.intern("members");
         private static final HashMap<Mode, Keyword> modeToKW = new HashMap<>(Map.of(
                 Mode.IN, inKW,
                 Mode.OUT, outKW,
@@ -27,6 +34,8 @@ public class ShaderAnalyzer {
         private int binding;
         private String type;
         private String name;
+        private int arraySize = -1;
+        private IPersistentVector members;
 
         private Mode mode;
 
@@ -37,6 +46,10 @@ public class ShaderAnalyzer {
                     modeKW, mode_kw,
                     nameKW, name,
                     typeKW, Keyword.intern(type == null ? "unknown" : type));
+            if (arraySize >= 0)
+                ret = (PersistentHashMap) ret.assoc(arraySizeKW, arraySize);
+            if (members != null)
+                ret = (PersistentHashMap) ret.assoc(membersKW, members);
             return (PersistentHashMap)
                     (mode_kw == uniformKW ?
                             ret.assoc(bindingKW, binding)
@@ -51,96 +64,386 @@ public class ShaderAnalyzer {
             locationKW = Keyword.intern("location"),
             bindingKW = Keyword.intern("binding");
 
-    static final int
-            locationLength = "(location".length(),
-            bindingLength = "(binding".length();
+    private static final int
+            EOF = 0,
+            IDENTIFIER = 1,
+            NUMBER = 2,
+            PUNCTUATION = 3;
 
-    private static String dropSpaces(String s) {
-        String ret = s;
-        while (ret.charAt(0) == ' ') {
-            ret = ret.substring(1);
-        }
-        return ret;
-    }
+    /**
+     * Interpolation, auxiliary, precision, memory and invariance qualifiers which may appear between
+     * the layout qualifier and the type and do not change the analysis.
+     */
+    private static final String[] IGNORED_QUALIFIERS = {
+            "flat", "smooth", "noperspective", "centroid", "sample", "patch", "invariant", "precise",
+            "highp", "mediump", "lowp", "const", "readonly", "writeonly", "coherent", "volatile", "restrict"};
+
+    private final HashMap<String, IPersistentVector> structs = new HashMap<>();
 
-    private static final HashSet<Character> terminatingWord = new HashSet<>(Set.of(' ', ',', ';'));
+    private final CharSequence src;
+    private final int length;
+    private int pos = 0;
 
-    private static String dropWord(String s) {
-        for (int i = 0; i < s.length(); i++)
-            if (terminatingWord.contains(s.charAt(i)))
-                return s.substring(i);
-        return "";
+    private int tokenKind;
+    private int tokenStart;
+    private int tokenEnd;
+
+    private ShaderAnalyzer(CharSequence src) {
+        this.src = src;
+        this.length = src.length();
     }
 
-    public static Vector<PersistentHashMap> analyze(String s) {
-        String src = s;
+    public static Vector<PersistentHashMap> analyze(CharSequence src) {
+        return new ShaderAnalyzer(src).analyze();
+    }
+
+    private Vector<PersistentHashMap> analyze() {
         Vector<PersistentHashMap> analyzedLocations = new Vector<>();
-        int locationIndexOf;
-        int bindingIndexOf;
-        char ch;
-        while (src.contains("layout")) {
-            ShaderLayout currentLayout = new ShaderLayout();
-            locationIndexOf = src.indexOf("(location");
-            if (locationIndexOf == -1)
-                locationIndexOf = 10000;
-            bindingIndexOf = src.indexOf("(binding");
-            if (bindingIndexOf == -1)
-                bindingIndexOf = 10000;
-            Keyword winner = locationIndexOf < bindingIndexOf ? locationKW : bindingKW;
-            src = src.substring(winner == locationKW ?
-                    locationIndexOf + locationLength :
-                    bindingIndexOf + bindingLength);
-            src = dropSpaces(src);
-            src = src.substring(1);
-            src = dropSpaces(src);
-            StringBuilder sb = new StringBuilder();
-            while (Character.isDigit(ch = src.charAt(0))) {
-                sb.append(ch);
-                src = src.substring(1);
+        next();
+        while (tokenKind != EOF) {
+            if (tokenKind == IDENTIFIER && tokenIs("layout")) {
+                next();
+                declaration(analyzedLocations);
+            } else if (tokenKind == IDENTIFIER && tokenIs("struct")) {
+                next();
+                structDefinition();
+            } else {
+                next();
             }
-            int locationOrBinding = Integer.parseInt(sb.toString());
-            src = src.substring(1);
-            src = dropSpaces(src);
-
-            Mode mode = src.startsWith("in") ? Mode.IN
-                    : (src.startsWith("out") ? Mode.OUT
-                    : (src.startsWith("uniform") ? Mode.UNIFORM
-                    : null));
-            if (mode != null) {
-                currentLayout.mode = mode;
-                if (winner == locationKW) {
-                    currentLayout.location = locationOrBinding;
-                } else {
-                    currentLayout.binding = locationOrBinding;
-                }
-                src = dropWord(src);
-                src = dropSpaces(src);
-                sb = new StringBuilder();
-                while (src.charAt(0) != ' ') {
-                    sb.append(src.charAt(0));
-                    src = src.substring(1);
-                }
-                if (mode == Mode.IN || mode == Mode.OUT) {
-                    currentLayout.type = sb.toString();
-                    src = dropSpaces(src);
-                    sb = new StringBuilder();
-                    while (src.charAt(0) != ';') {
-                        sb.append(src.charAt(0));
-                        src = src.substring(1);
-                    }
-                    currentLayout.name = sb.toString();
-                } else {
-                    currentLayout.name = sb.toString();
-                    src = dropSpaces(src);
-                    sb = new StringBuilder();
-                    while (!terminatingWord.contains(src.charAt(0))) {
-                        sb.append(src.charAt(0));
-                        src = src.substring(1);
-                    }
+        }
+        return analyzedLocations;
+    }
+
+    private void declaration(Vector<PersistentHashMap> analyzedLocations) {
+        int location = -1;
+        int binding = -1;
+        expect('(');
+        while (!isPunctuation(')')) {
+            if (tokenKind != IDENTIFIER)
+                throw error("Expected a layout qualifier");
+            boolean isLocation = tokenIs("location");
+            boolean isBinding = tokenIs("binding");
+            next();
+            if (isPunctuation('=')) {
+                next();
+                int value = number();
+                if (isLocation)
+                    location = value;
+                else if (isBinding)
+                    binding = value;
+            }
+            if (isPunctuation(','))
+                next();
+            else if (!isPunctuation(')'))
+                throw error("Expected ',' or ')' in a layout qualifier");
+        }
+        next();
+
+        Mode mode = null;
+        while (tokenKind == IDENTIFIER) {
+            if (tokenIs("in"))
+                mode = Mode.IN;
+            else if (tokenIs("out"))
+                mode = Mode.OUT;
+            else if (tokenIs("uniform"))
+                mode = Mode.UNIFORM;
+            else if (!isIgnoredQualifier())
+                break;
+            next();
+        }
+        if (mode == null || tokenKind != IDENTIFIER) {
+            // e.g. a `buffer` block or `layout(local_size_x = 64) in;`
+            skipStatement();
+            return;
+        }
+
+        if (mode == Mode.UNIFORM) {
+            ShaderLayout layout = new ShaderLayout();
+            layout.mode = mode;
+            layout.binding = binding;
+            layout.name = tokenString();
+            next();
+            if (isPunctuation('{'))
+                layout.members = members();
+            if (tokenKind == IDENTIFIER)
+                next();
+            if (isPunctuation('['))
+                layout.arraySize = arraySize();
+            if (binding >= 0)
+                analyzedLocations.add(layout.hashMap());
+            skipStatement();
+            return;
+        }
+
+        String type = tokenString();
+        next();
+        if (isPunctuation('{')) {
+            // an interface block like `out VS_OUT { vec3 color; } vs_out;`, recorded like a uniform block
+            ShaderLayout layout = new ShaderLayout();
+            layout.mode = mode;
+            layout.location = location;
+            layout.name = type;
+            layout.members = members();
+            if (tokenKind == IDENTIFIER)
+                next();
+            if (isPunctuation('['))
+                layout.arraySize = arraySize();
+            if (location >= 0)
+                analyzedLocations.add(layout.hashMap());
+            skipStatement();
+            return;
+        }
+        int typeLocations = locations(type);
+        while (true) {
+            if (tokenKind != IDENTIFIER)
+                throw error("Expected a variable name");
+            ShaderLayout layout = new ShaderLayout();
+            layout.mode = mode;
+            layout.type = type;
+            layout.location = location;
+            layout.name = tokenString();
+            next();
+            if (isPunctuation('['))
+                layout.arraySize = arraySize();
+            if (location >= 0) {
+                analyzedLocations.add(layout.hashMap());
+                location += typeLocations * Math.max(layout.arraySize, 1);
+            }
+            if (isPunctuation(',')) {
+                next();
+                continue;
+            }
+            skipStatement();
+            return;
+        }
+    }
+
+    /**
+     * The locations an in/out variable of the type takes: one per matrix column, and two for the columns and
+     * vectors of doubles with more than two components.
+     */
+    private static int locations(String type) {
+        boolean dvec = type.startsWith("dvec");
+        boolean dmat = type.startsWith("dmat");
+        if (dvec)
+            return type.length() > 4 && type.charAt(4) >= '3' ? 2 : 1;
+        if (!dmat && !type.startsWith("mat"))
+            return 1;
+        int at = dmat ? 4 : 3;
+        if (type.length() <= at)
+            return 1;
+        int columns = type.charAt(at) - '0';
+        int rows = type.length() > at + 2 && type.charAt(at + 1) == 'x' ? type.charAt(at + 2) - '0' : columns;
+        return dmat && rows >= 3 ? 2 * columns : columns;
+    }
+
+    /**
+     * Parses {@code [N]} and returns N, or 0 for an unsized array.
+     */
+    private int arraySize() {
+        next();
+        if (isPunctuation(']')) {
+            next();
+            return 0;
+        }
+        int size = number();
+        expect(']');
+        return size;
+    }
+
+    private int number() {
+        if (tokenKind != NUMBER)
+            throw error("Expected a number");
+        int value = 0;
+        int i = tokenStart;
+        int radix = 10;
+        if (tokenEnd - tokenStart > 2 && src.charAt(i) == '0' && (src.charAt(i + 1) | 0x20) == 'x') {
+            radix = 16;
+            i += 2;
+        }
+        for (; i < tokenEnd; i++) {
+            int digit = Character.digit(src.charAt(i), radix);
+            if (digit < 0)
+                break; // u/U suffix
+            value = value * radix + digit;
+        }
+        next();
+        return value;
+    }
+
+    private void structDefinition() {
+        if (tokenKind != IDENTIFIER)
+            throw error("Expected a struct name");
+        String name = tokenString();
+        next();
+        structs.put(name, members());
+        skipStatement();
+    }
+
+    /**
+     * Parses the {@code { type name; ... }} member list of a struct or block into
+     * {@code [{:name "member" :type :vec4} ...]}, with {@code :array-size} for arrays and the
+     * {@code :members} of struct typed members.
+     */
+    private IPersistentVector members() {
+        expect('{');
+        ArrayList<PersistentHashMap> members = new ArrayList<>();
+        while (!isPunctuation('}')) {
+            if (tokenKind == EOF)
+                throw error("Unterminated block");
+            if (tokenIs("layout")) {
+                // member layout qualifiers like `layout(offset = 16)` or `layout(row_major)`
+                next();
+                expect('(');
+                while (!isPunctuation(')')) {
+                    if (tokenKind == EOF)
+                        throw error("Unterminated layout qualifier");
+                    next();
                 }
-                analyzedLocations.add(currentLayout.hashMap());
+                next();
             }
+            while (tokenKind == IDENTIFIER && isIgnoredQualifier())
+                next();
+            if (tokenKind != IDENTIFIER)
+                throw error("Expected a member type");
+            String type = tokenString();
+            IPersistentVector structMembers = structs.get(type);
+            next();
+            while (true) {
+                if (tokenKind != IDENTIFIER)
+                    throw error("Expected a member name");
+                PersistentHashMap member = PersistentHashMap.create(
+                        ShaderLayout.nameKW, tokenString(),
+                        ShaderLayout.typeKW, Keyword.intern(type));
+                next();
+                if (isPunctuation('['))
+                    member = (PersistentHashMap) member.assoc(ShaderLayout.arraySizeKW, arraySize());
+                if (structMembers != null)
+                    member = (PersistentHashMap) member.assoc(ShaderLayout.membersKW, structMembers);
+                members.add(member);
+                if (!isPunctuation(','))
+                    break;
+                next();
+            }
+            expect(';');
+        }
+        next();
+        return PersistentVector.create(members);
+    }
+
+    private void skipStatement() {
+        while (tokenKind != EOF && !isPunctuation(';'))
+            next();
+        next();
+    }
+
+    private void expect(char ch) {
+        if (!isPunctuation(ch))
+            throw error("Expected '" + ch + "'");
+        next();
+    }
+
+    private boolean isPunctuation(char ch) {
+        return tokenKind == PUNCTUATION && src.charAt(tokenStart) == ch;
+    }
+
+    private boolean tokenIs(String s) {
+        int len = tokenEnd - tokenStart;
+        if (len != s.length())
+            return false;
+        for (int i = 0; i < len; i++)
+            if (src.charAt(tokenStart + i) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private boolean isIgnoredQualifier() {
+        for (String qualifier : IGNORED_QUALIFIERS)
+            if (tokenIs(qualifier))
+                return true;
+        return false;
+    }
+
+    private String tokenString() {
+        return src.subSequence(tokenStart, tokenEnd).toString();
+    }
+
+    private RuntimeException error(String message) {
+        int line = 1;
+        for (int i = 0; i < tokenStart; i++)
+            if (src.charAt(i) == '\n')
+                line++;
+        String found = tokenKind == EOF ? "end of source" : "'" + tokenString() + "'";
+        return new RuntimeException(message + " at line " + line + ", found " + found + ".");
+    }
+
+    private static boolean isIdentifierStart(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        return isIdentifierStart(ch) || (ch >= '0' && ch <= '9');
+    }
+
+    /**
+     * Advances to the next token, skipping whitespace, comments and preprocessor lines.
+     */
+    private void next() {
+        skipTrivia();
+        tokenStart = pos;
+        if (pos >= length) {
+            tokenKind = EOF;
+            tokenEnd = pos;
+            return;
+        }
+        char ch = src.charAt(pos);
+        if (isIdentifierStart(ch)) {
+            tokenKind = IDENTIFIER;
+            do pos++; while (pos < length && isIdentifierPart(src.charAt(pos)));
+        } else if (ch >= '0' && ch <= '9') {
+            tokenKind = NUMBER;
+            // also swallows fractions, exponents and suffixes of literals which are not analyzed
+            do pos++; while (pos < length && (isIdentifierPart(src.charAt(pos)) || src.charAt(pos) == '.'));
+        } else {
+            tokenKind = PUNCTUATION;
+            pos++;
+        }
+        tokenEnd = pos;
+    }
+
+    private void skipTrivia() {
+        boolean lineStart = pos == 0;
+        while (pos < length) {
+            char ch = src.charAt(pos);
+            if (ch == '\n') {
+                lineStart = true;
+                pos++;
+            } else if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\f') {
+                pos++;
+            } else if (ch == '#' && lineStart) {
+                skipLine();
+            } else if (ch == '/' && pos + 1 < length && src.charAt(pos + 1) == '/') {
+                skipLine();
+            } else if (ch == '/' && pos + 1 < length && src.charAt(pos + 1) == '*') {
+                pos += 2;
+                while (pos < length && !(src.charAt(pos) == '*' && pos + 1 < length && src.charAt(pos + 1) == '/'))
+                    pos++;
+                pos = Math.min(pos + 2, length);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips to the end of the line, following backslash line continuations.
+     */
+    private void skipLine() {
+        while (pos < length) {
+            char ch = src.charAt(pos);
+            if (ch == '\n' && src.charAt(pos - 1) != '\\')
+                return;
+            pos++;
         }
-        return analyzedLocations;
     }
 }
@@ -0,0 +1,416 @@
+package clojure_vulkan;
+
+import clojure.lang.*;
+import org.lwjgl.vulkan.VK13;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static clojure_vulkan.ShaderAnalyzer.ShaderLayout.*;
+
+/**
+ * Reflects the interface of a SPIR-V module: the same maps {@link ShaderAnalyzer} derives from GLSL source,
+ * read from the binary instead. The word stream is walked once to index names, decorations, types and
+ * global variables by id; resolving the variables afterwards only follows those indices.
+ * <p>
+ * Besides the analyzer's keys, uniforms carry {@code :set} and {@code :descriptor-type} (a
+ * VK_DESCRIPTOR_TYPE_*), block members their decorated {@code :offset}, and push constant blocks come
+ * out as {@code {:mode :push-constant :offset :size :members}} with the range they occupy.
+ */
+public class SpirVReflection {
+    static final Keyword
+            pushConstantKW = Keyword.intern("push-constant"),
+            setKW = Keyword.intern("set"),
+            descriptorTypeKW = Keyword.intern("descriptor-type"),
+            offsetKW = Keyword.intern("offset"),
+            sizeKW = Keyword.intern("size"),
+            unknownKW = Keyword.intern("unknown");
+
+    private static final int MAGIC = 0x07230203;
+
+    private static final int
+            OP_NAME = 5,
+            OP_MEMBER_NAME = 6,
+            OP_TYPE_BOOL = 20,
+            OP_TYPE_INT = 21,
+            OP_TYPE_FLOAT = 22,
+            OP_TYPE_VECTOR = 23,
+            OP_TYPE_MATRIX = 24,
+            OP_TYPE_IMAGE = 25,
+            OP_TYPE_SAMPLER = 26,
+            OP_TYPE_SAMPLED_IMAGE = 27,
+            OP_TYPE_ARRAY = 28,
+            OP_TYPE_RUNTIME_ARRAY = 29,
+            OP_TYPE_STRUCT = 30,
+            OP_TYPE_POINTER = 32,
+            OP_CONSTANT = 43,
+            OP_SPEC_CONSTANT = 50,
+            OP_VARIABLE = 59,
+            OP_DECORATE = 71,
+            OP_MEMBER_DECORATE = 72;
+
+    private static final int
+            DECORATION_BUFFER_BLOCK = 3,
+            DECORATION_ARRAY_STRIDE = 6,
+            DECORATION_MATRIX_STRIDE = 7,
+            DECORATION_BUILT_IN = 11,
+            DECORATION_LOCATION = 30,
+            DECORATION_BINDING = 33,
+            DECORATION_DESCRIPTOR_SET = 34,
+            DECORATION_OFFSET = 35;
+
+    private static final int
+            STORAGE_UNIFORM_CONSTANT = 0,
+            STORAGE_INPUT = 1,
+            STORAGE_UNIFORM = 2,
+            STORAGE_OUTPUT = 3,
+            STORAGE_PUSH_CONSTANT = 9,
+            STORAGE_STORAGE_BUFFER = 12;
+
+    private static final int
+            DIM_BUFFER = 5,
+            DIM_SUBPASS_DATA = 6;
+
+    private static final String[] DIM_NAMES = {"1D", "2D", "3D", "Cube", "2DRect", "Buffer", "SubpassData"};
+
+    private final IntBuffer words;
+    /**
+     * Word index of the instruction defining each id, or 0.
+     */
+    private final int[] definition;
+    private final String[] names;
+    private final int[] location, binding, set, arrayStride;
+    private final boolean[] builtIn, bufferBlock;
+    private final HashMap<Long, String> memberNames = new HashMap<>();
+    private final HashMap<Long, Integer> memberOffsets = new HashMap<>();
+    private final HashMap<Long, Integer> memberMatrixStrides = new HashMap<>();
+    private final ArrayList<Integer> variables = new ArrayList<>();
+
+    private SpirVReflection(IntBuffer words) {
+        this.words = words;
+        int bound = words.get(3);
+        definition = new int[bound];
+        names = new String[bound];
+        location = filled(bound);
+        binding = filled(bound);
+        set = filled(bound);
+        arrayStride = filled(bound);
+        builtIn = new boolean[bound];
+        bufferBlock = new boolean[bound];
+    }
+
+    private static int[] filled(int length) {
+        int[] a = new int[length];
+        Arrays.fill(a, -1);
+        return a;
+    }
+
+    /**
+     * @param spirv the module's bytecode from its position to its limit, in either byte order
+     */
+    public static Vector<PersistentHashMap> reflect(ByteBuffer spirv) {
+        IntBuffer words = spirv.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (words.remaining() < 5)
+            throw new RuntimeException("Not a SPIR-V module: only " + spirv.remaining() + " bytes.");
+        if (words.get(0) != MAGIC) {
+            words = spirv.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            if (words.get(0) != MAGIC)
+                throw new RuntimeException("Not a SPIR-V module: bad magic number " + Integer.toHexString(words.get(0)) + ".");
+        }
+        SpirVReflection reflection = new SpirVReflection(words);
+        reflection.index();
+        return reflection.resolve();
+    }
+
+    private void index() {
+        int end = words.limit();
+        int at = 5;
+        while (at < end) {
+            int word = words.get(at);
+            int opcode = word & 0xffff;
+            int count = word >>> 16;
+            if (count == 0 || at + count > end)
+                throw new RuntimeException("Malformed SPIR-V instruction at word " + at + ".");
+            switch (opcode) {
+                case OP_NAME -> names[words.get(at + 1)] = string(at + 2, at + count);
+                case OP_MEMBER_NAME -> memberNames.put(memberKey(words.get(at + 1), words.get(at + 2)), string(at + 3, at + count));
+                case OP_DECORATE -> decorate(words.get(at + 1), words.get(at + 2), count > 3 ? words.get(at + 3) : 0);
+                case OP_MEMBER_DECORATE -> {
+                    long key = memberKey(words.get(at + 1), words.get(at + 2));
+                    int decoration = words.get(at + 3);
+                    if (decoration == DECORATION_OFFSET)
+                        memberOffsets.put(key, words.get(at + 4));
+                    else if (decoration == DECORATION_MATRIX_STRIDE)
+                        memberMatrixStrides.put(key, words.get(at + 4));
+                }
+                case OP_TYPE_BOOL, OP_TYPE_INT, OP_TYPE_FLOAT, OP_TYPE_VECTOR, OP_TYPE_MATRIX, OP_TYPE_IMAGE,
+                        OP_TYPE_SAMPLER, OP_TYPE_SAMPLED_IMAGE, OP_TYPE_ARRAY, OP_TYPE_RUNTIME_ARRAY, OP_TYPE_STRUCT,
+                        OP_TYPE_POINTER -> definition[words.get(at + 1)] = at;
+                case OP_CONSTANT, OP_SPEC_CONSTANT -> definition[words.get(at + 2)] = at;
+                case OP_VARIABLE -> {
+                    definition[words.get(at + 2)] = at;
+                    int storageClass = words.get(at + 3);
+                    if (storageClass == STORAGE_INPUT || storageClass == STORAGE_OUTPUT || storageClass == STORAGE_UNIFORM
+                            || storageClass == STORAGE_UNIFORM_CONSTANT || storageClass == STORAGE_PUSH_CONSTANT
+                            || storageClass == STORAGE_STORAGE_BUFFER)
+                        variables.add(at);
+                }
+                default -> {
+                }
+            }
+            at += count;
+        }
+    }
+
+    private void decorate(int id, int decoration, int value) {
+        switch (decoration) {
+            case DECORATION_LOCATION -> location[id] = value;
+            case DECORATION_BINDING -> binding[id] = value;
+            case DECORATION_DESCRIPTOR_SET -> set[id] = value;
+            case DECORATION_ARRAY_STRIDE -> arrayStride[id] = value;
+            case DECORATION_BUILT_IN -> builtIn[id] = true;
+            case DECORATION_BUFFER_BLOCK -> bufferBlock[id] = true;
+            default -> {
+            }
+        }
+    }
+
+    private static long memberKey(int struct, int member) {
+        return (long) struct << 32 | member;
+    }
+
+    /**
+     * Decodes a nul-terminated literal string packed into words, lowest-order byte first.
+     */
+    private String string(int from, int end) {
+        byte[] bytes = new byte[(end - from) * 4];
+        int length = 0;
+        outer:
+        for (int i = from; i < end; i++) {
+            int word = words.get(i);
+            for (int b = 0; b < 4; b++) {
+                byte ch = (byte) (word >>> (8 * b));
+                if (ch == 0)
+                    break outer;
+                bytes[length++] = ch;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int opcode(int id) {
+        int at = definition[id];
+        return at == 0 ? -1 : words.get(at) & 0xffff;
+    }
+
+    private int operand(int id, int i) {
+        return words.get(definition[id] + i);
+    }
+
+    private Vector<PersistentHashMap> resolve() {
+        ArrayList<PersistentHashMap> inputs = new ArrayList<>();
+        ArrayList<PersistentHashMap> outputs = new ArrayList<>();
+        ArrayList<PersistentHashMap> uniforms = new ArrayList<>();
+        ArrayList<PersistentHashMap> pushConstants = new ArrayList<>();
+        for (int at : variables) {
+            int id = words.get(at + 2);
+            int storageClass = words.get(at + 3);
+            int pointer = words.get(at + 1);
+            int type = operand(pointer, 3);
+            switch (storageClass) {
+                case STORAGE_INPUT, STORAGE_OUTPUT -> {
+                    if (builtIn[id] || location[id] < 0)
+                        continue;
+                    PersistentHashMap variable = typed(PersistentHashMap.create(
+                            modeKW, storageClass == STORAGE_INPUT ? inKW : outKW,
+                            nameKW, names[id],
+                            ShaderAnalyzer.locationKW, location[id]), type);
+                    (storageClass == STORAGE_INPUT ? inputs : outputs).add(variable);
+                }
+                case STORAGE_PUSH_CONSTANT -> pushConstants.add(pushConstant(type));
+                default -> {
+                    if (binding[id] < 0)
+                        continue;
+                    uniforms.add(uniform(id, storageClass, type));
+                }
+            }
+        }
+        Comparator<PersistentHashMap> byLocation = Comparator.comparingInt(m -> (Integer) m.valAt(ShaderAnalyzer.locationKW));
+        inputs.sort(byLocation);
+        outputs.sort(byLocation);
+        uniforms.sort(Comparator.<PersistentHashMap>comparingInt(m -> (Integer) m.valAt(setKW))
+                .thenComparingInt(m -> (Integer) m.valAt(ShaderAnalyzer.bindingKW)));
+        Vector<PersistentHashMap> result = new Vector<>(inputs.size() + outputs.size() + uniforms.size() + pushConstants.size());
+        result.addAll(inputs);
+        result.addAll(outputs);
+        result.addAll(uniforms);
+        result.addAll(pushConstants);
+        return result;
+    }
+
+    /**
+     * Adds {@code :type}, and {@code :array-size} for arrays, with {@code :members} if the element is a struct.
+     */
+    private PersistentHashMap typed(PersistentHashMap map, int type) {
+        int arraySize = -1;
+        while (opcode(type) == OP_TYPE_ARRAY || opcode(type) == OP_TYPE_RUNTIME_ARRAY) {
+            int length = opcode(type) == OP_TYPE_ARRAY ? constant(operand(type, 3)) : 0;
+            arraySize = arraySize < 0 ? length : arraySize * length;
+            type = operand(type, 2);
+        }
+        map = (PersistentHashMap) map.assoc(typeKW, Keyword.intern(typeName(type)));
+        if (arraySize >= 0)
+            map = (PersistentHashMap) map.assoc(arraySizeKW, arraySize);
+        if (opcode(type) == OP_TYPE_STRUCT)
+            map = (PersistentHashMap) map.assoc(membersKW, members(type));
+        return map;
+    }
+
+    private int constant(int id) {
+        int op = opcode(id);
+        if (op != OP_CONSTANT && op != OP_SPEC_CONSTANT)
+            throw new RuntimeException("Array length %" + id + " is not a constant.");
+        return operand(id, 3);
+    }
+
+    private IPersistentVector members(int struct) {
+        int count = (words.get(definition[struct]) >>> 16) - 2;
+        ArrayList<PersistentHashMap> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long key = memberKey(struct, i);
+            PersistentHashMap member = typed(PersistentHashMap.create(nameKW, memberNames.get(key)), operand(struct, 2 + i));
+            Integer offset = memberOffsets.get(key);
+            if (offset != null)
+                member = (PersistentHashMap) member.assoc(offsetKW, offset);
+            members.add(member);
+        }
+        return PersistentVector.create(members);
+    }
+
+    private PersistentHashMap uniform(int id, int storageClass, int type) {
+        int element = type;
+        while (opcode(element) == OP_TYPE_ARRAY || opcode(element) == OP_TYPE_RUNTIME_ARRAY)
+            element = operand(element, 2);
+        // like the analyzer: blocks are named by their block name, opaque types by their GLSL type name
+        PersistentHashMap uniform = typed(PersistentHashMap.create(
+                modeKW, uniformKW,
+                ShaderAnalyzer.bindingKW, binding[id],
+                setKW, Math.max(set[id], 0)), type);
+        uniform = (PersistentHashMap) uniform
+                .assoc(nameKW, opcode(element) == OP_TYPE_STRUCT ? names[element] : typeName(element))
+                .assoc(typeKW, unknownKW);
+        int descriptorType = descriptorType(element, storageClass);
+        return descriptorType < 0 ? uniform : (PersistentHashMap) uniform.assoc(descriptorTypeKW, descriptorType);
+    }
+
+    private int descriptorType(int type, int storageClass) {
+        return switch (opcode(type)) {
+            case OP_TYPE_SAMPLED_IMAGE -> VK13.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER;
+            case OP_TYPE_SAMPLER -> VK13.VK_DESCRIPTOR_TYPE_SAMPLER;
+            case OP_TYPE_IMAGE -> {
+                int dim = operand(type, 3);
+                boolean storage = operand(type, 7) == 2;
+                if (dim == DIM_SUBPASS_DATA)
+                    yield VK13.VK_DESCRIPTOR_TYPE_INPUT_ATTACHMENT;
+                if (dim == DIM_BUFFER)
+                    yield storage ? VK13.VK_DESCRIPTOR_TYPE_STORAGE_TEXEL_BUFFER : VK13.VK_DESCRIPTOR_TYPE_UNIFORM_TEXEL_BUFFER;
+                yield storage ? VK13.VK_DESCRIPTOR_TYPE_STORAGE_IMAGE : VK13.VK_DESCRIPTOR_TYPE_SAMPLED_IMAGE;
+            }
+            case OP_TYPE_STRUCT -> storageClass == STORAGE_STORAGE_BUFFER || bufferBlock[type]
+                    ? VK13.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER
+                    : VK13.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER;
+            default -> -1;
+        };
+    }
+
+    private PersistentHashMap pushConstant(int struct) {
+        int count = (words.get(definition[struct]) >>> 16) - 2;
+        int start = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++)
+            start = Math.min(start, memberOffsets.getOrDefault(memberKey(struct, i), 0));
+        return (PersistentHashMap) typed(PersistentHashMap.create(
+                modeKW, pushConstantKW,
+                nameKW, names[struct],
+                offsetKW, start,
+                sizeKW, sizeof(struct, -1) - start), struct)
+                .assoc(typeKW, unknownKW);
+    }
+
+    /**
+     * Size of a type in an explicitly laid out block, from its Offset, ArrayStride and MatrixStride
+     * decorations.
+     */
+    private int sizeof(int type, int matrixStride) {
+        return switch (opcode(type)) {
+            case OP_TYPE_BOOL -> 4;
+            case OP_TYPE_INT, OP_TYPE_FLOAT -> operand(type, 2) / 8;
+            case OP_TYPE_VECTOR -> operand(type, 3) * sizeof(operand(type, 2), -1);
+            case OP_TYPE_MATRIX -> operand(type, 3) * (matrixStride > 0 ? matrixStride : sizeof(operand(type, 2), -1));
+            case OP_TYPE_ARRAY -> constant(operand(type, 3))
+                    * (arrayStride[type] > 0 ? arrayStride[type] : sizeof(operand(type, 2), matrixStride));
+            case OP_TYPE_STRUCT -> {
+                int count = (words.get(definition[type]) >>> 16) - 2;
+                int end = 0;
+                for (int i = 0; i < count; i++) {
+                    long key = memberKey(type, i);
+                    end = Math.max(end, memberOffsets.getOrDefault(key, 0)
+                            + sizeof(operand(type, 2 + i), memberMatrixStrides.getOrDefault(key, -1)));
+                }
+                yield end;
+            }
+            default -> 0;
+        };
+    }
+
+    private String typeName(int type) {
+        return switch (opcode(type)) {
+            case OP_TYPE_BOOL -> "bool";
+            case OP_TYPE_INT -> {
+                boolean signed = operand(type, 3) != 0;
+                if (operand(type, 2) == 64)
+                    yield signed ? "int64_t" : "uint64_t";
+                yield signed ? "int" : "uint";
+            }
+            case OP_TYPE_FLOAT -> switch (operand(type, 2)) {
+                case 64 -> "double";
+                case 16 -> "float16_t";
+                default -> "float";
+            };
+            case OP_TYPE_VECTOR -> vectorPrefix(operand(type, 2)) + "vec" + operand(type, 3);
+            case OP_TYPE_MATRIX -> {
+                int column = operand(type, 2);
+                int columns = operand(type, 3);
+                int rows = operand(column, 3);
+                String prefix = vectorPrefix(operand(column, 2));
+                yield prefix + "mat" + (columns == rows ? String.valueOf(columns) : columns + "x" + rows);
+            }
+            case OP_TYPE_STRUCT -> names[type];
+            case OP_TYPE_SAMPLER -> "sampler";
+            case OP_TYPE_SAMPLED_IMAGE -> imageName("sampler", operand(type, 2));
+            case OP_TYPE_IMAGE -> operand(type, 3) == DIM_SUBPASS_DATA
+                    ? "subpassInput"
+                    : imageName(operand(type, 7) == 2 ? "image" : "texture", type);
+            default -> "unknown";
+        };
+    }
+
+    private String vectorPrefix(int component) {
+        return switch (opcode(component)) {
+            case OP_TYPE_BOOL -> "b";
+            case OP_TYPE_INT -> operand(component, 3) != 0 ? "i" : "u";
+            case OP_TYPE_FLOAT -> operand(component, 2) == 64 ? "d" : "";
+            default -> "";
+        };
+    }
+
+    private String imageName(String kind, int image) {
+        int dim = operand(image, 3);
+        return kind + (dim < DIM_NAMES.length ? DIM_NAMES[dim] : "")
+               + (operand(image, 6) != 0 ? "MS" : "")
+               + (operand(image, 5) != 0 ? "Array" : "")
+               + (operand(image, 4) == 1 && kind.equals("sampler") ? "Shadow" : "");
+    }
+}
@@ -17,8 +17,12 @@ public class UniformBufferObject {
     }
 
     public void copyInfoByteBuffer(ByteBuffer buf) {
-        model.get(buf);
-        view.get(sizeOfMatrix4f, buf);
-        projection.get(2 * sizeOfMatrix4f, buf);
+        copyInfoByteBuffer(buf.position(), buf);
+    }
+
+    public void copyInfoByteBuffer(int index, ByteBuffer buf) {
+        model.get(index, buf);
+        view.get(index + sizeOfMatrix4f, buf);
+        projection.get(index + 2 * sizeOfMatrix4f, buf);
     }
 }
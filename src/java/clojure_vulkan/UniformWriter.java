@@ -0,0 +1,288 @@
+package clojure_vulkan;
+
+import clojure.lang.Keyword;
+import clojure_vulkan.math.GLSL;
+import org.joml.*;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the fields of one uniform block, described by {@link ShaderAnalyzer}, through a table of byte
+ * offsets computed once for the block's memory layout. Fields are resolved to int handles with
+ * {@link #field(String)} up front, so the put methods neither allocate nor look anything up.
+ * <p>
+ * Every put comes in two forms: into a ByteBuffer at {@code base + offset} (absolute, the position is
+ * untouched) and to a raw {@code address + offset} of mapped memory.
+ */
+public class UniformWriter {
+    private static final Keyword
+            NAME_KW = Keyword.intern("name"),
+            TYPE_KW = Keyword.intern("type"),
+            ARRAY_SIZE_KW = Keyword.intern("array-size"),
+            MEMBERS_KW = Keyword.intern("members");
+
+    private final GLSL.GLSLStruct block;
+    private final GLSL.MemoryLayout layout;
+    private final ArrayList<String> paths = new ArrayList<>();
+    private int[] offsets = new int[8];
+    private GLSL.GLSLType[] types = new GLSL.GLSLType[8];
+
+    public UniformWriter(GLSL.GLSLStruct block, GLSL.MemoryLayout layout) {
+        this.block = block;
+        this.layout = layout;
+    }
+
+    /**
+     * @param blockDescription an analyzed uniform block: a map with {@code :name} and {@code :members}
+     */
+    public static UniformWriter create(Map<?, ?> blockDescription, GLSL.MemoryLayout layout) {
+        return new UniformWriter(struct(blockDescription), layout);
+    }
+
+    public static UniformWriter create(Map<?, ?> blockDescription) {
+        return create(blockDescription, GLSL.MemoryLayout.STD140);
+    }
+
+    static GLSL.GLSLStruct struct(Map<?, ?> description) {
+        Object members = description.get(MEMBERS_KW);
+        if (!(members instanceof List<?> memberList))
+            throw new RuntimeException("Not a uniform block or struct: " + description);
+        ArrayList<GLSL.Member> glslMembers = new ArrayList<>(memberList.size());
+        for (Object o : memberList) {
+            Map<?, ?> member = (Map<?, ?>) o;
+            GLSL.GLSLType type = member.containsKey(MEMBERS_KW)
+                    ? struct(member)
+                    : GLSL.type(((Keyword) member.get(TYPE_KW)).getName());
+            Object arraySize = member.get(ARRAY_SIZE_KW);
+            if (arraySize != null)
+                type = GLSL.array(type, ((Number) arraySize).intValue());
+            glslMembers.add(GLSL.member((String) member.get(NAME_KW), type));
+        }
+        Object type = description.get(TYPE_KW);
+        String name = type instanceof Keyword kw && !kw.getName().equals("unknown")
+                ? kw.getName()
+                : (String) description.get(NAME_KW);
+        return GLSL.struct(name, glslMembers);
+    }
+
+    public GLSL.GLSLStruct block() {
+        return block;
+    }
+
+    public GLSL.MemoryLayout layout() {
+        return layout;
+    }
+
+    public int size() {
+        return block.sizeof(layout);
+    }
+
+    /**
+     * Resolves a path like {@code "model"}, {@code "weights[3]"} or {@code "lights[1].position"} to a handle
+     * for the put methods. Resolving the same path twice returns the same handle.
+     */
+    public int field(String path) {
+        int existing = paths.indexOf(path);
+        if (existing >= 0)
+            return existing;
+        GLSL.GLSLType type = block;
+        int offset = 0;
+        int i = 0;
+        while (i < path.length()) {
+            char ch = path.charAt(i);
+            if (ch == '[') {
+                int end = path.indexOf(']', i);
+                if (!(type instanceof GLSL.GLSLArray array) || end < 0)
+                    throw new RuntimeException("Cannot index " + type + " in uniform path: " + path);
+                int index = Integer.parseInt(path.substring(i + 1, end));
+                if (index < 0 || index >= array.length())
+                    throw new RuntimeException("Index " + index + " out of bounds for " + array + " in uniform path: " + path);
+                offset += index * array.stride(layout);
+                type = array.element();
+                i = end + 1;
+            } else {
+                if (ch == '.')
+                    i++;
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[')
+                    end++;
+                if (!(type instanceof GLSL.GLSLStruct struct))
+                    throw new RuntimeException(type + " has no members, in uniform path: " + path);
+                GLSL.BlockLayout structLayout = struct.layout(layout);
+                String name = path.substring(i, end);
+                int member = indexOf(structLayout, name, path);
+                offset += structLayout.offset(member);
+                type = structLayout.member(member).type();
+                i = end;
+            }
+        }
+        int handle = paths.size();
+        if (handle == offsets.length) {
+            offsets = Arrays.copyOf(offsets, handle * 2);
+            types = Arrays.copyOf(types, handle * 2);
+        }
+        paths.add(path);
+        offsets[handle] = offset;
+        types[handle] = type;
+        return handle;
+    }
+
+    private static int indexOf(GLSL.BlockLayout structLayout, String name, String path) {
+        for (int i = 0; i < structLayout.memberCount(); i++)
+            if (structLayout.member(i).name().equals(name))
+                return i;
+        throw new RuntimeException("No uniform member " + name + " in uniform path: " + path);
+    }
+
+    public int offset(int field) {
+        return offsets[field];
+    }
+
+    public GLSL.GLSLType type(int field) {
+        return types[field];
+    }
+
+    private int checked(int field, GLSL.GLSLType expected) {
+        if (types[field] != expected)
+            throw new IllegalArgumentException("Uniform " + paths.get(field) + " is a " + types[field] + ", not a " + expected + ".");
+        return offsets[field];
+    }
+
+    private static final GLSL.GLSLType
+            VEC2 = GLSL.type("vec2"),
+            VEC3 = GLSL.type("vec3"),
+            VEC4 = GLSL.type("vec4"),
+            MAT3 = GLSL.type("mat3"),
+            MAT4 = GLSL.type("mat4");
+
+    // ByteBuffer variants
+
+    public void putFloat(ByteBuffer buf, int base, int field, float value) {
+        buf.putFloat(base + checked(field, GLSL.FLOAT), value);
+    }
+
+    public void putInt(ByteBuffer buf, int base, int field, int value) {
+        if (types[field] != GLSL.UINT)
+            checked(field, GLSL.INT);
+        buf.putInt(base + offsets[field], value);
+    }
+
+    public void putBool(ByteBuffer buf, int base, int field, boolean value) {
+        buf.putInt(base + checked(field, GLSL.BOOL), value ? 1 : 0);
+    }
+
+    public void put(ByteBuffer buf, int base, int field, Vector2fc value) {
+        value.get(base + checked(field, VEC2), buf);
+    }
+
+    public void put(ByteBuffer buf, int base, int field, Vector3fc value) {
+        value.get(base + checked(field, VEC3), buf);
+    }
+
+    public void put(ByteBuffer buf, int base, int field, Vector4fc value) {
+        value.get(base + checked(field, VEC4), buf);
+    }
+
+    public void put(ByteBuffer buf, int base, int field, Matrix3fc value) {
+        // columns are vec3s with a stride of 16 in both layouts; Matrix3fc.get3x4 is not used, it writes
+        // wrong values to direct buffers in JOML 1.10
+        int at = base + checked(field, MAT3);
+        for (int column = 0; column < 3; column++, at += 16) {
+            buf.putFloat(at, value.get(column, 0));
+            buf.putFloat(at + 4, value.get(column, 1));
+            buf.putFloat(at + 8, value.get(column, 2));
+        }
+    }
+
+    public void put(ByteBuffer buf, int base, int field, Matrix4fc value) {
+        value.get(base + checked(field, MAT4), buf);
+    }
+
+    /**
+     * Writes the leading elements of a float, vec2, vec3 or vec4 array field, honoring the array stride.
+     * {@code values} holds the elements' components tightly packed.
+     */
+    public void putFloats(ByteBuffer buf, int base, int field, float[] values) {
+        GLSL.GLSLArray array = array(field);
+        int components = checkedLength(field, array, values);
+        int stride = array.stride(layout);
+        int at = base + offsets[field];
+        for (int i = 0; i < values.length; i += components, at += stride)
+            for (int c = 0; c < components; c++)
+                buf.putFloat(at + c * Float.BYTES, values[i + c]);
+    }
+
+    // address variants
+
+    public void putFloat(long address, int field, float value) {
+        MemoryUtil.memPutFloat(address + checked(field, GLSL.FLOAT), value);
+    }
+
+    public void putInt(long address, int field, int value) {
+        if (types[field] != GLSL.UINT)
+            checked(field, GLSL.INT);
+        MemoryUtil.memPutInt(address + offsets[field], value);
+    }
+
+    public void putBool(long address, int field, boolean value) {
+        MemoryUtil.memPutInt(address + checked(field, GLSL.BOOL), value ? 1 : 0);
+    }
+
+    public void put(long address, int field, Vector2fc value) {
+        value.getToAddress(address + checked(field, VEC2));
+    }
+
+    public void put(long address, int field, Vector3fc value) {
+        value.getToAddress(address + checked(field, VEC3));
+    }
+
+    public void put(long address, int field, Vector4fc value) {
+        value.getToAddress(address + checked(field, VEC4));
+    }
+
+    public void put(long address, int field, Matrix3fc value) {
+        long at = address + checked(field, MAT3);
+        for (int column = 0; column < 3; column++, at += 16) {
+            MemoryUtil.memPutFloat(at, value.get(column, 0));
+            MemoryUtil.memPutFloat(at + 4, value.get(column, 1));
+            MemoryUtil.memPutFloat(at + 8, value.get(column, 2));
+        }
+    }
+
+    public void put(long address, int field, Matrix4fc value) {
+        value.getToAddress(address + checked(field, MAT4));
+    }
+
+    public void putFloats(long address, int field, float[] values) {
+        GLSL.GLSLArray array = array(field);
+        int components = checkedLength(field, array, values);
+        int stride = array.stride(layout);
+        long at = address + offsets[field];
+        for (int i = 0; i < values.length; i += components, at += stride)
+            for (int c = 0; c < components; c++)
+                MemoryUtil.memPutFloat(at + (long) c * Float.BYTES, values[i + c]);
+    }
+
+    /**
+     * The components per element, once the values are known to be whole elements which fit into the array.
+     */
+    private int checkedLength(int field, GLSL.GLSLArray array, float[] values) {
+        int components = array.element().componentsCount();
+        if (values.length % components != 0 || values.length > array.length() * components)
+            throw new IllegalArgumentException("Uniform " + paths.get(field) + " is a " + types[field]
+                    + ", which doesn't take " + values.length + " floats.");
+        return components;
+    }
+
+    private GLSL.GLSLArray array(int field) {
+        if (!(types[field] instanceof GLSL.GLSLArray array) || array.element().componentSizeof() != Float.BYTES
+                || !(array.element() instanceof GLSL.GLSLScalar || array.element() instanceof GLSL.GLSLVector))
+            throw new IllegalArgumentException("Uniform " + paths.get(field) + " is a " + types[field] + ", not a float or vector array.");
+        return array;
+    }
+}
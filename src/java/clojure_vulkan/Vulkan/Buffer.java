@@ -1,22 +1,64 @@
 package clojure_vulkan.Vulkan;
 
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.system.NativeResource;
 import org.lwjgl.vulkan.VK13;
 import org.lwjgl.vulkan.VkBufferCreateInfo;
 
+import java.nio.ByteBuffer;
+
 public class Buffer implements NativeResource {
     public Buffer() {
     }
 
     private long bufferPtr;
-    private long bufferMemoryPtr;
+    private DeviceMemoryAllocator.Allocation allocation;
     private VkBufferCreateInfo bufferCreateInfo;
+    private long mappedAddress = 0L;
+    private ByteBuffer mappedByteBuffer;
+    private RingAllocator ring;
 
     @Override
     public void free() {
+        ResourceRegistry.unregister(this);
         bufferCreateInfo = null;
         VK13.vkDestroyBuffer(VulkanGlobals.getLogicalDevice(), bufferPtr, null);
-        VK13.vkFreeMemory(VulkanGlobals.getLogicalDevice(), bufferMemoryPtr, null);
+        bufferPtr = 0L;
+        mappedAddress = 0L;
+        mappedByteBuffer = null;
+        ring = null;
+        if (allocation != null) {
+            VulkanGlobals.MEMORY_ALLOCATOR.free(allocation);
+            allocation = null;
+        }
+    }
+
+    /**
+     * Maps the buffer memory on the first call and keeps it mapped until the buffer is freed.
+     */
+    public long map() {
+        if (mappedAddress == 0L) {
+            mappedAddress = VulkanGlobals.MEMORY_ALLOCATOR.map(allocation);
+            mappedByteBuffer = MemoryUtil.memByteBuffer(mappedAddress, (int) allocation.size());
+        }
+        return mappedAddress;
+    }
+
+    public long mappedAddress() {
+        return map();
+    }
+
+    public ByteBuffer mappedByteBuffer() {
+        map();
+        return mappedByteBuffer;
+    }
+
+    public RingAllocator ring() {
+        return ring;
+    }
+
+    public void ring(RingAllocator ring) {
+        this.ring = ring;
     }
 
     public long bufferPointer() {
@@ -27,12 +69,24 @@ public class Buffer implements NativeResource {
         bufferPtr = ptr;
     }
 
+    public DeviceMemoryAllocator.Allocation allocation() {
+        return allocation;
+    }
+
+    public void allocation(DeviceMemoryAllocator.Allocation allocation) {
+        this.allocation = allocation;
+    }
+
     public long bufferMemoryPointer() {
-        return bufferMemoryPtr;
+        return allocation.memory();
+    }
+
+    public long memoryOffset() {
+        return allocation.offset();
     }
 
-    public void bufferMemoryPointer(long ptr) {
-        bufferMemoryPtr = ptr;
+    public long memorySize() {
+        return allocation.size();
     }
 
     public VkBufferCreateInfo bufferCreateInfo() {
@@ -0,0 +1,453 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.NativeResource;
+import org.lwjgl.vulkan.VK13;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reserves large blocks of device memory per memory type and hands out aligned sub-ranges of them
+ * with a buddy allocator. Every range is aligned to its own (power of two) size, which covers any
+ * Vulkan alignment requirement up to that size. Requests larger than half a block get a dedicated block.
+ * <p>
+ * Linear (buffers) and optimal (images) resources are kept in separate blocks whenever
+ * {@code bufferImageGranularity} is larger than the smallest range, so they never share a granularity page.
+ */
+public class DeviceMemoryAllocator implements NativeResource {
+    /**
+     * The device side of the allocator, {@link VulkanDeviceMemory} in the application and a fake in tests.
+     */
+    public interface DeviceMemory {
+        long allocate(int memoryTypeIndex, long size);
+
+        void free(long memory);
+
+        long map(long memory);
+
+        void unmap(long memory);
+    }
+
+    /**
+     * Copies the contents of a resource into its new range and rebinds it, see {@link #defragment(Mover)}.
+     * Returning false keeps the resource where it is.
+     */
+    public interface Mover {
+        boolean move(Allocation from, Allocation to);
+    }
+
+    public static class VulkanDeviceMemory implements DeviceMemory {
+        @Override
+        public long allocate(int memoryTypeIndex, long size) {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                VkMemoryAllocateInfo memoryAllocateInfo = VkMemoryAllocateInfo.calloc(stack)
+                        .sType(VK13.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
+                        .allocationSize(size)
+                        .memoryTypeIndex(memoryTypeIndex);
+                LongBuffer memoryPtr = stack.mallocLong(1);
+                if (VK13.vkAllocateMemory(VulkanGlobals.getLogicalDevice(), memoryAllocateInfo, null, memoryPtr) != VK13.VK_SUCCESS)
+                    throw new RuntimeException("Failed to allocate " + size + " bytes of device memory.");
+                return memoryPtr.get(0);
+            }
+        }
+
+        @Override
+        public void free(long memory) {
+            VK13.vkFreeMemory(VulkanGlobals.getLogicalDevice(), memory, null);
+        }
+
+        @Override
+        public long map(long memory) {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                PointerBuffer dataPtr = stack.mallocPointer(1);
+                if (VK13.vkMapMemory(VulkanGlobals.getLogicalDevice(), memory, 0, VK13.VK_WHOLE_SIZE, 0, dataPtr) != VK13.VK_SUCCESS)
+                    throw new RuntimeException("Failed to map device memory.");
+                return dataPtr.get(0);
+            }
+        }
+
+        @Override
+        public void unmap(long memory) {
+            VK13.vkUnmapMemory(VulkanGlobals.getLogicalDevice(), memory);
+        }
+    }
+
+    public static final class Block {
+        private final int memoryTypeIndex;
+        private final int poolKey;
+        private final long memory;
+        private final long size;
+        private final long minAllocationSize;
+        private final int maxOrder;
+        /**
+         * Buddy tree in heap order: the largest free order in the subtree of each node plus one, 0 when full.
+         */
+        private final byte[] longest;
+        private final ArrayList<Allocation> allocations = new ArrayList<>();
+        private long usedBytes = 0;
+        private long mappedAddress = 0L;
+        private int mapCount = 0;
+
+        private Block(int memoryTypeIndex, int poolKey, long memory, long size, long minAllocationSize, boolean dedicated) {
+            this.memoryTypeIndex = memoryTypeIndex;
+            this.poolKey = poolKey;
+            this.memory = memory;
+            this.size = size;
+            this.minAllocationSize = minAllocationSize;
+            if (dedicated) {
+                maxOrder = -1;
+                longest = null;
+            } else {
+                maxOrder = ceilLog2(size / minAllocationSize);
+                longest = new byte[(2 << maxOrder) - 1];
+                for (int depth = 0; depth <= maxOrder; depth++)
+                    for (int n = (1 << depth) - 1; n < (2 << depth) - 1; n++)
+                        longest[n] = (byte) (maxOrder - depth + 1);
+            }
+        }
+
+        public long memory() {
+            return memory;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public int memoryTypeIndex() {
+            return memoryTypeIndex;
+        }
+
+        public long usedBytes() {
+            return usedBytes;
+        }
+
+        public int allocationCount() {
+            return allocations.size();
+        }
+
+        public boolean isDedicated() {
+            return longest == null;
+        }
+
+        public boolean isEmpty() {
+            return allocations.isEmpty();
+        }
+
+        public boolean isMapped() {
+            return mapCount > 0;
+        }
+
+        private long allocate(int order) {
+            if (isDedicated() || order > maxOrder || longest[0] < order + 1)
+                return -1;
+            int n = 0;
+            for (int nodeOrder = maxOrder; nodeOrder != order; nodeOrder--) {
+                int left = 2 * n + 1, right = left + 1;
+                boolean leftFits = longest[left] >= order + 1, rightFits = longest[right] >= order + 1;
+                // best fit: descend into the tighter subtree to keep large runs intact
+                n = leftFits && (!rightFits || longest[left] <= longest[right]) ? left : right;
+            }
+            longest[n] = 0;
+            long offset = (n - ((1L << (maxOrder - order)) - 1)) * (minAllocationSize << order);
+            updateParents(n, order);
+            usedBytes += minAllocationSize << order;
+            return offset;
+        }
+
+        private void release(long offset, int order) {
+            if (isDedicated()) {
+                usedBytes = 0;
+                return;
+            }
+            int n = (int) ((1L << (maxOrder - order)) - 1 + offset / (minAllocationSize << order));
+            longest[n] = (byte) (order + 1);
+            updateParents(n, order);
+            usedBytes -= minAllocationSize << order;
+        }
+
+        private void updateParents(int n, int order) {
+            for (int nodeOrder = order + 1; n > 0; nodeOrder++) {
+                n = (n - 1) / 2;
+                byte left = longest[2 * n + 1], right = longest[2 * n + 2];
+                longest[n] = left == nodeOrder && right == nodeOrder ?
+                        (byte) (nodeOrder + 1) :
+                        (byte) Math.max(left, right);
+            }
+        }
+    }
+
+    public static final class Allocation {
+        private Block block;
+        private long offset;
+        private final long size;
+        private final int order;
+        private boolean mapped = false;
+
+        private Allocation(Block block, long offset, long size, int order) {
+            this.block = block;
+            this.offset = offset;
+            this.size = size;
+            this.order = order;
+        }
+
+        public Block block() {
+            return block;
+        }
+
+        public long memory() {
+            return block.memory;
+        }
+
+        public long offset() {
+            return offset;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public boolean isDedicated() {
+            return block.isDedicated();
+        }
+
+        public boolean isMapped() {
+            return mapped;
+        }
+    }
+
+    public static final long DEFAULT_BLOCK_SIZE = 64L << 20;
+    public static final long DEFAULT_MIN_ALLOCATION_SIZE = 256L;
+
+    private final DeviceMemory deviceMemory;
+    private final long blockSize;
+    private final long minAllocationSize;
+    private long bufferImageGranularity = 1L;
+    private final HashMap<Integer, ArrayList<Block>> pools = new HashMap<>();
+
+    public DeviceMemoryAllocator(DeviceMemory deviceMemory) {
+        this(deviceMemory, DEFAULT_BLOCK_SIZE, DEFAULT_MIN_ALLOCATION_SIZE);
+    }
+
+    public DeviceMemoryAllocator(DeviceMemory deviceMemory, long blockSize, long minAllocationSize) {
+        if (Long.bitCount(minAllocationSize) != 1 || blockSize < minAllocationSize)
+            throw new IllegalArgumentException("Minimal allocation size must be a power of two not larger than the block size.");
+        this.deviceMemory = deviceMemory;
+        this.blockSize = minAllocationSize << ceilLog2(blockSize / minAllocationSize);
+        this.minAllocationSize = minAllocationSize;
+    }
+
+    static int ceilLog2(long n) {
+        return n <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(n - 1);
+    }
+
+    public long blockSize() {
+        return blockSize;
+    }
+
+    public long bufferImageGranularity() {
+        return bufferImageGranularity;
+    }
+
+    public synchronized void bufferImageGranularity(long granularity) {
+        if (!pools.isEmpty())
+            throw new IllegalStateException("Cannot change bufferImageGranularity after memory has been allocated.");
+        bufferImageGranularity = Math.max(1L, granularity);
+    }
+
+    private int poolKey(int memoryTypeIndex, boolean optimalTiling) {
+        return bufferImageGranularity > minAllocationSize && optimalTiling ?
+                2 * memoryTypeIndex + 1 :
+                2 * memoryTypeIndex;
+    }
+
+    private int order(long size, long alignment) {
+        long units = (Math.max(size, alignment) + minAllocationSize - 1) / minAllocationSize;
+        return ceilLog2(units);
+    }
+
+    /**
+     * @param optimalTiling true for images with optimal tiling, false for buffers and linear images
+     */
+    public synchronized Allocation allocate(long size, long alignment, int memoryTypeIndex, boolean optimalTiling) {
+        if (size <= 0)
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes of device memory.");
+        if (alignment <= 0 || Long.bitCount(alignment) != 1)
+            throw new IllegalArgumentException("Alignment must be a power of two, got: " + alignment);
+        int poolKey = poolKey(memoryTypeIndex, optimalTiling);
+        ArrayList<Block> pool = pools.computeIfAbsent(poolKey, k -> new ArrayList<>());
+        int order = order(size, alignment);
+        if ((minAllocationSize << order) > blockSize / 2) {
+            Block dedicated = new Block(memoryTypeIndex, poolKey, deviceMemory.allocate(memoryTypeIndex, size), size,
+                    minAllocationSize, true);
+            pool.add(dedicated);
+            dedicated.usedBytes = size;
+            return addAllocation(dedicated, 0, size, -1);
+        }
+        for (Block block : pool) {
+            long offset = block.allocate(order);
+            if (offset >= 0)
+                return addAllocation(block, offset, size, order);
+        }
+        Block block = new Block(memoryTypeIndex, poolKey, deviceMemory.allocate(memoryTypeIndex, blockSize), blockSize,
+                minAllocationSize, false);
+        pool.add(block);
+        return addAllocation(block, block.allocate(order), size, order);
+    }
+
+    private static Allocation addAllocation(Block block, long offset, long size, int order) {
+        Allocation allocation = new Allocation(block, offset, size, order);
+        block.allocations.add(allocation);
+        return allocation;
+    }
+
+    /**
+     * Maps the whole block the allocation lives in (only the first mapping of a block reaches the driver,
+     * a block can be mapped only once at a time) and returns the host address of the allocation.
+     */
+    public synchronized long map(Allocation allocation) {
+        if (allocation.mapped)
+            return allocation.block.mappedAddress + allocation.offset;
+        Block block = allocation.block;
+        if (block.mapCount == 0)
+            block.mappedAddress = deviceMemory.map(block.memory);
+        block.mapCount++;
+        allocation.mapped = true;
+        return block.mappedAddress + allocation.offset;
+    }
+
+    public synchronized void unmap(Allocation allocation) {
+        if (!allocation.mapped)
+            return;
+        allocation.mapped = false;
+        Block block = allocation.block;
+        if (--block.mapCount == 0) {
+            deviceMemory.unmap(block.memory);
+            block.mappedAddress = 0L;
+        }
+    }
+
+    public synchronized void free(Allocation allocation) {
+        Block block = allocation.block;
+        if (!block.allocations.remove(allocation))
+            throw new IllegalStateException("Allocation at offset " + allocation.offset + " was already freed.");
+        unmap(allocation);
+        block.release(allocation.offset, allocation.order);
+        if (!block.isEmpty())
+            return;
+        ArrayList<Block> pool = pools.get(block.poolKey);
+        // keep a single empty block around so that an allocate/free pattern does not hit the driver every time
+        boolean otherEmptyBlock = false;
+        for (Block b : pool)
+            if (b != block && !b.isDedicated() && b.isEmpty()) {
+                otherEmptyBlock = true;
+                break;
+            }
+        if (block.isDedicated() || otherEmptyBlock)
+            releaseBlock(pool, block);
+    }
+
+    private void releaseBlock(List<Block> pool, Block block) {
+        pool.remove(block);
+        if (block.isMapped())
+            deviceMemory.unmap(block.memory);
+        deviceMemory.free(block.memory);
+        if (pool.isEmpty())
+            pools.remove(block.poolKey);
+    }
+
+    /**
+     * Moves allocations out of the least used blocks into fuller ones of the same pool and releases the
+     * blocks that end up empty. Vulkan resources cannot be rebound, so the mover has to recreate the resource
+     * at the new range and copy its contents; an allocation keeps its identity and only its (block, offset)
+     * changes. Mapped allocations are never moved.
+     *
+     * @return the number of moved allocations
+     */
+    public synchronized int defragment(Mover mover) {
+        int moves = 0;
+        for (ArrayList<Block> pool : new ArrayList<>(pools.values())) {
+            ArrayList<Block> blocks = new ArrayList<>();
+            for (Block block : pool)
+                if (!block.isDedicated())
+                    blocks.add(block);
+            blocks.sort(Comparator.comparingLong(Block::usedBytes));
+            for (int i = 0; i < blocks.size(); i++) {
+                Block source = blocks.get(i);
+                for (Allocation allocation : new ArrayList<>(source.allocations)) {
+                    if (allocation.mapped)
+                        continue;
+                    for (int j = blocks.size() - 1; j > i; j--) {
+                        Block destination = blocks.get(j);
+                        long offset = destination.allocate(allocation.order);
+                        if (offset < 0)
+                            continue;
+                        Allocation target = new Allocation(destination, offset, allocation.size, allocation.order);
+                        if (mover.move(allocation, target)) {
+                            source.allocations.remove(allocation);
+                            source.release(allocation.offset, allocation.order);
+                            allocation.block = destination;
+                            allocation.offset = offset;
+                            destination.allocations.add(allocation);
+                            moves++;
+                        } else {
+                            destination.release(offset, allocation.order);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        releaseEmptyBlocks();
+        return moves;
+    }
+
+    public synchronized void releaseEmptyBlocks() {
+        for (ArrayList<Block> pool : new ArrayList<>(pools.values()))
+            for (Block block : new ArrayList<>(pool))
+                if (block.isEmpty())
+                    releaseBlock(pool, block);
+    }
+
+    public synchronized int blockCount() {
+        int count = 0;
+        for (ArrayList<Block> pool : pools.values())
+            count += pool.size();
+        return count;
+    }
+
+    public synchronized long reservedBytes() {
+        long bytes = 0;
+        for (ArrayList<Block> pool : pools.values())
+            for (Block block : pool)
+                bytes += block.size;
+        return bytes;
+    }
+
+    public synchronized long usedBytes() {
+        long bytes = 0;
+        for (ArrayList<Block> pool : pools.values())
+            for (Block block : pool)
+                bytes += block.usedBytes;
+        return bytes;
+    }
+
+    @Override
+    public synchronized void free() {
+        for (Iterator<ArrayList<Block>> it = pools.values().iterator(); it.hasNext(); ) {
+            for (Block block : it.next()) {
+                if (block.isMapped())
+                    deviceMemory.unmap(block.memory);
+                deviceMemory.free(block.memory);
+            }
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+/**
+ * Collects a frame's draw list as {@code VkDrawIndexedIndirectCommand}s in off-heap memory laid out like a frame
+ * slot's mapped indirect buffer, and writes it there with one bulk copy per index width. The buffer holds the draws of meshes with 16-bit indices first and those with 32-bit
+ * indices after them, {@code capacity} commands each. The recorded indirect draws may cover more commands than a
+ * list has, so the commands a shorter list leaves over from the slot's previous one are zeroed into empty draws.
+ * <p>
+ * With multiDrawIndirect one recorded draw covers the whole capacity. Without it, every command is a draw call of its
+ * own, so only the {@link #recorded(int)} ones are recorded, which {@link #cover()} grows with the lists.
+ */
+public class DrawBatcher implements NativeResource {
+    /**
+     * indexCount, instanceCount, firstIndex, vertexOffset, firstInstance
+     */
+    public static final int COMMAND_INTS = 5;
+    public static final int COMMAND_BYTES = COMMAND_INTS * Integer.BYTES;
+
+    private final int capacity;
+    private final long commands;
+    private final int[][] written = new int[2][Frame.MAX_FRAMES_IN_FLIGHT];
+    private final int[] counts = new int[2];
+    private final int[] recorded = new int[2];
+
+    public DrawBatcher(int capacity) {
+        this.capacity = capacity;
+        this.commands = MemoryUtil.nmemAlloc(2 * wideOffset());
+        if (commands == MemoryUtil.NULL)
+            throw new RuntimeException("Failed to allocate a draw list of " + capacity + " draws.");
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int count() {
+        return counts[0] + counts[1];
+    }
+
+    /**
+     * The byte offset of the commands of meshes with 32-bit indices in the indirect buffer.
+     */
+    public long wideOffset() {
+        return (long) capacity * COMMAND_BYTES;
+    }
+
+    /**
+     * The commands of an index width covered by the recorded draws without multiDrawIndirect.
+     */
+    public int recorded(int width) {
+        return recorded[width];
+    }
+
+    /**
+     * Grows the recorded commands to cover the current list, to the next power of two so that a growing scene is
+     * rarely re-recorded. Returns true if they grew, and the command buffers must be re-recorded.
+     */
+    public boolean cover() {
+        boolean grown = false;
+        for (int width = 0; width < 2; width++) {
+            int count = counts[width];
+            if (count > recorded[width]) {
+                recorded[width] = Math.min(capacity, count == 1 ? 1 : Integer.highestOneBit(count - 1) << 1);
+                grown = true;
+            }
+        }
+        return grown;
+    }
+
+    public void clear() {
+        counts[0] = counts[1] = 0;
+    }
+
+    public void add(MeshRegistry.Mesh mesh, int instanceCount, int firstInstance) {
+        int width = mesh.wideIndices() ? 1 : 0;
+        if (counts[width] == capacity)
+            throw new RuntimeException("Draw list full: more than " + capacity + " draws.");
+        long command = commands + width * wideOffset() + (long) counts[width]++ * COMMAND_BYTES;
+        MemoryUtil.memPutInt(command, mesh.indexCount());
+        MemoryUtil.memPutInt(command + 4, instanceCount);
+        MemoryUtil.memPutInt(command + 8, mesh.firstIndex());
+        MemoryUtil.memPutInt(command + 12, mesh.vertexOffset());
+        MemoryUtil.memPutInt(command + 16, firstInstance);
+    }
+
+    public void add(MeshRegistry.Mesh mesh) {
+        add(mesh, 1, 0);
+    }
+
+    /**
+     * Writes the draw list to the slot's indirect buffer at {@code address}, which must hold twice the capacity.
+     */
+    public void write(int slot, long address) {
+        for (int width = 0; width < 2; width++) {
+            long list = address + width * wideOffset();
+            int count = counts[width];
+            MemoryUtil.memCopy(commands + width * wideOffset(), list, (long) count * COMMAND_BYTES);
+            int stale = written[width][slot] - count;
+            if (stale > 0)
+                MemoryUtil.memSet(list + (long) count * COMMAND_BYTES, 0, (long) stale * COMMAND_BYTES);
+            written[width][slot] = count;
+        }
+    }
+
+    @Override
+    public void free() {
+        MemoryUtil.nmemFree(commands);
+    }
+}
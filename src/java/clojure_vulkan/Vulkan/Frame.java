@@ -5,34 +5,65 @@ import clojure.lang.ISeq;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.vulkan.VK13;
 
-import java.util.Vector;
-
 public class Frame {
     public Frame() {
     }
 
-    public static final int MAX_FRAMES_IN_FLIGHT = 2;
-    public static Vector<Frame> FRAMES;
+    public static final int MIN_FRAMES_IN_FLIGHT = 1;
+    public static final int MAX_FRAMES_IN_FLIGHT = 3;
+    public static Frame[] FRAMES;
     public static boolean isFrameBufferResized = false;
+    private static int framesInFlight = 2;
     private static int currentFrameCounter = 0;
+    private static long frameNumber = 0L;
 
     private long imageAvailableSemaphorePointer;
     private long renderFinishedSemaphorePointer;
     private long inFlightFencePointer;
+    private final UniformScratch uniformScratch = new UniformScratch();
 
     public static long getCurrentFrameCounter() {
         return currentFrameCounter;
     }
 
+    public static int currentSlot() {
+        return currentFrameCounter;
+    }
+
+    public static int framesInFlight() {
+        return framesInFlight;
+    }
+
+    /**
+     * Fewer frames in flight lower the latency between input and display, more of them keep the GPU busy when
+     * the CPU's frame times vary. Only valid before the frames are created.
+     */
+    public static void setFramesInFlight(int count) {
+        if (count < MIN_FRAMES_IN_FLIGHT || count > MAX_FRAMES_IN_FLIGHT)
+            throw new RuntimeException("Frames in flight must be between " + MIN_FRAMES_IN_FLIGHT + " and "
+                    + MAX_FRAMES_IN_FLIGHT + ", got " + count + ".");
+        if (FRAMES != null)
+            throw new RuntimeException("Cannot change the frames in flight while the frames exist.");
+        framesInFlight = count;
+    }
+
+    /**
+     * Frames begun so far; unlike the frame counter it never wraps around.
+     */
+    public static long frameNumber() {
+        return frameNumber;
+    }
+
     public static Frame currentFrame() {
-        return FRAMES.elementAt(currentFrameCounter);
+        return FRAMES[currentFrameCounter];
     }
 
     public static void nextFrame() {
         double newTime = GLFW.glfwGetTime();
         VulkanGlobals.deltaTime = newTime - VulkanGlobals.oldTime;
         VulkanGlobals.oldTime = newTime;
-        currentFrameCounter = (currentFrameCounter + 1) % MAX_FRAMES_IN_FLIGHT;
+        currentFrameCounter = (currentFrameCounter + 1) % framesInFlight;
+        frameNumber++;
     }
 
     public long imageAvailableSemaphorePointer() {
@@ -61,10 +92,15 @@ public class Frame {
         inFlightFencePointer = ptr;
     }
 
+    public UniformScratch uniformScratch() {
+        return uniformScratch;
+    }
+
     public static void createFrames(IPersistentVector framesVec) {
-        Vector<Frame> temp = new Vector<>();
+        Frame[] temp = new Frame[framesVec.count()];
+        int i = 0;
         for (ISeq frames = framesVec.seq(); frames != null; frames = frames.next())
-            temp.add((Frame) frames.first());
+            temp[i++] = (Frame) frames.first();
         FRAMES = temp;
     }
 
@@ -77,8 +113,8 @@ public class Frame {
             VK13.vkDestroySemaphore(VulkanGlobals.getLogicalDevice(), f.imageAvailableSemaphorePointer, null);
             VK13.vkDestroySemaphore(VulkanGlobals.getLogicalDevice(), f.renderFinishedSemaphorePointer, null);
             VK13.vkDestroyFence(VulkanGlobals.getLogicalDevice(), f.inFlightFencePointer, null);
-            FRAMES = null;
-            currentFrameCounter = 0;
         }
+        FRAMES = null;
+        currentFrameCounter = 0;
     }
 }
@@ -0,0 +1,48 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.NativeResource;
+
+import java.util.function.IntFunction;
+
+/**
+ * One resource per frame slot, so the CPU only writes to the slot whose fence it has just waited on while the
+ * other frames in flight are still read by the GPU. Sized by {@link Frame#framesInFlight()} when filled.
+ */
+public class FrameRing<T> implements NativeResource {
+    private Object[] slots = new Object[0];
+
+    /**
+     * Frees the current resources and creates one per frame slot.
+     */
+    public void fill(IntFunction<T> create) {
+        free();
+        Object[] slots = new Object[Frame.framesInFlight()];
+        for (int slot = 0; slot < slots.length; slot++)
+            slots[slot] = create.apply(slot);
+        this.slots = slots;
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int slot) {
+        return (T) slots[slot];
+    }
+
+    public T current() {
+        return get(Frame.currentSlot());
+    }
+
+    /**
+     * Frees the resources which are native resources and empties the ring.
+     */
+    @Override
+    public void free() {
+        for (Object resource : slots)
+            if (resource instanceof NativeResource)
+                ((NativeResource) resource).free();
+        slots = new Object[0];
+    }
+}
@@ -0,0 +1,98 @@
+package clojure_vulkan.Vulkan;
+
+import clojure_vulkan.LogHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nanosecond histograms of the phases of {@code render/draw-frame} and of the interval between frames. Each
+ * {@link #lap(Phase)} records the time since the previous lap or {@link #beginFrame()}. While disabled, every call
+ * returns after reading one static field.
+ */
+public class FrameTimings {
+    public enum Phase {
+        WAIT_FOR_FENCE,
+        TEXTURES,
+        ACQUIRE_IMAGE,
+        UPDATE_UNIFORMS,
+        SUBMIT,
+        PRESENT,
+        /**
+         * From one {@link #beginFrame()} to the next, so including the work of the main loop between frames.
+         */
+        FRAME
+    }
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.SECONDS.toNanos(60);
+    private static final Phase[] PHASES = Phase.values();
+    private static final LogHistogram[] HISTOGRAMS = new LogHistogram[PHASES.length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++)
+            HISTOGRAMS[i] = new LogHistogram(HIGHEST_TRACKABLE);
+    }
+
+    private static boolean enabled = false;
+    private static long frameStart = 0L;
+    private static long lapStart = 0L;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        FrameTimings.enabled = enabled;
+        frameStart = 0L;
+    }
+
+    public static void beginFrame() {
+        if (!enabled)
+            return;
+        long now = System.nanoTime();
+        if (frameStart != 0L)
+            HISTOGRAMS[Phase.FRAME.ordinal()].record(now - frameStart);
+        frameStart = now;
+        lapStart = now;
+    }
+
+    public static void lap(Phase phase) {
+        if (!enabled)
+            return;
+        long now = System.nanoTime();
+        HISTOGRAMS[phase.ordinal()].record(now - lapStart);
+        lapStart = now;
+    }
+
+    public static LogHistogram histogram(Phase phase) {
+        return HISTOGRAMS[phase.ordinal()];
+    }
+
+    public static long percentile(Phase phase, double percentile) {
+        return histogram(phase).valueAtPercentile(percentile);
+    }
+
+    public static double fps() {
+        LogHistogram frames = histogram(Phase.FRAME);
+        return frames.total() == 0L ? 0.0 : frames.count() * 1e9 / frames.total();
+    }
+
+    public static void reset() {
+        for (LogHistogram histogram : HISTOGRAMS)
+            histogram.reset();
+        frameStart = 0L;
+    }
+
+    /**
+     * One line per phase with its count, p50, p99, p99.9 and max in milliseconds, and the average FPS.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-16s %8s %9s %9s %9s %9s%n", "phase [ms]", "count", "p50", "p99", "p99.9", "max"));
+        for (Phase phase : PHASES) {
+            LogHistogram histogram = histogram(phase);
+            report.append(String.format("%-16s %8d %9.3f %9.3f %9.3f %9.3f%n", phase, histogram.count(),
+                    histogram.valueAtPercentile(50) / 1e6, histogram.valueAtPercentile(99) / 1e6,
+                    histogram.valueAtPercentile(99.9) / 1e6, histogram.max() / 1e6));
+        }
+        return report.append(String.format("%.1f FPS", fps())).toString();
+    }
+}
@@ -0,0 +1,182 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.NativeResource;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places meshes into one shared vertex arena and two shared index arenas, one of 16-bit and one of 32-bit indices,
+ * counted in vertices and indices. A mesh is drawn from the arenas with its {@code firstIndex}, {@code vertexOffset}
+ * and {@code indexCount}, so any number of them can be drawn with one binding of each index arena. Removed meshes
+ * may still be drawn by the frames in flight, so the release of their ranges goes through
+ * {@link ResourceRegistry#destroyLater(NativeResource)}.
+ */
+public class MeshRegistry {
+    public static final class Mesh {
+        private final int firstIndex;
+        private final int vertexOffset;
+        private final int indexCount;
+        private final int vertexCount;
+        private final boolean wideIndices;
+
+        Mesh(int firstIndex, int vertexOffset, int indexCount, int vertexCount, boolean wideIndices) {
+            this.firstIndex = firstIndex;
+            this.vertexOffset = vertexOffset;
+            this.indexCount = indexCount;
+            this.vertexCount = vertexCount;
+            this.wideIndices = wideIndices;
+        }
+
+        public int firstIndex() {
+            return firstIndex;
+        }
+
+        public int vertexOffset() {
+            return vertexOffset;
+        }
+
+        public int indexCount() {
+            return indexCount;
+        }
+
+        public int vertexCount() {
+            return vertexCount;
+        }
+
+        /**
+         * Whether the indices are 32-bit ones in the wide index arena.
+         */
+        public boolean wideIndices() {
+            return wideIndices;
+        }
+    }
+
+    /**
+     * First-fit allocation of ranges, coalescing freed neighbours.
+     */
+    private static final class Ranges {
+        private final TreeMap<Long, Long> free = new TreeMap<>();
+        private long used;
+
+        Ranges(long capacity) {
+            if (capacity > 0)
+                free.put(0L, capacity);
+        }
+
+        long allocate(long size) {
+            for (Map.Entry<Long, Long> range : free.entrySet()) {
+                if (range.getValue() >= size) {
+                    long offset = range.getKey();
+                    free.remove(offset);
+                    if (range.getValue() > size)
+                        free.put(offset + size, range.getValue() - size);
+                    used += size;
+                    return offset;
+                }
+            }
+            return -1L;
+        }
+
+        void free(long offset, long size) {
+            used -= size;
+            Map.Entry<Long, Long> next = free.ceilingEntry(offset);
+            if (next != null && next.getKey() == offset + size) {
+                free.remove(next.getKey());
+                size += next.getValue();
+            }
+            Map.Entry<Long, Long> previous = free.floorEntry(offset);
+            if (previous != null && previous.getKey() + previous.getValue() == offset) {
+                offset = previous.getKey();
+                size += previous.getValue();
+            }
+            free.put(offset, size);
+        }
+    }
+
+    private final long vertexCapacity;
+    private final long indexCapacity;
+    private final long wideIndexCapacity;
+    private final Ranges vertices;
+    private final Ranges indices;
+    private final Ranges wideIndices;
+    private int meshCount;
+
+    public MeshRegistry(long vertexCapacity, long indexCapacity) {
+        this(vertexCapacity, indexCapacity, 0);
+    }
+
+    public MeshRegistry(long vertexCapacity, long indexCapacity, long wideIndexCapacity) {
+        this.vertexCapacity = vertexCapacity;
+        this.indexCapacity = indexCapacity;
+        this.wideIndexCapacity = wideIndexCapacity;
+        this.vertices = new Ranges(vertexCapacity);
+        this.indices = new Ranges(indexCapacity);
+        this.wideIndices = new Ranges(wideIndexCapacity);
+    }
+
+    public Mesh add(int vertexCount, int indexCount) {
+        return add(vertexCount, indexCount, false);
+    }
+
+    /**
+     * Reserves the ranges of a mesh; the caller uploads its data to them.
+     */
+    public synchronized Mesh add(int vertexCount, int indexCount, boolean wide) {
+        long vertexOffset = vertices.allocate(vertexCount);
+        if (vertexOffset < 0)
+            throw new RuntimeException("Vertex arena full: no room for " + vertexCount + " vertices.");
+        long firstIndex = (wide ? wideIndices : indices).allocate(indexCount);
+        if (firstIndex < 0) {
+            vertices.free(vertexOffset, vertexCount);
+            throw new RuntimeException((wide ? "Wide index" : "Index") + " arena full: no room for " + indexCount
+                    + " indices.");
+        }
+        meshCount++;
+        return new Mesh((int) firstIndex, (int) vertexOffset, indexCount, vertexCount, wide);
+    }
+
+    /**
+     * The mesh's ranges become available again once the frames in flight have completed. The registry's lock isn't
+     * held while queueing, as draining the queue takes it to release the ranges.
+     */
+    public void remove(Mesh mesh) {
+        synchronized (this) {
+            meshCount--;
+        }
+        ResourceRegistry.destroyLater(() -> release(mesh));
+    }
+
+    private synchronized void release(Mesh mesh) {
+        vertices.free(mesh.vertexOffset, mesh.vertexCount);
+        (mesh.wideIndices ? wideIndices : indices).free(mesh.firstIndex, mesh.indexCount);
+    }
+
+    public synchronized int meshCount() {
+        return meshCount;
+    }
+
+    public long vertexCapacity() {
+        return vertexCapacity;
+    }
+
+    public long indexCapacity() {
+        return indexCapacity;
+    }
+
+    public long wideIndexCapacity() {
+        return wideIndexCapacity;
+    }
+
+    public synchronized long usedVertices() {
+        return vertices.used;
+    }
+
+    public synchronized long usedIndices() {
+        return indices.used;
+    }
+
+    public synchronized long usedWideIndices() {
+        return wideIndices.used;
+    }
+}
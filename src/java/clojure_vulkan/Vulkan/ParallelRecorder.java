@@ -0,0 +1,168 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Records a draw list into secondary command buffers on several threads. The draws are split into contiguous
+ * ranges, one per lane; every lane has its own command pool per frame slot, so no pool is ever used by two threads
+ * at once. {@link #execute(VkCommandBuffer, int)} runs the secondaries in lane order, which keeps the draws in the
+ * order of the list regardless of which thread recorded them.
+ */
+public class ParallelRecorder implements NativeResource {
+    /**
+     * Records the draws {@code [from, to)} into a begun secondary command buffer. Called on worker threads, each on
+     * its own command buffer.
+     */
+    @FunctionalInterface
+    public interface DrawRange {
+        void record(VkCommandBuffer commands, int from, int to);
+    }
+
+    private final VkDevice device;
+    private final int lanes;
+    private final ForkJoinPool workers;
+    private final long[][] pools;
+    private final VkCommandBuffer[][] secondaries;
+    private final PointerBuffer[] recorded;
+
+    /**
+     * @param threads worker threads, and lanes the draw list is split into
+     * @param slots   frame slots, recorded independently of each other
+     */
+    public ParallelRecorder(VkDevice device, int queueFamily, int threads, int slots) {
+        this.device = device;
+        this.lanes = threads;
+        this.workers = new ForkJoinPool(threads);
+        this.pools = new long[slots][threads];
+        this.secondaries = new VkCommandBuffer[slots][threads];
+        this.recorded = new PointerBuffer[slots];
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer poolPtr = stack.mallocLong(1);
+            PointerBuffer commandBufferPtr = stack.mallocPointer(1);
+            for (int slot = 0; slot < slots; slot++) {
+                recorded[slot] = MemoryUtil.memCallocPointer(threads).limit(0);
+                for (int lane = 0; lane < threads; lane++) {
+                    check(vkCreateCommandPool(device, VkCommandPoolCreateInfo.calloc(stack)
+                                    .sType$Default()
+                                    .queueFamilyIndex(queueFamily), null, poolPtr),
+                            "Failed to create recording command pool.");
+                    pools[slot][lane] = poolPtr.get(0);
+                    check(vkAllocateCommandBuffers(device, VkCommandBufferAllocateInfo.calloc(stack)
+                                    .sType$Default()
+                                    .commandPool(pools[slot][lane])
+                                    .level(VK_COMMAND_BUFFER_LEVEL_SECONDARY)
+                                    .commandBufferCount(1), commandBufferPtr),
+                            "Failed to allocate secondary command buffer.");
+                    secondaries[slot][lane] = new VkCommandBuffer(commandBufferPtr.get(0), device);
+                }
+            }
+        }
+    }
+
+    private static void check(int result, String message) {
+        if (result != VK_SUCCESS)
+            throw new RuntimeException(message);
+    }
+
+    public int threads() {
+        return lanes;
+    }
+
+    @SuppressWarnings("serial")
+    private final class Lane extends RecursiveAction {
+        private final int slot;
+        private final int lane;
+        private final long renderPass;
+        private final int subpass;
+        private final int from;
+        private final int to;
+        private final DrawRange range;
+
+        Lane(int slot, int lane, long renderPass, int subpass, int from, int to, DrawRange range) {
+            this.slot = slot;
+            this.lane = lane;
+            this.renderPass = renderPass;
+            this.subpass = subpass;
+            this.from = from;
+            this.to = to;
+            this.range = range;
+        }
+
+        @Override
+        protected void compute() {
+            VkCommandBuffer commands = secondaries[slot][lane];
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                VkCommandBufferInheritanceInfo inheritance = VkCommandBufferInheritanceInfo.calloc(stack)
+                        .sType$Default()
+                        .renderPass(renderPass)
+                        .subpass(subpass);
+                int flags = VK_COMMAND_BUFFER_USAGE_SIMULTANEOUS_USE_BIT;
+                if (renderPass != VK_NULL_HANDLE)
+                    flags |= VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT;
+                check(vkBeginCommandBuffer(commands, VkCommandBufferBeginInfo.calloc(stack)
+                                .sType$Default()
+                                .flags(flags)
+                                .pInheritanceInfo(inheritance)),
+                        "Failed to begin recording secondary command buffer.");
+            }
+            range.record(commands, from, to);
+            check(vkEndCommandBuffer(commands), "Failed to record secondary command buffer.");
+        }
+    }
+
+    /**
+     * Records the draws {@code [0, drawCount)} of the slot, replacing the ones recorded before. None of the slot's
+     * command buffers may be in use by the GPU.
+     *
+     * @param renderPass the render pass the secondaries continue, or {@code VK_NULL_HANDLE} to record them
+     *                   outside of one
+     */
+    public void record(int slot, long renderPass, int subpass, int drawCount, DrawRange range) {
+        int perLane = Math.max(1, (drawCount + lanes - 1) / lanes);
+        int used = Math.min(lanes, (drawCount + perLane - 1) / perLane);
+        Lane[] tasks = new Lane[used];
+        for (int lane = 0; lane < used; lane++) {
+            vkResetCommandPool(device, pools[slot][lane], 0);
+            tasks[lane] = new Lane(slot, lane, renderPass, subpass, lane * perLane, Math.min(drawCount, (lane + 1) * perLane), range);
+        }
+        workers.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        PointerBuffer slotRecorded = recorded[slot];
+        slotRecorded.clear();
+        for (int lane = 0; lane < used; lane++)
+            slotRecorded.put(lane, secondaries[slot][lane]);
+        slotRecorded.limit(used);
+    }
+
+    /**
+     * Records the execution of the slot's secondaries, in draw order, into a primary command buffer.
+     */
+    public void execute(VkCommandBuffer primary, int slot) {
+        if (recorded[slot].remaining() > 0)
+            vkCmdExecuteCommands(primary, recorded[slot]);
+    }
+
+    @Override
+    public void free() {
+        workers.shutdown();
+        for (int slot = 0; slot < pools.length; slot++) {
+            for (long pool : pools[slot])
+                vkDestroyCommandPool(device, pool, null);
+            MemoryUtil.memFree(recorded[slot]);
+        }
+    }
+}
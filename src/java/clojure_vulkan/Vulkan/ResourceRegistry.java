@@ -0,0 +1,161 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.NativeResource;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Every live buffer and image with its size, the frame it was created in and optionally the stack it was created
+ * from, for a leak report at shutdown. Resources still used by frames in flight are handed to
+ * {@link #destroyLater(NativeResource)} instead of being freed: they are queued in the current frame slot and freed
+ * by {@link #drain(int, long)} once that slot's fence shows the frame has completed.
+ */
+public class ResourceRegistry {
+    public enum Type {
+        BUFFER,
+        IMAGE
+    }
+
+    private static final class Record {
+        final Type type;
+        final long size;
+        final long frameNumber;
+        final Throwable site;
+
+        Record(Type type, long size, long frameNumber, Throwable site) {
+            this.type = type;
+            this.size = size;
+            this.frameNumber = frameNumber;
+            this.site = site;
+        }
+    }
+
+    private static final class Deferred {
+        final NativeResource resource;
+        final long frameNumber;
+
+        Deferred(NativeResource resource, long frameNumber) {
+            this.resource = resource;
+            this.frameNumber = frameNumber;
+        }
+    }
+
+    private static final IdentityHashMap<Object, Record> LIVE = new IdentityHashMap<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayDeque<Deferred>[] QUEUES = new ArrayDeque[Frame.MAX_FRAMES_IN_FLIGHT];
+
+    static {
+        for (int i = 0; i < QUEUES.length; i++)
+            QUEUES[i] = new ArrayDeque<>();
+    }
+
+    private static boolean captureSites = false;
+
+    /**
+     * Whether {@link #register(Object, Type, long)} records the creating stack, which costs a stack walk each.
+     */
+    public static synchronized void setCaptureSites(boolean captureSites) {
+        ResourceRegistry.captureSites = captureSites;
+    }
+
+    public static synchronized void register(Object resource, Type type, long size) {
+        LIVE.put(resource, new Record(type, size, Frame.frameNumber(), captureSites ? new Throwable() : null));
+    }
+
+    /**
+     * Called when the resource is destroyed; resources never registered are ignored.
+     */
+    public static synchronized void unregister(Object resource) {
+        LIVE.remove(resource);
+    }
+
+    public static synchronized boolean isLive(Object resource) {
+        return LIVE.containsKey(resource);
+    }
+
+    public static synchronized int liveCount() {
+        return LIVE.size();
+    }
+
+    public static synchronized long liveBytes(Type type) {
+        long bytes = 0L;
+        for (Record record : LIVE.values())
+            if (record.type == type)
+                bytes += record.size;
+        return bytes;
+    }
+
+    /**
+     * Frees the resource once the frames in flight, which may still use it, have completed.
+     */
+    public static void destroyLater(NativeResource resource) {
+        destroyLater(resource, Frame.frameNumber());
+    }
+
+    /**
+     * Like {@link #destroyLater(NativeResource)}, for a resource which may be used up to a later frame, e.g. by work
+     * submitted before that frame's own.
+     *
+     * @param lastFrameNumber the last frame which may use it, not before the current one
+     */
+    public static synchronized void destroyLater(NativeResource resource, long lastFrameNumber) {
+        QUEUES[Frame.currentSlot()].add(new Deferred(resource, lastFrameNumber));
+    }
+
+    public static synchronized int pendingCount() {
+        int count = 0;
+        for (ArrayDeque<Deferred> queue : QUEUES)
+            count += queue.size();
+        return count;
+    }
+
+    /**
+     * Frees the resources queued in the slot by frames up to the completed one.
+     *
+     * @param slot                 the frame slot whose fence has just been waited on
+     * @param completedFrameNumber the last frame known to have completed
+     */
+    public static synchronized void drain(int slot, long completedFrameNumber) {
+        ArrayDeque<Deferred> queue = QUEUES[slot];
+        while (!queue.isEmpty() && queue.peek().frameNumber <= completedFrameNumber) {
+            NativeResource resource = queue.poll().resource;
+            resource.free();
+            LIVE.remove(resource);
+        }
+    }
+
+    /**
+     * Frees every queued resource. The device must be idle.
+     */
+    public static synchronized void drainAll() {
+        for (int slot = 0; slot < QUEUES.length; slot++)
+            drain(slot, Long.MAX_VALUE);
+    }
+
+    private static String site(Throwable site) {
+        for (StackTraceElement element : site.getStackTrace()) {
+            String className = element.getClassName();
+            if (!className.equals(ResourceRegistry.class.getName()) && !className.startsWith("clojure.lang.")
+                && !className.startsWith("java."))
+                return element.toString();
+        }
+        return "unknown";
+    }
+
+    /**
+     * One line per resource still registered, or an empty string if there is none.
+     */
+    public static synchronized String leakReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<Object, Record> entry : LIVE.entrySet()) {
+            Record record = entry.getValue();
+            report.append(String.format("%-6s %12d B, created in frame %d", record.type, record.size, record.frameNumber));
+            if (record.site != null)
+                report.append(" at ").append(site(record.site));
+            report.append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+}
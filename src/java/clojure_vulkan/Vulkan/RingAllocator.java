@@ -0,0 +1,50 @@
+package clojure_vulkan.Vulkan;
+
+/**
+ * Hands out aligned regions of a fixed range in order, wrapping around to the start when a region
+ * does not fit before the end. Regions are never freed individually: the owner knows when the data
+ * written into them has been consumed (e.g. a frame's fence was signaled) and calls {@link #reset()}
+ * or simply keeps wrapping.
+ */
+public class RingAllocator {
+    private final long capacity;
+    private final long alignment;
+    private long head = 0L;
+
+    public RingAllocator(long capacity, long alignment) {
+        if (alignment <= 0 || Long.bitCount(alignment) != 1)
+            throw new IllegalArgumentException("Alignment must be a power of two, got: " + alignment);
+        this.capacity = capacity;
+        this.alignment = alignment;
+    }
+
+    public static long alignUp(long offset, long alignment) {
+        return (offset + alignment - 1) & -alignment;
+    }
+
+    public long allocate(long size) {
+        if (size > capacity)
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes from a ring of " + capacity + " bytes.");
+        long offset = alignUp(head, alignment);
+        if (offset + size > capacity)
+            offset = 0L;
+        head = offset + size;
+        return offset;
+    }
+
+    public void reset() {
+        head = 0L;
+    }
+
+    public long head() {
+        return head;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long alignment() {
+        return alignment;
+    }
+}
@@ -0,0 +1,130 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A handle to a texture which is decoded on a worker thread and uploaded by the render thread later. Until it
+ * is resident, {@link #imageView(Texture)} answers the placeholder's image view.
+ */
+public class StreamedTexture implements NativeResource {
+    public enum State {
+        DECODING,
+        DECODED,
+        UPLOADING,
+        RESIDENT,
+        FAILED
+    }
+
+    private final String path;
+    private volatile State state = State.DECODING;
+    private volatile Throwable failure;
+    private ByteBuffer pixels;
+    private boolean stbPixels;
+    private int width;
+    private int height;
+    private int mipLevels;
+    private final Texture texture = new Texture();
+
+    public StreamedTexture(String path) {
+        this.path = path;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isResident() {
+        return state == State.RESIDENT;
+    }
+
+    public Throwable failure() {
+        return failure;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int mipLevels() {
+        return mipLevels;
+    }
+
+    public ByteBuffer pixels() {
+        return pixels;
+    }
+
+    public Texture texture() {
+        return texture;
+    }
+
+    public void decoded(ByteBuffer pixels, boolean stbPixels, int width, int height) {
+        decoded(pixels, stbPixels, width, height, 1);
+    }
+
+    /**
+     * @param stbPixels whether the pixels were returned by stbi_load and must be freed by stbi_image_free
+     * @param pixels    all {@code mipLevels} levels packed as by {@link clojure_vulkan.MipChain}
+     */
+    public void decoded(ByteBuffer pixels, boolean stbPixels, int width, int height, int mipLevels) {
+        this.pixels = pixels;
+        this.stbPixels = stbPixels;
+        this.width = width;
+        this.height = height;
+        this.mipLevels = mipLevels;
+        state = State.DECODED;
+    }
+
+    public void failed(Throwable failure) {
+        this.failure = failure;
+        state = State.FAILED;
+    }
+
+    /**
+     * Called once the pixels are in the staging buffer and the upload is recorded.
+     */
+    public void uploading() {
+        freePixels();
+        state = State.UPLOADING;
+    }
+
+    public void resident() {
+        state = State.RESIDENT;
+    }
+
+    public long imageView(Texture placeholder) {
+        return state == State.RESIDENT ? texture.textureImageViewPointer() : placeholder.textureImageViewPointer();
+    }
+
+    public long sampler(Texture placeholder) {
+        return state == State.RESIDENT ? texture.textureSamplerPointer() : placeholder.textureSamplerPointer();
+    }
+
+    private void freePixels() {
+        if (pixels != null) {
+            if (stbPixels)
+                STBImage.stbi_image_free(pixels);
+            else
+                MemoryUtil.memFree(pixels);
+            pixels = null;
+        }
+    }
+
+    @Override
+    public void free() {
+        freePixels();
+        if (texture.imagePointer() != 0L || texture.textureSamplerPointer() != 0L)
+            texture.free();
+    }
+}
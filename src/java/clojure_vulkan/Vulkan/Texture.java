@@ -8,9 +8,10 @@ public class Texture implements NativeResource {
     }
 
     private long imagePointer = 0L;
-    private long imageMemoryPointer = 0L;
+    private DeviceMemoryAllocator.Allocation imageAllocation;
     private long textureImageViewPointer = 0L;
     private long textureSamplerPointer = 0L;
+    private long bytes = 0L;
 
     public long imagePointer() {
         return imagePointer;
@@ -20,12 +21,16 @@ public class Texture implements NativeResource {
         imagePointer = ptr;
     }
 
-    public long imageMemoryPointer() {
-        return imageMemoryPointer;
+    public DeviceMemoryAllocator.Allocation imageAllocation() {
+        return imageAllocation;
+    }
+
+    public void imageAllocation(DeviceMemoryAllocator.Allocation allocation) {
+        imageAllocation = allocation;
     }
 
-    public void imageMemoryPointer(long ptr) {
-        imageMemoryPointer = ptr;
+    public long imageMemoryPointer() {
+        return imageAllocation == null ? 0L : imageAllocation.memory();
     }
 
     public long textureImageViewPointer() {
@@ -44,12 +49,27 @@ public class Texture implements NativeResource {
         textureSamplerPointer = ptr;
     }
 
+    /**
+     * Device memory used by the image.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    public void bytes(long bytes) {
+        this.bytes = bytes;
+    }
+
     @Override
     public void free() {
+        ResourceRegistry.unregister(this);
         VK13.vkDestroyImage(VulkanGlobals.getLogicalDevice(), imagePointer, null);
         imagePointer = 0L;
-        VK13.vkFreeMemory(VulkanGlobals.getLogicalDevice(), imageMemoryPointer, null);
-        imageMemoryPointer = 0L;
+        if (imageAllocation != null) {
+            VulkanGlobals.MEMORY_ALLOCATOR.free(imageAllocation);
+            imageAllocation = null;
+        }
+        bytes = 0L;
         VK13.vkDestroySampler(VulkanGlobals.getLogicalDevice(), textureSamplerPointer, null);
         textureSamplerPointer = 0L;
         VK13.vkDestroyImageView(VulkanGlobals.getLogicalDevice(), textureImageViewPointer, null);
@@ -0,0 +1,124 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.NativeResource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Streamed textures shared by key (a path plus sampler settings), reference counted. Unreferenced textures stay
+ * cached until the resident bytes exceed the budget; then the least recently acquired ones are evicted. An evicted
+ * texture may still be sampled by the frames in flight, so it is handed to
+ * {@link ResourceRegistry#destroyLater(NativeResource)}.
+ */
+public class TextureManager implements NativeResource {
+    private static final class Entry {
+        final StreamedTexture texture;
+        int references;
+
+        Entry(StreamedTexture texture) {
+            this.texture = texture;
+        }
+    }
+
+    private final Function<Object, StreamedTexture> loader;
+    /**
+     * In the order of the last acquisition, which {@link #acquire(Object)} renews by re-inserting the entry.
+     */
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>();
+    private long budget;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param loader starts loading the texture of a key
+     * @param budget bytes of resident textures above which unreferenced ones are evicted
+     */
+    public TextureManager(Function<Object, StreamedTexture> loader, long budget) {
+        this.loader = loader;
+        this.budget = budget;
+    }
+
+    public synchronized StreamedTexture acquire(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            misses++;
+            entry = new Entry(loader.apply(key));
+        } else {
+            hits++;
+        }
+        entries.put(key, entry);
+        entry.references++;
+        return entry.texture;
+    }
+
+    public synchronized void release(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.references == 0)
+            throw new RuntimeException("Texture " + key + " released more times than acquired.");
+        entry.references--;
+    }
+
+    public synchronized int references(Object key) {
+        Entry entry = entries.get(key);
+        return entry == null ? 0 : entry.references;
+    }
+
+    public synchronized long residentBytes() {
+        long bytes = 0L;
+        for (Entry entry : entries.values())
+            bytes += entry.texture.texture().bytes();
+        return bytes;
+    }
+
+    public synchronized long budget() {
+        return budget;
+    }
+
+    public synchronized void budget(long budget) {
+        this.budget = budget;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Evicts the least recently acquired unreferenced textures until the resident bytes fit the budget. Textures
+     * still decoding or uploading are left alone.
+     */
+    public synchronized void evict() {
+        long bytes = residentBytes();
+        for (Iterator<Map.Entry<Object, Entry>> it = entries.entrySet().iterator(); bytes > budget && it.hasNext(); ) {
+            Entry entry = it.next().getValue();
+            StreamedTexture.State state = entry.texture.state();
+            if (entry.references == 0 && (state == StreamedTexture.State.RESIDENT || state == StreamedTexture.State.FAILED)) {
+                it.remove();
+                bytes -= entry.texture.texture().bytes();
+                ResourceRegistry.destroyLater(entry.texture);
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Destroys all textures still cached, referenced or not. The device must be idle.
+     */
+    @Override
+    public synchronized void free() {
+        for (Entry entry : entries.values())
+            entry.texture.free();
+        entries.clear();
+    }
+}
@@ -0,0 +1,248 @@
+package clojure_vulkan.Vulkan;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.NativeResource;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Collects copies and barriers into one command buffer and submits them at once behind a fence. Staging memory
+ * handed to {@link #retireOnCompletion(NativeResource)} is passed on to
+ * {@link ResourceRegistry#destroyLater(NativeResource, long)} at submission, for the frame after the current one:
+ * the graphics queue runs the submission before that frame's commands, so that frame's fence covers it.
+ * {@link #flush()} waits for the submission itself, so it frees the staging memory right away.
+ * <p>
+ * With a dedicated transfer queue family the copies run on the transfer queue and every resource they write has
+ * its ownership released to the graphics family there. The matching acquire barriers go into a second command
+ * buffer submitted to the graphics queue, which waits on the transfer submission's semaphore. Without one, both
+ * command buffers are the same one and it is submitted to the graphics queue.
+ */
+public class TransferContext implements NativeResource {
+    public enum State {
+        IDLE,
+        RECORDING,
+        SUBMITTED
+    }
+
+    private final VkDevice device;
+    private final int transferFamily;
+    private final int graphicsFamily;
+    private final VkQueue transferQueue;
+    private final VkQueue graphicsQueue;
+    private final long transferPool;
+    private final long acquirePool;
+    private final VkCommandBuffer transferCommands;
+    private final VkCommandBuffer acquireCommands;
+    private final long fence;
+    private final long semaphore;
+    private final ArrayList<NativeResource> recorded = new ArrayList<>();
+    private State state = State.IDLE;
+    private long submissions;
+
+    public TransferContext(VkDevice device, int transferFamily, VkQueue transferQueue, int graphicsFamily, VkQueue graphicsQueue) {
+        this.device = device;
+        this.transferFamily = transferFamily;
+        this.graphicsFamily = graphicsFamily;
+        this.transferQueue = transferQueue;
+        this.graphicsQueue = graphicsQueue;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            transferPool = createCommandPool(stack, transferFamily);
+            transferCommands = allocateCommandBuffer(stack, transferPool);
+            if (isDedicated()) {
+                acquirePool = createCommandPool(stack, graphicsFamily);
+                acquireCommands = allocateCommandBuffer(stack, acquirePool);
+                LongBuffer semaphorePtr = stack.mallocLong(1);
+                check(vkCreateSemaphore(device, VkSemaphoreCreateInfo.calloc(stack).sType$Default(), null, semaphorePtr),
+                        "Failed to create transfer semaphore.");
+                semaphore = semaphorePtr.get(0);
+            } else {
+                acquirePool = VK_NULL_HANDLE;
+                acquireCommands = transferCommands;
+                semaphore = VK_NULL_HANDLE;
+            }
+            LongBuffer fencePtr = stack.mallocLong(1);
+            check(vkCreateFence(device, VkFenceCreateInfo.calloc(stack).sType$Default(), null, fencePtr),
+                    "Failed to create transfer fence.");
+            fence = fencePtr.get(0);
+        }
+    }
+
+    private static void check(int result, String message) {
+        if (result != VK_SUCCESS)
+            throw new RuntimeException(message);
+    }
+
+    private long createCommandPool(MemoryStack stack, int queueFamily) {
+        LongBuffer poolPtr = stack.mallocLong(1);
+        check(vkCreateCommandPool(device, VkCommandPoolCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT)
+                        .queueFamilyIndex(queueFamily), null, poolPtr),
+                "Failed to create transfer command pool.");
+        return poolPtr.get(0);
+    }
+
+    private VkCommandBuffer allocateCommandBuffer(MemoryStack stack, long pool) {
+        var commandBufferPtr = stack.mallocPointer(1);
+        check(vkAllocateCommandBuffers(device, VkCommandBufferAllocateInfo.calloc(stack)
+                        .sType$Default()
+                        .commandPool(pool)
+                        .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                        .commandBufferCount(1), commandBufferPtr),
+                "Failed to allocate transfer command buffer.");
+        return new VkCommandBuffer(commandBufferPtr.get(0), device);
+    }
+
+    public boolean isDedicated() {
+        return transferFamily != graphicsFamily;
+    }
+
+    public int transferFamily() {
+        return transferFamily;
+    }
+
+    public int graphicsFamily() {
+        return graphicsFamily;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public long submissions() {
+        return submissions;
+    }
+
+    private void begin() {
+        if (state == State.SUBMITTED)
+            await();
+        if (state == State.IDLE) {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                        .sType$Default()
+                        .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+                vkBeginCommandBuffer(transferCommands, beginInfo);
+                if (isDedicated())
+                    vkBeginCommandBuffer(acquireCommands, beginInfo);
+            }
+            state = State.RECORDING;
+        }
+    }
+
+    /**
+     * The command buffer to record copies into, begun if it isn't yet. Waits for the previous submission first
+     * if it is still running.
+     */
+    public VkCommandBuffer commands() {
+        begin();
+        return transferCommands;
+    }
+
+    /**
+     * The command buffer to record the graphics queue's acquire barriers into; {@link #commands()} without a
+     * dedicated transfer queue family.
+     */
+    public VkCommandBuffer acquireCommands() {
+        begin();
+        return acquireCommands;
+    }
+
+    public void retireOnCompletion(NativeResource resource) {
+        recorded.add(resource);
+    }
+
+    /**
+     * Submits the recorded commands without waiting for them. Returns false if nothing was recorded.
+     */
+    public boolean submit() {
+        if (!submitCommands())
+            return false;
+        for (NativeResource resource : recorded)
+            ResourceRegistry.destroyLater(resource, Frame.frameNumber() + 1);
+        recorded.clear();
+        return true;
+    }
+
+    private boolean submitCommands() {
+        if (state != State.RECORDING)
+            return false;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            vkEndCommandBuffer(transferCommands);
+            if (isDedicated()) {
+                vkEndCommandBuffer(acquireCommands);
+                check(vkQueueSubmit(transferQueue, VkSubmitInfo.calloc(stack)
+                                .sType$Default()
+                                .pCommandBuffers(stack.pointers(transferCommands))
+                                .pSignalSemaphores(stack.longs(semaphore)), VK_NULL_HANDLE),
+                        "Failed to submit transfer commands.");
+                check(vkQueueSubmit(graphicsQueue, VkSubmitInfo.calloc(stack)
+                                .sType$Default()
+                                .waitSemaphoreCount(1)
+                                .pWaitSemaphores(stack.longs(semaphore))
+                                .pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_ALL_COMMANDS_BIT))
+                                .pCommandBuffers(stack.pointers(acquireCommands)), fence),
+                        "Failed to submit transfer acquire commands.");
+            } else {
+                check(vkQueueSubmit(graphicsQueue, VkSubmitInfo.calloc(stack)
+                                .sType$Default()
+                                .pCommandBuffers(stack.pointers(transferCommands)), fence),
+                        "Failed to submit transfer commands.");
+            }
+        }
+        submissions++;
+        state = State.SUBMITTED;
+        return true;
+    }
+
+    private void retire() {
+        vkResetFences(device, fence);
+        vkResetCommandPool(device, transferPool, 0);
+        if (isDedicated())
+            vkResetCommandPool(device, acquirePool, 0);
+        state = State.IDLE;
+    }
+
+    /**
+     * Retires the submission if its fence has signaled. Returns true when nothing is in flight anymore.
+     */
+    public boolean poll() {
+        if (state == State.SUBMITTED && vkGetFenceStatus(device, fence) == VK_SUCCESS)
+            retire();
+        return state != State.SUBMITTED;
+    }
+
+    public void await() {
+        if (state == State.SUBMITTED) {
+            vkWaitForFences(device, fence, true, Long.MAX_VALUE);
+            retire();
+        }
+    }
+
+    /**
+     * Submits the recorded commands, waits for them and frees their staging memory.
+     */
+    public void flush() {
+        if (submitCommands())
+            await();
+        for (NativeResource resource : recorded)
+            resource.free();
+        recorded.clear();
+    }
+
+    @Override
+    public void free() {
+        if (state == State.SUBMITTED)
+            await();
+        for (NativeResource resource : recorded)
+            resource.free();
+        recorded.clear();
+        vkDestroyFence(device, fence, null);
+        vkDestroySemaphore(device, semaphore, null);
+        vkDestroyCommandPool(device, transferPool, null);
+        vkDestroyCommandPool(device, acquirePool, null);
+    }
+}
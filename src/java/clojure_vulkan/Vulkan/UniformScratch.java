@@ -0,0 +1,66 @@
+package clojure_vulkan.Vulkan;
+
+import clojure_vulkan.UniformWriter;
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-frame scratch state for writing the model/view/projection uniforms: the matrices are reused every
+ * frame, the view is computed once and the projection only when the swap chain extent changes, so a
+ * steady-state update allocates nothing.
+ */
+public class UniformScratch {
+    private final Matrix4f model = new Matrix4f();
+    private final Matrix4f view = new Matrix4f().lookAt(0, -0.1f, -1.5f, 0, 0, 0, 0, 0, 1);
+    private final Matrix4f projection = new Matrix4f();
+    private int projectionWidth = -1;
+    private int projectionHeight = -1;
+
+    private UniformWriter writer;
+    private int modelField, viewField, projectionField;
+
+    public Matrix4f projection(int width, int height) {
+        if (width != projectionWidth || height != projectionHeight) {
+            // the negated aspect ratio compensates for the viewport's flipped y-axis
+            projection.setPerspective((float) Math.toRadians(45), -(float) width / height, 0.1f, 10.0f, true);
+            projectionWidth = width;
+            projectionHeight = height;
+        }
+        return projection;
+    }
+
+    public Matrix4f view() {
+        return view;
+    }
+
+    /**
+     * Writes the uniforms of {@code objectCount} objects, laid out in a square grid and rotating with
+     * {@code time}, at the offsets the ring hands out.
+     */
+    public void update(UniformWriter writer, ByteBuffer dest, RingAllocator ring, int objectCount,
+                       double time, int width, int height) {
+        if (writer != this.writer) {
+            this.writer = writer;
+            modelField = writer.field("model");
+            viewField = writer.field("view");
+            projectionField = writer.field("projection");
+        }
+        Matrix4f projection = projection(width, height);
+        int side = (int) Math.ceil(Math.sqrt(objectCount));
+        float cell = 1.0f / side;
+        float center = (side - 1) / 2.0f;
+        float angle = (float) (time * Math.toRadians(90));
+        int size = writer.size();
+        ring.reset();
+        for (int i = 0; i < objectCount; i++) {
+            model.translation(cell * (i % side - center), cell * (i / side - center), 0)
+                    .scale(cell)
+                    .rotate(angle, 0, 0, 1);
+            int offset = (int) ring.allocate(size);
+            writer.put(dest, offset, modelField, model);
+            writer.put(dest, offset, viewField, view);
+            writer.put(dest, offset, projectionField, projection);
+        }
+    }
+}
@@ -14,11 +14,17 @@ public class VulkanGlobals {
     public static PhysicalDevice PHYSICAL_DEVICE = new PhysicalDevice();
     public static QueueFamilies QUEUE_FAMILIES = new QueueFamilies();
     public static SwapChainExtent SWAP_CHAIN_EXTENT = new SwapChainExtent();
-    public static UniformBuffers UNIFORM_BUFFERS = new UniformBuffers();
-
-    public static CommandBuffers COMMAND_BUFFERS = new CommandBuffers();
+    public static FrameRing<Buffer> UNIFORM_BUFFERS = new FrameRing<>();
+    public static FrameRing<Buffer> INDIRECT_BUFFERS = new FrameRing<>();
+    public static DeviceMemoryAllocator MEMORY_ALLOCATOR = new DeviceMemoryAllocator(new DeviceMemoryAllocator.VulkanDeviceMemory());
+
+    /**
+     * Per frame slot, one command buffer for each swap chain image.
+     */
+    public static FrameRing<VkCommandBuffer[]> COMMAND_BUFFERS = new FrameRing<>();
     public static Queue GRAPHICS_QUEUE = new Queue();
     public static Queue PRESENT_QUEUE = new Queue();
+    public static Queue TRANSFER_QUEUE = new Queue();
     public static VulkanInstance VULKAN_INSTANCE = new VulkanInstance();
 
     public static VkPointer DEBUG_MESSENGER_POINTER = new VkPointer() {
@@ -38,7 +44,7 @@ public class VulkanGlobals {
         }
     };
 
-    public static VkPointerVector SWAP_CHAIN_IMAGE_POINTERS = new VkPointerVector() {
+    public static VkHandleArray SWAP_CHAIN_IMAGE_POINTERS = new VkHandleArray() {
     };
 
     public static VkPointer SWAP_CHAIN_POINTER = new VkPointer() {
@@ -57,10 +63,11 @@ public class VulkanGlobals {
         }
     };
 
-    public static VkPointerVector SWAP_CHAIN_IMAGE_VIEWS_POINTERS = new VkPointerVector() {
+    public static VkHandleArray SWAP_CHAIN_IMAGE_VIEWS_POINTERS = new VkHandleArray() {
         @Override
         public void free() {
-            this.get().forEach(imageViewsPointer -> VK13.vkDestroyImageView(getLogicalDevice(), imageViewsPointer.get(), null));
+            for (int i = 0; i < size(); i++)
+                VK13.vkDestroyImageView(getLogicalDevice(), get(i), null);
             super.free();
         }
     };
@@ -73,10 +80,11 @@ public class VulkanGlobals {
         }
     };
 
-    public static VkPointerVector SWAP_CHAIN_FRAME_BUFFER_POINTERS = new VkPointerVector() {
+    public static VkHandleArray SWAP_CHAIN_FRAME_BUFFER_POINTERS = new VkHandleArray() {
         @Override
         public void free() {
-            this.get().forEach(frameBufferPointer -> VK13.vkDestroyFramebuffer(getLogicalDevice(), frameBufferPointer.get(), null));
+            for (int i = 0; i < size(); i++)
+                VK13.vkDestroyFramebuffer(getLogicalDevice(), get(i), null);
             super.free();
         }
     };
@@ -98,6 +106,14 @@ public class VulkanGlobals {
     public static VkPointer GRAPHICS_PIPELINE_POINTER = new VkPointer() {
     };
 
+    public static VkPointer PIPELINE_CACHE_POINTER = new VkPointer() {
+        @Override
+        public void free() {
+            VK13.vkDestroyPipelineCache(getLogicalDevice(), this.get(), null);
+            super.free();
+        }
+    };
+
     public static VkPointer COMMAND_POOL = new VkPointer() {
         @Override
         public void free() {
@@ -121,11 +137,10 @@ public class VulkanGlobals {
             super.free();
         }
     };
-    public static VkPointerVector DESCRIPTOR_SET_POINTERS = new VkPointerVector() {
-        @Override
-        public void free() {
-            super.free();
-        }
+    /**
+     * One per frame slot.
+     */
+    public static VkHandleArray DESCRIPTOR_SET_POINTERS = new VkHandleArray() {
     };
 
     public static VkDevice getLogicalDevice() {
@@ -6,9 +6,6 @@ import clojure.lang.PersistentHashMap;
 import org.lwjgl.vulkan.*;
 
 import static clojure_vulkan.Vulkan.VulkanGlobalsInterfaces.VkResource;
-import static clojure_vulkan.Vulkan.VulkanGlobalsInterfaces.VkStructVector;
-
-import java.util.Vector;
 
 import static clojure_vulkan.Vulkan.VulkanGlobals.VALIDATION_LAYERS_ENABLED;
 
@@ -57,7 +54,8 @@ public class VulkanGlobalsImpl {
         private IPersistentMap queueFamilies = PersistentHashMap.EMPTY;
         private static final Keyword
                 GRAPHICS_FAMILY_KEYWORD = Keyword.intern("graphics-family"),
-                PRESENT_FAMILY_KEYWORD = Keyword.intern("present-family");
+                PRESENT_FAMILY_KEYWORD = Keyword.intern("present-family"),
+                TRANSFER_FAMILY_KEYWORD = Keyword.intern("transfer-family");
 
         @Override
         public IPersistentMap get() {
@@ -91,6 +89,15 @@ public class VulkanGlobalsImpl {
             this.queueFamilies = queueFamilies.assoc(PRESENT_FAMILY_KEYWORD, presentFamily);
             return this;
         }
+
+        public int transferFamily() {
+            return (int) queueFamilies.valAt(TRANSFER_FAMILY_KEYWORD);
+        }
+
+        public QueueFamilies transferFamily(int transferFamily) {
+            this.queueFamilies = queueFamilies.assoc(TRANSFER_FAMILY_KEYWORD, transferFamily);
+            return this;
+        }
     }
 
     public static class SwapChainExtent implements VulkanGlobalsInterfaces.VkResource<VkExtent2D> {
@@ -112,46 +119,6 @@ public class VulkanGlobalsImpl {
         }
     }
 
-    public static class UniformBuffers implements VkStructVector<Buffer> {
-        private Vector<Buffer> uniformBuffers;
-
-        @Override
-        public Vector<Buffer> get() {
-            return uniformBuffers;
-        }
-
-        @Override
-        public void set(Vector<Buffer> uniformBuffers) {
-            this.uniformBuffers = uniformBuffers;
-        }
-
-        @Override
-        public void free() {
-            for (Buffer buffer : uniformBuffers)
-                buffer.free();
-            uniformBuffers = null;
-        }
-    }
-
-    public static class CommandBuffers implements VkStructVector<VkCommandBuffer> {
-        private Vector<VkCommandBuffer> commandBuffers;
-
-        @Override
-        public Vector<VkCommandBuffer> get() {
-            return commandBuffers;
-        }
-
-        @Override
-        public void set(Vector<VkCommandBuffer> commandBuffers) {
-            this.commandBuffers = commandBuffers;
-        }
-
-        @Override
-        public void free() {
-            commandBuffers = null;
-        }
-    }
-
     public static class Queue implements VkResource<VkQueue> {
         private VkQueue queue;
 
@@ -1,8 +1,9 @@
 package clojure_vulkan.Vulkan;
 
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.system.NativeResource;
 
-import java.util.Vector;
+import java.nio.LongBuffer;
 
 public class VulkanGlobalsInterfaces {
     public interface VkResource<T> extends NativeResource {
@@ -11,20 +12,14 @@ public class VulkanGlobalsInterfaces {
         void set(T val);
     }
 
-    public interface VkStructVector<T> extends VkResource<Vector<T>> {
-        default T get(int index) {
-            return this.get().elementAt(index);
-        }
-    }
-
-    public static abstract class VkPointer implements VkResource<Long> {
-        private Long pointer = 0L;
+    public static abstract class VkPointer implements NativeResource {
+        private long pointer = 0L;
 
-        public Long get() {
+        public long get() {
             return pointer;
         }
 
-        public void set(Long pointer) {
+        public void set(long pointer) {
             this.pointer = pointer;
         }
 
@@ -52,38 +47,56 @@ public class VulkanGlobalsInterfaces {
         }
     }
 
-    public static abstract class VkPointerVector implements VkResource<Vector<VkPointer>> {
-        public static Vector<VkPointer> asVkPointerVector(Vector<Long> pointerVector) {
-            Vector<VkPointer> ret = new Vector<>();
-            for (Long pointer : pointerVector) {
-                VkPointer ptr = new VkPointer() {
-                };
-                ptr.set(pointer);
-                ret.add(ptr);
-            }
-            return ret;
+    /**
+     * Handles in an off-heap array, read without locking or boxing and passed to LWJGL as they are.
+     */
+    public static abstract class VkHandleArray implements NativeResource {
+        private LongBuffer handles;
+
+        /**
+         * Replaces the current handles, without destroying them, with room for {@code count} new ones, all
+         * {@code VK_NULL_HANDLE}.
+         */
+        public LongBuffer allocate(int count) {
+            release();
+            handles = MemoryUtil.memCallocLong(count);
+            return handles;
         }
 
-        private Vector<VkPointer> pointerVector;
+        /**
+         * Replaces the current handles, without destroying them, with the remaining ones of {@code source}.
+         */
+        public void set(LongBuffer source) {
+            allocate(source.remaining());
+            MemoryUtil.memCopy(MemoryUtil.memAddress(source), MemoryUtil.memAddress(handles), (long) source.remaining() * Long.BYTES);
+        }
 
-        @Override
-        public Vector<VkPointer> get() {
-            return pointerVector;
+        public int size() {
+            return handles == null ? 0 : handles.capacity();
         }
 
-        public Long get(int index) {
-            return this.get().elementAt(index).get();
+        public long get(int index) {
+            return handles.get(index);
         }
 
-        @Override
-        public void set(Vector<VkPointer> pointerVector) {
-            this.pointerVector = pointerVector;
+        public void put(int index, long handle) {
+            handles.put(index, handle);
+        }
+
+        public LongBuffer buffer() {
+            return handles;
+        }
+
+        private void release() {
+            if (handles != null) {
+                MemoryUtil.memFree(handles);
+                handles = null;
+            }
         }
 
         @Override
         public void free() {
-            this.pointerVector.forEach(VkPointer::free);
-            this.pointerVector = null;
+            release();
         }
     }
 }
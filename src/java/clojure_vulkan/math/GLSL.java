@@ -4,103 +4,428 @@ import clojure.lang.Keyword;
 import org.lwjgl.vulkan.VK13;
 
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 public class GLSL {
     private GLSL(){
     }
+
+    public enum MemoryLayout {
+        /**
+         * Uniform blocks: array strides and struct alignments are rounded up to 16 bytes (vec4).
+         */
+        STD140,
+        /**
+         * Storage blocks and push constants: no rounding to vec4.
+         */
+        STD430
+    }
+
     public interface GLSLType {
         int componentsCount();
 
         int componentSizeof();
 
+        /**
+         * Tightly packed size, as used for vertex attributes.
+         */
         int sizeof();
 
         int format();
+
+        int baseAlignment(MemoryLayout layout);
+
+        /**
+         * Size inside a uniform or storage block, including any padding the layout requires inside the type.
+         */
+        int sizeof(MemoryLayout layout);
     }
 
-    private static class GLSLFloat implements GLSLType {
+    public static int alignUp(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    public static class GLSLScalar implements GLSLType {
+        private final String name;
+        private final int format;
+
+        private GLSLScalar(String name, int format) {
+            this.name = name;
+            this.format = format;
+        }
+
         public int componentsCount() {
             return 1;
         }
 
         public int componentSizeof() {
-            return Float.BYTES;
+            return 4; // bools are 32-bit in blocks as well
         }
 
         public int sizeof() {
-            return Float.BYTES;
+            return 4;
         }
 
         public int format() {
-            return VK13.VK_FORMAT_R32_SFLOAT;
+            return format;
+        }
+
+        public int baseAlignment(MemoryLayout layout) {
+            return 4;
+        }
+
+        public int sizeof(MemoryLayout layout) {
+            return 4;
+        }
+
+        public String toString() {
+            return name;
         }
     }
 
-    private static class GLSLVec2f implements GLSLType {
+    public static class GLSLVector implements GLSLType {
+        private final String name;
+        private final GLSLScalar component;
+        private final int count;
+        private final int format;
+
+        private GLSLVector(String name, GLSLScalar component, int count, int format) {
+            this.name = name;
+            this.component = component;
+            this.count = count;
+            this.format = format;
+        }
+
+        public GLSLScalar component() {
+            return component;
+        }
+
         public int componentsCount() {
-            return 2;
+            return count;
         }
 
         public int componentSizeof() {
-            return Float.BYTES;
+            return component.sizeof();
         }
 
         public int sizeof() {
-            return 2 * Float.BYTES;
+            return count * component.sizeof();
         }
 
         public int format() {
-            return VK13.VK_FORMAT_R32G32_SFLOAT;
+            return format;
+        }
+
+        public int baseAlignment(MemoryLayout layout) {
+            // a vec3 is aligned like a vec4
+            return (count == 2 ? 2 : 4) * component.baseAlignment(layout);
+        }
+
+        public int sizeof(MemoryLayout layout) {
+            return sizeof();
+        }
+
+        public String toString() {
+            return name;
         }
     }
 
-    private static class GLSLVec3f implements GLSLType {
+    /**
+     * Column-major matrix, laid out like an array of its column vectors.
+     */
+    public static class GLSLMatrix implements GLSLType {
+        private final String name;
+        private final int columns;
+        private final GLSLArray layout;
+
+        private GLSLMatrix(String name, int columns, GLSLVector column) {
+            this.name = name;
+            this.columns = columns;
+            this.layout = new GLSLArray(column, columns);
+        }
+
+        public int columns() {
+            return columns;
+        }
+
+        public GLSLVector column() {
+            return (GLSLVector) layout.element();
+        }
+
         public int componentsCount() {
-            return 3;
+            return columns * column().componentsCount();
         }
 
         public int componentSizeof() {
-            return Float.BYTES;
+            return column().componentSizeof();
         }
 
         public int sizeof() {
-            return 3 * Float.BYTES;
+            return columns * column().sizeof();
         }
 
         public int format() {
-            return VK13.VK_FORMAT_R32G32B32_SFLOAT;
+            return VK13.VK_FORMAT_UNDEFINED;
+        }
+
+        public int baseAlignment(MemoryLayout layout) {
+            return this.layout.baseAlignment(layout);
+        }
+
+        public int sizeof(MemoryLayout layout) {
+            return this.layout.sizeof(layout);
+        }
+
+        public int columnStride(MemoryLayout layout) {
+            return this.layout.stride(layout);
+        }
+
+        public String toString() {
+            return name;
         }
     }
 
-    private static class GLSLVec4f implements GLSLType {
+    public static class GLSLArray implements GLSLType {
+        private final GLSLType element;
+        private final int length;
+
+        private GLSLArray(GLSLType element, int length) {
+            if (length <= 0)
+                throw new IllegalArgumentException("Array length must be positive, got: " + length);
+            this.element = element;
+            this.length = length;
+        }
+
+        public GLSLType element() {
+            return element;
+        }
+
+        public int length() {
+            return length;
+        }
+
         public int componentsCount() {
-            return 4;
+            return length * element.componentsCount();
+        }
+
+        public int componentSizeof() {
+            return element.componentSizeof();
+        }
+
+        public int sizeof() {
+            return length * element.sizeof();
+        }
+
+        public int format() {
+            return element.format();
+        }
+
+        public int baseAlignment(MemoryLayout layout) {
+            int alignment = element.baseAlignment(layout);
+            return layout == MemoryLayout.STD140 ? alignUp(alignment, 16) : alignment;
+        }
+
+        public int stride(MemoryLayout layout) {
+            return alignUp(element.sizeof(layout), baseAlignment(layout));
+        }
+
+        public int sizeof(MemoryLayout layout) {
+            return length * stride(layout);
+        }
+
+        public String toString() {
+            return element + "[" + length + "]";
+        }
+    }
+
+    public static class Member {
+        private final String name;
+        private final GLSLType type;
+
+        public Member(String name, GLSLType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public GLSLType type() {
+            return type;
+        }
+    }
+
+    /**
+     * Member offsets and total size of a struct or a whole uniform/storage block in one memory layout.
+     */
+    public static class BlockLayout {
+        private final GLSLStruct struct;
+        private final int[] offsets;
+        private final int alignment;
+        private final int size;
+
+        private BlockLayout(GLSLStruct struct, MemoryLayout layout) {
+            this.struct = struct;
+            offsets = new int[struct.members.length];
+            int alignment = 4;
+            int offset = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                GLSLType type = struct.members[i].type;
+                int memberAlignment = type.baseAlignment(layout);
+                alignment = Math.max(alignment, memberAlignment);
+                offsets[i] = offset = alignUp(offset, memberAlignment);
+                offset += type.sizeof(layout);
+            }
+            this.alignment = layout == MemoryLayout.STD140 ? alignUp(alignment, 16) : alignment;
+            this.size = alignUp(offset, this.alignment);
+        }
+
+        public int memberCount() {
+            return offsets.length;
+        }
+
+        public Member member(int i) {
+            return struct.members[i];
+        }
+
+        public int offset(int i) {
+            return offsets[i];
+        }
+
+        public int offset(String name) {
+            return offsets[struct.indexOf(name)];
+        }
+
+        public int alignment() {
+            return alignment;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    public static class GLSLStruct implements GLSLType {
+        private final String name;
+        private final Member[] members;
+        private final BlockLayout std140;
+        private final BlockLayout std430;
+
+        private GLSLStruct(String name, List<Member> members) {
+            if (members.isEmpty())
+                throw new IllegalArgumentException("Struct " + name + " has no members.");
+            this.name = name;
+            this.members = members.toArray(new Member[0]);
+            this.std140 = new BlockLayout(this, MemoryLayout.STD140);
+            this.std430 = new BlockLayout(this, MemoryLayout.STD430);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public List<Member> members() {
+            return List.of(members);
+        }
+
+        int indexOf(String memberName) {
+            for (int i = 0; i < members.length; i++)
+                if (members[i].name.equals(memberName))
+                    return i;
+            throw new IllegalArgumentException("Struct " + name + " has no member " + memberName + ".");
+        }
+
+        public BlockLayout layout(MemoryLayout layout) {
+            return layout == MemoryLayout.STD140 ? std140 : std430;
+        }
+
+        public int componentsCount() {
+            int count = 0;
+            for (Member member : members)
+                count += member.type.componentsCount();
+            return count;
         }
 
         public int componentSizeof() {
-            return Float.BYTES;
+            return 4;
         }
 
         public int sizeof() {
-            return 4 * Float.BYTES;
+            int size = 0;
+            for (Member member : members)
+                size += member.type.sizeof();
+            return size;
         }
 
         public int format() {
-            return VK13.VK_FORMAT_R32G32B32A32_SFLOAT;
+            return VK13.VK_FORMAT_UNDEFINED;
+        }
+
+        public int baseAlignment(MemoryLayout layout) {
+            return layout(layout).alignment();
+        }
+
+        public int sizeof(MemoryLayout layout) {
+            return layout(layout).size();
         }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static GLSLArray array(GLSLType element, int length) {
+        return new GLSLArray(element, length);
+    }
+
+    public static GLSLStruct struct(String name, List<Member> members) {
+        return new GLSLStruct(name, members);
+    }
+
+    public static Member member(String name, GLSLType type) {
+        return new Member(name, type);
     }
 
-    private static final Keyword
-            FLOAT_KW = Keyword.intern("float"),
-            VEC2_KW = Keyword.intern("vec2"),
-            VEC3_KW = Keyword.intern("vec3"),
-            VEC4_KW = Keyword.intern("vec4");
+    public static final HashMap<Keyword, GLSLType> keywordToType = new HashMap<>();
 
-    public static final HashMap<Keyword, GLSLType> keywordToType = new HashMap<>(Map.of(
-            FLOAT_KW, new GLSLFloat(),
-            VEC2_KW, new GLSLVec2f(),
-            VEC3_KW, new GLSLVec3f(),
-            VEC4_KW, new GLSLVec4f()
-    ));
+    private static <T extends GLSLType> T register(String name, T type) {
+        keywordToType.put(Keyword.intern(name), type);
+        return type;
+    }
+
+    public static final GLSLScalar
+            FLOAT = register("float", new GLSLScalar("float", VK13.VK_FORMAT_R32_SFLOAT)),
+            INT = register("int", new GLSLScalar("int", VK13.VK_FORMAT_R32_SINT)),
+            UINT = register("uint", new GLSLScalar("uint", VK13.VK_FORMAT_R32_UINT)),
+            BOOL = register("bool", new GLSLScalar("bool", VK13.VK_FORMAT_R32_UINT));
+
+    private static final int[][] VECTOR_FORMATS = {
+            {VK13.VK_FORMAT_R32G32_SFLOAT, VK13.VK_FORMAT_R32G32B32_SFLOAT, VK13.VK_FORMAT_R32G32B32A32_SFLOAT},
+            {VK13.VK_FORMAT_R32G32_SINT, VK13.VK_FORMAT_R32G32B32_SINT, VK13.VK_FORMAT_R32G32B32A32_SINT},
+            {VK13.VK_FORMAT_R32G32_UINT, VK13.VK_FORMAT_R32G32B32_UINT, VK13.VK_FORMAT_R32G32B32A32_UINT}};
+
+    static {
+        String[] prefixes = {"", "i", "u", "b"};
+        GLSLScalar[] components = {FLOAT, INT, UINT, BOOL};
+        for (int p = 0; p < prefixes.length; p++)
+            for (int n = 2; n <= 4; n++)
+                register(prefixes[p] + "vec" + n, new GLSLVector(prefixes[p] + "vec" + n, components[p], n,
+                        VECTOR_FORMATS[Math.min(p, 2)][n - 2]));
+        for (int columns = 2; columns <= 4; columns++) {
+            for (int rows = 2; rows <= 4; rows++) {
+                String name = "mat" + columns + "x" + rows;
+                GLSLMatrix matrix = register(name, new GLSLMatrix(name, columns, (GLSLVector) type("vec" + rows)));
+                if (columns == rows)
+                    register("mat" + columns, matrix);
+            }
+        }
+    }
+
+    public static GLSLType type(String name) {
+        GLSLType type = keywordToType.get(Keyword.intern(name));
+        if (type == null)
+            throw new IllegalArgumentException("Unknown GLSL type: " + name);
+        return type;
+    }
 }
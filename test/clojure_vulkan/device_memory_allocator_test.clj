@@ -0,0 +1,156 @@
+(ns clojure-vulkan.device-memory-allocator-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan RingAllocator DeviceMemoryAllocator DeviceMemoryAllocator$Allocation DeviceMemoryAllocator$DeviceMemory
+                                  DeviceMemoryAllocator$Mover)))
+
+(defn fake-device
+  "Hands out increasing fake handles and records live allocations as {handle [memory-type size]}.
+  Mapping a handle returns handle * 2^32 as its address and records it in :mapped."
+  []
+  (let [live (atom {})
+        mapped (atom #{})
+        next-handle (atom 0)]
+    {:live   live
+     :mapped mapped
+     :device (reify DeviceMemoryAllocator$DeviceMemory
+               (allocate [_ memory-type-index size]
+                 (let [handle (swap! next-handle inc)]
+                   (swap! live assoc handle [memory-type-index size])
+                   handle))
+               (free [_ memory]
+                 (when-not (contains? @live memory)
+                   (throw (IllegalStateException. (str "Double free of " memory))))
+                 (swap! live dissoc memory))
+               (map [_ memory]
+                 (when (contains? @mapped memory)
+                   (throw (IllegalStateException. (str "Memory already mapped: " memory))))
+                 (swap! mapped conj memory)
+                 (bit-shift-left memory 32))
+               (unmap [_ memory]
+                 (swap! mapped disj memory)))}))
+
+(def block-size (* 1024 1024))
+
+(defn allocator
+  ([device] (allocator device 1))
+  ([device granularity]
+   (doto (DeviceMemoryAllocator. device block-size 256)
+     (.bufferImageGranularity granularity))))
+
+(defn- overlap? [^DeviceMemoryAllocator$Allocation a ^DeviceMemoryAllocator$Allocation b]
+  (and (= (.memory a) (.memory b))
+       (< (.offset a) (+ (.offset b) (.size b)))
+       (< (.offset b) (+ (.offset a) (.size a)))))
+
+(deftest sub-allocates-from-one-block
+  (let [{:keys [live device]} (fake-device)
+        allocator (allocator device)
+        allocations (doall (for [size (range 100 4000 37)]
+                             (.allocate allocator size 64 0 false)))]
+    (is (= 1 (count @live)))
+    (is (= 1 (.blockCount allocator)))
+    (is (every? #(zero? (mod (.offset ^DeviceMemoryAllocator$Allocation %) 64)) allocations))
+    (is (not-any? true? (for [a allocations b allocations :when (not (identical? a b))]
+                          (overlap? a b))))
+    (doseq [a allocations]
+      (.free allocator a))
+    (is (= 0 (.usedBytes allocator)))
+    (.free allocator)
+    (is (empty? @live))))
+
+(deftest respects-alignment
+  (let [{:keys [device]} (fake-device)
+        allocator (allocator device)]
+    (.allocate allocator 256 256 0 false)
+    (let [a (.allocate allocator 100 4096 0 false)]
+      (is (zero? (mod (.offset a) 4096))))))
+
+(deftest separates-memory-types
+  (let [{:keys [live device]} (fake-device)
+        allocator (allocator device)
+        a (.allocate allocator 1000 16 0 false)
+        b (.allocate allocator 1000 16 3 false)]
+    (is (not= (.memory a) (.memory b)))
+    (is (= #{0 3} (set (map first (vals @live)))))))
+
+(deftest buffer-image-granularity
+  (testing "linear and optimal resources share blocks when granularity fits in the smallest range"
+    (let [{:keys [device]} (fake-device)
+          allocator (allocator device 256)]
+      (is (= (.memory (.allocate allocator 1000 16 0 false))
+             (.memory (.allocate allocator 1000 16 0 true))))))
+  (testing "otherwise they are kept in separate blocks"
+    (let [{:keys [device]} (fake-device)
+          allocator (allocator device 4096)]
+      (is (not= (.memory (.allocate allocator 1000 16 0 false))
+                (.memory (.allocate allocator 1000 16 0 true)))))))
+
+(deftest dedicated-allocations
+  (let [{:keys [live device]} (fake-device)
+        allocator (allocator device)
+        a (.allocate allocator (* 3 block-size) 16 0 false)]
+    (is (.isDedicated a))
+    (is (= [0 (* 3 block-size)] (get @live (.memory a))))
+    (.free allocator a)
+    (is (empty? @live))))
+
+(deftest buddies-merge
+  (let [{:keys [live device]} (fake-device)
+        allocator (allocator device)
+        halves (doall (repeatedly 2 #(.allocate allocator (quot block-size 2) 16 0 false)))
+        _ (is (= 1 (count @live)))
+        _ (run! #(.free allocator %) halves)
+        quarters (doall (repeatedly 64 #(.allocate allocator (quot block-size 64) 16 0 false)))]
+    (is (= 1 (count @live)))
+    (run! #(.free allocator %) quarters)
+    (is (= 1 (count @live)) "one empty block is kept around")
+    (.releaseEmptyBlocks allocator)
+    (is (empty? @live))))
+
+(deftest double-free-throws
+  (let [{:keys [device]} (fake-device)
+        allocator (allocator device)
+        a (.allocate allocator 1000 16 0 false)]
+    (.free allocator a)
+    (is (thrown? IllegalStateException (.free allocator a)))))
+
+(deftest defragmentation
+  (let [{:keys [live device]} (fake-device)
+        allocator (allocator device)
+        size (quot block-size 8)
+        allocations (vec (repeatedly 24 #(.allocate allocator size 16 0 false)))
+        _ (is (= 3 (count @live)))
+        ;; leave a few scattered survivors in every block
+        survivors (set (take-nth 4 allocations))
+        _ (doseq [a allocations :when (not (survivors a))]
+            (.free allocator a))
+        moved (atom [])
+        moves (.defragment allocator (reify DeviceMemoryAllocator$Mover
+                                       (move [_ from to]
+                                         (swap! moved conj [(.memory from) (.memory to)])
+                                         true)))]
+    (is (= moves (count @moved)))
+    (is (= 1 (count @live)))
+    (is (every? #(contains? @live (.memory ^DeviceMemoryAllocator$Allocation %)) survivors))
+    (is (not-any? true? (for [a survivors b survivors :when (not (identical? a b))]
+                          (overlap? a b))))))
+
+(deftest mapping-is-shared-per-block
+  (let [{:keys [mapped device]} (fake-device)
+        allocator (allocator device)
+        a (.allocate allocator 1000 16 0 false)
+        b (.allocate allocator 1000 16 0 false)]
+    (is (= (+ (bit-shift-left (.memory a) 32) (.offset a)) (.map allocator a)))
+    (is (= (+ (bit-shift-left (.memory b) 32) (.offset b)) (.map allocator b)))
+    (is (= #{(.memory a)} @mapped))
+    (.unmap allocator a)
+    (is (= #{(.memory a)} @mapped) "still mapped for b")
+    (.free allocator b)
+    (is (empty? @mapped))))
+
+(deftest ring-allocator
+  (let [ring (RingAllocator. 1024 256)]
+    (is (= [0 256 512 768 0] (repeatedly 5 #(.allocate ring 200))))
+    (is (= [0 0] (repeatedly 2 #(.allocate ring 1024))))
+    (is (thrown? IllegalArgumentException (.allocate ring 1025)))
+    (is (thrown? IllegalArgumentException (RingAllocator. 1024 100)))))
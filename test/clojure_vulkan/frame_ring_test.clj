@@ -0,0 +1,29 @@
+(ns clojure-vulkan.frame-ring-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan Frame FrameRing)
+           (java.util.function IntFunction)
+           (org.lwjgl.system NativeResource)))
+
+(deftest frames-in-flight
+  (is (thrown? RuntimeException (Frame/setFramesInFlight 0)))
+  (is (thrown? RuntimeException (Frame/setFramesInFlight 4)))
+  (is (= 2 (Frame/framesInFlight))))
+
+(deftest one-resource-per-slot
+  (let [freed (atom [])
+        ring (FrameRing.)]
+    (try
+      (Frame/setFramesInFlight 3)
+      (.fill ring (reify IntFunction
+                    (apply [_ slot]
+                      (reify NativeResource
+                        (free [_] (swap! freed conj slot))))))
+      (is (= 3 (.size ring)))
+      (is (identical? (.get ring 0) (.current ring)))
+      (.fill ring (reify IntFunction (apply [_ slot] slot)))
+      (is (= [0 1 2] @freed) "refilling frees the previous resources")
+      (is (= [0 1 2] (mapv #(.get ring %) (range 3))))
+      (.free ring)
+      (is (zero? (.size ring)))
+      (finally
+        (Frame/setFramesInFlight 2)))))
@@ -0,0 +1,49 @@
+(ns clojure-vulkan.glsl-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.math GLSL GLSL$GLSLStruct GLSL$MemoryLayout)))
+
+(def std140 GLSL$MemoryLayout/STD140)
+(def std430 GLSL$MemoryLayout/STD430)
+
+(defn- struct-of [name & name-types]
+  (GLSL/struct name (mapv (fn [[member-name type]]
+                            (GLSL/member member-name (if (string? type) (GLSL/type type) type)))
+                          (partition 2 name-types))))
+
+(defn- offsets [^GLSL$GLSLStruct struct layout]
+  (let [block-layout (.layout struct layout)]
+    (conj (mapv #(.offset block-layout (int %)) (range (.memberCount block-layout)))
+          (.size block-layout))))
+
+(deftest scalars-vectors-and-matrices
+  (is (= [4 8 16 16] (map #(.baseAlignment (GLSL/type %) std140) ["uint" "ivec2" "bvec3" "vec4"])))
+  (is (= [32 16] (map #(.sizeof (GLSL/type "mat2") %) [std140 std430])))
+  (is (= [48 48] (map #(.sizeof (GLSL/type "mat3") %) [std140 std430])))
+  (is (= 64 (.sizeof (GLSL/type "mat4") std430)))
+  (is (= 24 (.sizeof (GLSL/type "mat3x2"))))
+  (is (= (GLSL/type "mat4") (GLSL/type "mat4x4"))))
+
+(deftest vec3-packs-a-following-scalar
+  (let [s (struct-of "S" "position" "vec3" "intensity" "float" "color" "vec3")]
+    (is (= [0 12 16 32] (offsets s std140)))
+    (is (= [0 12 16 32] (offsets s std430)))))
+
+(deftest arrays
+  (let [floats (GLSL/array (GLSL/type "float") 3)]
+    (is (= [16 4] [(.stride floats std140) (.stride floats std430)]))
+    (is (= [48 12] [(.sizeof floats std140) (.sizeof floats std430)])))
+  (let [s (struct-of "S" "weights" (GLSL/array (GLSL/type "float") 3) "after" "int")]
+    (is (= [0 48 64] (offsets s std140)))
+    (is (= [0 12 16] (offsets s std430)))))
+
+(deftest nested-structs
+  (let [light (struct-of "Light" "position" "vec3" "on" "bool")
+        s (struct-of "Lights" "count" "uint" "lights" (GLSL/array light 2) "ambient" "vec2")]
+    (is (= [0 12 16] (offsets light std140)))
+    (is (= [0 16 48 64] (offsets s std140)))
+    (is (= [0 16 48 64] (offsets s std430)))))
+
+(deftest mvp-block
+  (let [s (struct-of "UniformBufferObject" "model" "mat4" "view" "mat4" "projection" "mat4")]
+    (is (= [0 64 128 192] (offsets s std140)))
+    (is (= 64 (.offset (.layout s std140) "view")))))
@@ -0,0 +1,25 @@
+(ns clojure-vulkan.log-histogram-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan LogHistogram)))
+
+(defn- within? [expected actual relative-error]
+  (<= (Math/abs (- (double expected) actual)) (* relative-error expected)))
+
+(deftest percentiles
+  (let [histogram (LogHistogram. 1000000)]
+    (is (zero? (.valueAtPercentile histogram 99)))
+    (doseq [v (range 1 10001)]
+      (.record histogram v))
+    (is (= 10000 (.count histogram)))
+    (is (= 10000 (.max histogram)))
+    (is (within? 5000 (.valueAtPercentile histogram 50) 0.016))
+    (is (within? 9900 (.valueAtPercentile histogram 99) 0.016))
+    (is (within? 9990 (.valueAtPercentile histogram 99.9) 0.016))
+    (is (= 10000 (.valueAtPercentile histogram 100)))
+    (testing "small values are exact"
+      (.reset histogram)
+      (run! #(.record histogram %) [3 7 7 100])
+      (is (= [7 100] [(.valueAtPercentile histogram 50) (.valueAtPercentile histogram 99)])))
+    (testing "values above the highest trackable one are clamped"
+      (.record histogram Long/MAX_VALUE)
+      (is (= 1000000 (.max histogram))))))
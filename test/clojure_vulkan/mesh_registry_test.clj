@@ -0,0 +1,74 @@
+(ns clojure-vulkan.mesh-registry-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan DrawBatcher MeshRegistry MeshRegistry$Mesh ResourceRegistry)
+           (org.lwjgl.system MemoryUtil)))
+
+(defn- handle [^MeshRegistry$Mesh mesh]
+  [(.firstIndex mesh) (.vertexOffset mesh) (.indexCount mesh)])
+
+(deftest arenas
+  (let [registry (MeshRegistry. 100 300)
+        a (.add registry 40 120)
+        b (.add registry 40 120)]
+    (is (= [[0 0 120] [120 40 120]] [(handle a) (handle b)]))
+    (is (thrown? RuntimeException (.add registry 40 10)) "vertex arena full")
+    (is (= [80 240] [(.usedVertices registry) (.usedIndices registry)]) "a failed add reserves nothing")
+    (.remove registry a)
+    (ResourceRegistry/drain 0 -1)
+    (is (thrown? RuntimeException (.add registry 40 10)) "the frames in flight may still draw it")
+    (.remove registry b)
+    (ResourceRegistry/drain 0 0)
+    (is (= [0 0] [(.usedVertices registry) (.usedIndices registry)]))
+    (is (= [0 0 300] (handle (.add registry 100 300))) "freed neighbours coalesce")))
+
+(deftest wide-index-arena
+  (let [registry (MeshRegistry. 100 300 1000)
+        narrow (.add registry 10 30)
+        wide (.add registry 80 900 true)]
+    (is (= [[0 0 30] [0 10 900]] [(handle narrow) (handle wide)]))
+    (is (.wideIndices wide))
+    (is (= [30 900] [(.usedIndices registry) (.usedWideIndices registry)]))
+    (.remove registry wide)
+    (ResourceRegistry/drain 0 0)
+    (is (= [30 0] [(.usedIndices registry) (.usedWideIndices registry)]))))
+
+(deftest indirect-commands
+  (let [registry (MeshRegistry. 100 300 300)
+        meshes [(.add registry 4 6) (.add registry 8 36)]
+        wide-mesh (.add registry 20 60 true)
+        batcher (DrawBatcher. 4)
+        address (MemoryUtil/nmemAlloc (* 2 4 DrawBatcher/COMMAND_BYTES))
+        commands #(vec (for [i (range (* 2 4 DrawBatcher/COMMAND_INTS))]
+                         (MemoryUtil/memGetInt (+ address (* i Integer/BYTES)))))
+        no-wide-draws (repeat 20 0)]
+    (try
+      (MemoryUtil/memSet address 0 (* 2 4 DrawBatcher/COMMAND_BYTES))
+      (doseq [mesh (concat meshes meshes)]
+        (.add batcher mesh))
+      (.write batcher 0 address)
+      (is (= (concat [6 1 0 0 0, 36 1 6 4 0, 6 1 0 0 0, 36 1 6 4 0] no-wide-draws) (commands)))
+      (.clear batcher)
+      (.add batcher (second meshes) 3 1)
+      (.add batcher wide-mesh)
+      (.write batcher 0 address)
+      (is (= (concat [36 3 6 4 1] (repeat 15 0) [60 1 0 12 0] (repeat 15 0)) (commands))
+          "the previous list's draws are emptied, and 32-bit meshes are drawn from the second half")
+      (is (thrown? RuntimeException (dotimes [_ 4] (.add batcher (first meshes)))))
+      (finally
+        (.free batcher)
+        (MemoryUtil/nmemFree address)))))
+
+(deftest recorded-draws
+  (let [registry (MeshRegistry. 100 300 300)
+        mesh (.add registry 4 6)
+        batcher (DrawBatcher. 8)
+        add-draws (fn [n] (.clear batcher) (dotimes [_ n] (.add batcher mesh)) (.cover batcher))]
+    (try
+      (is (add-draws 3))
+      (is (= [4 0] [(.recorded batcher 0) (.recorded batcher 1)]) "rounded up to a power of two")
+      (is (not (add-draws 4)) "a list the recorded draws still cover needs no re-recording")
+      (is (not (add-draws 1)) "nor does a shorter one")
+      (is (add-draws 7))
+      (is (= 8 (.recorded batcher 0)) "at most the capacity")
+      (finally
+        (.free batcher)))))
@@ -0,0 +1,36 @@
+(ns clojure-vulkan.mip-chain-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan MipChain)
+           (java.util.concurrent ForkJoinPool)
+           (org.lwjgl.system MemoryUtil)))
+
+(defn- chain-texels
+  "Generates the chain of a `width`x`height` image filled by `texel-fn` of [x y] and returns its levels as vectors of
+  [r g b a] texels."
+  [width height texel-fn]
+  (let [offsets (MipChain/levelOffsets width height)
+        chain (MemoryUtil/memAlloc (int (last offsets)))]
+    (try
+      (doseq [y (range height) x (range width)]
+        (.put chain (byte-array (map unchecked-byte (texel-fn x y)))))
+      (MipChain/generate (MemoryUtil/memAddress (.rewind chain)) width height (ForkJoinPool/commonPool))
+      (vec (for [level (range (MipChain/levelCount width height))]
+             (vec (for [texel (range (aget offsets level) (aget offsets (inc level)) 4)]
+                    (mapv #(bit-and 0xFF (.get chain (int (+ texel %)))) (range 4))))))
+      (finally
+        (MemoryUtil/memFree chain)))))
+
+(deftest chain-layout
+  (is (= 1 (MipChain/levelCount 1 1)))
+  (is (= 11 (MipChain/levelCount 1024 1024)))
+  (is (= 3 (MipChain/levelCount 5 3)))
+  (is (= [0 60 68 72] (vec (MipChain/levelOffsets 5 3))) "5x3, 2x1, 1x1"))
+
+(deftest downsampling
+  (testing "a flat image stays flat on every level"
+    (is (every? #(every? #{[10 120 250 77]} %) (chain-texels 64 48 (constantly [10 120 250 77])))))
+  (testing "black and white average to 50% linear intensity, not to sRGB 128"
+    (is (= [[188 188 188 128]] (peek (chain-texels 2 2 (fn [x y] (if (= x y) [0 0 0 0] [255 255 255 255])))))))
+  (testing "the last column of an odd width isn't dropped"
+    (is (= [[0 0 0 255] [156 156 156 255]]
+           (second (chain-texels 5 1 (fn [x _] (if (= x 4) [255 255 255 255] [0 0 0 255]))))))))
@@ -0,0 +1,61 @@
+(ns clojure-vulkan.model-test
+  (:require [clojure.java.io :as io]
+            [clojure.test :refer :all]
+            [clojure-vulkan.model :as model])
+  (:import (clojure_vulkan ModelLoader ModelLoader$MeshConsumer ModelLoader$Source)
+           (java.io File)
+           (java.nio FloatBuffer)))
+
+(defn- obj-file
+  "A temporary OBJ file of the lines."
+  ^File [lines]
+  (doto (File/createTempFile "model" ".obj")
+    (.deleteOnExit)
+    (spit (apply str (interpose \newline lines)))))
+
+(defn- grid-obj
+  "A grid of n by n vertices, each face with its own corners."
+  [n]
+  (obj-file (concat (for [y (range n) x (range n)]
+                      (str "v " x " " y " 0"))
+                    (for [y (range (dec n)) x (range (dec n))
+                          :let [v (+ 1 x (* y n))]]
+                      (str "f " v " " (inc v) " " (+ v n 1) " " (+ v n))))))
+
+(defn- load-meshes
+  "The vertex count, index count and whether indices are wide, per mesh, and the vertices of the first mesh."
+  [^ModelLoader loader ^File file]
+  (let [meshes (volatile! [])]
+    (.load loader (.getPath file)
+           (reify ModelLoader$MeshConsumer
+             (accept [_ mesh]
+               (let [^FloatBuffer vertices (.asFloatBuffer (.vertices mesh))]
+                 (vswap! meshes conj {:counts   [(.vertexCount mesh) (.indexCount mesh) (.wideIndices mesh)]
+                                      :vertices (vec (repeatedly (.remaining vertices) #(.get vertices)))})))))
+    @meshes))
+
+(deftest vertex-layout
+  (let [layout (model/vertex-layout {:in [{:name "inTexCoord" :location 2 :components 2}
+                                          {:name "inPosition" :location 0 :components 3}
+                                          {:name "inColor" :location 1 :components 3}]})]
+    (is (= 8 (/ (.vertexStride (ModelLoader. layout)) Float/BYTES)))
+    (is (= [ModelLoader$Source/POSITION ModelLoader$Source/NONE]
+           (map model/attribute-source ["inPosition" "inTangent"])))))
+
+(deftest deduplication
+  (let [loader (ModelLoader. (model/vertex-layout {:in [{:name "inPosition" :location 0 :components 3}
+                                                         {:name "inColor" :location 1 :components 3}
+                                                         {:name "inTexCoord" :location 2 :components 2}]}))]
+    (try
+      (let [[{:keys [counts vertices]}] (load-meshes loader (obj-file ["v 0 0 0" "v 1 0 0" "v 1 1 0" "v 0 1 0"
+                                                                        "vt 0 0" "vt 1 0" "vt 1 1" "vt 0 1"
+                                                                        "f 1/1 2/2 3/3" "f 1/1 3/3 4/4"]))]
+        (is (= [4 6 false] counts) "the corners shared by both triangles are merged")
+        (is (= [0.0 0.0 0.0, 1.0 1.0 1.0, 0.0 1.0] (subvec vertices 0 8))
+            "missing colors are white and texture coordinates start at the top"))
+      (is (= [[90000 (* 6 299 299) true]] (map :counts (load-meshes loader (grid-obj 300))))
+          "more than 65536 vertices need 32-bit indices")
+      (is (= [[1600 (* 6 39 39) false]] (map :counts (load-meshes loader (grid-obj 40))))
+          "a smaller mesh after it goes back to 16-bit indices")
+      (finally
+        (.free loader)))))
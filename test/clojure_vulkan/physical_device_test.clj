@@ -0,0 +1,13 @@
+(ns clojure-vulkan.physical-device-test
+  (:require [clojure.test :refer :all]
+            [clojure-vulkan.physical-device :as physical-device])
+  (:import (org.lwjgl.vulkan VK13)))
+
+(def graphics (bit-or VK13/VK_QUEUE_GRAPHICS_BIT VK13/VK_QUEUE_COMPUTE_BIT VK13/VK_QUEUE_TRANSFER_BIT))
+(def compute (bit-or VK13/VK_QUEUE_COMPUTE_BIT VK13/VK_QUEUE_TRANSFER_BIT))
+(def transfer VK13/VK_QUEUE_TRANSFER_BIT)
+
+(deftest transfer-family
+  (is (= 2 (physical-device/transfer-family [graphics compute transfer] 0)))
+  (is (= 1 (physical-device/transfer-family [graphics compute] 0)))
+  (is (= 0 (physical-device/transfer-family [graphics] 0))))
@@ -0,0 +1,48 @@
+(ns clojure-vulkan.pipeline-cache-test
+  (:require [clojure.test :refer :all]
+            [clojure-vulkan.pipeline-cache :as pipeline-cache])
+  (:import (java.nio ByteBuffer ByteOrder)
+           (org.lwjgl.system MemoryStack MemoryUtil)
+           (org.lwjgl.vulkan VK13 VkPipelineCreationFeedback)))
+
+(def device {:header-size    32
+             :header-version VK13/VK_PIPELINE_CACHE_HEADER_VERSION_ONE
+             :vendor-id      0x10005
+             :device-id      0
+             :uuid           (vec (range 16))})
+
+(defn- blob [{:keys [header-size header-version vendor-id device-id uuid]} payload-size]
+  (let [buf (.order (ByteBuffer/allocate (+ 32 payload-size)) (ByteOrder/nativeOrder))]
+    (.putInt buf (int header-size))
+    (.putInt buf (int header-version))
+    (.putInt buf (int vendor-id))
+    (.putInt buf (int device-id))
+    (.put buf (byte-array (map byte uuid)))
+    (.rewind buf)))
+
+(deftest header-validation
+  (is (= device (pipeline-cache/cache-header (blob device 100))))
+  (is (pipeline-cache/compatible-header? (pipeline-cache/cache-header (blob device 0)) device))
+  (is (nil? (pipeline-cache/cache-header (.limit (blob device 0) 31))) "truncated")
+  (are [k v] (not (pipeline-cache/compatible-header? (pipeline-cache/cache-header (blob (assoc device k v) 10)) device))
+    :header-version 2
+    :vendor-id 0x1002
+    :device-id 7
+    :uuid (vec (reverse (range 16)))))
+
+(deftest hit-miss-classification
+  (with-open [stack (MemoryStack/stackPush)]
+    (reset! pipeline-cache/stats {:hit 0 :hit-nanos 0 :miss 0 :miss-nanos 0 :unknown 0 :unknown-nanos 0})
+    (let [feedback (pipeline-cache/creation-feedback stack 2)
+          report (fn [flags duration]
+                   (let [address (.address (.pPipelineCreationFeedback feedback))]
+                     (MemoryUtil/memPutInt (+ address VkPipelineCreationFeedback/FLAGS) flags)
+                     (MemoryUtil/memPutLong (+ address VkPipelineCreationFeedback/DURATION) duration)
+                     (pipeline-cache/record-creation "test pipeline" feedback 999)))]
+      (is (= :miss (report VK13/VK_PIPELINE_CREATION_FEEDBACK_VALID_BIT 2000000)))
+      (is (= :hit (report (bit-or VK13/VK_PIPELINE_CREATION_FEEDBACK_VALID_BIT
+                                  VK13/VK_PIPELINE_CREATION_FEEDBACK_APPLICATION_PIPELINE_CACHE_HIT_BIT)
+                          30000)))
+      (is (= :unknown (report 0 5)))
+      (is (= {:hit 1 :hit-nanos 30000 :miss 1 :miss-nanos 2000000 :unknown 1 :unknown-nanos 999}
+             @pipeline-cache/stats)))))
@@ -0,0 +1,49 @@
+(ns clojure-vulkan.resource-registry-test
+  (:require [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan ResourceRegistry ResourceRegistry$Type)
+           (org.lwjgl.system NativeResource)))
+
+(defn- resource
+  "A native resource which counts how often it has been freed."
+  ^NativeResource [frees]
+  (reify NativeResource
+    (free [this]
+      (swap! frees inc)
+      (ResourceRegistry/unregister this))))
+
+(deftest leak-report
+  (let [frees (atom 0)
+        buffer (resource frees)
+        image (resource frees)]
+    (ResourceRegistry/register buffer ResourceRegistry$Type/BUFFER 4096)
+    (ResourceRegistry/register image ResourceRegistry$Type/IMAGE 65536)
+    (is (= [4096 65536] [(ResourceRegistry/liveBytes ResourceRegistry$Type/BUFFER)
+                         (ResourceRegistry/liveBytes ResourceRegistry$Type/IMAGE)]))
+    (.free buffer)
+    (let [report (ResourceRegistry/leakReport)]
+      (is (= 1 (count (str/split-lines report))))
+      (is (str/includes? report "IMAGE")))
+    (.free image)
+    (is (= "" (ResourceRegistry/leakReport)))))
+
+(deftest creation-sites
+  (let [image (resource (atom 0))]
+    (ResourceRegistry/setCaptureSites true)
+    (try
+      (ResourceRegistry/register image ResourceRegistry$Type/IMAGE 1)
+      (is (str/includes? (ResourceRegistry/leakReport) "resource_registry_test"))
+      (finally
+        (ResourceRegistry/setCaptureSites false)
+        (.free image)))))
+
+(deftest deferred-destruction
+  (let [frees (atom 0)
+        buffer (resource frees)]
+    (ResourceRegistry/register buffer ResourceRegistry$Type/BUFFER 256)
+    (ResourceRegistry/destroyLater buffer)
+    (ResourceRegistry/drain 0 -1)
+    (is (= [0 1 true] [@frees (ResourceRegistry/pendingCount) (ResourceRegistry/isLive buffer)])
+        "the frame which queued it hasn't completed")
+    (ResourceRegistry/drain 0 0)
+    (is (= [1 0 false] [@frees (ResourceRegistry/pendingCount) (ResourceRegistry/isLive buffer)]))))
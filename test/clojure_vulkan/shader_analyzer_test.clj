@@ -0,0 +1,94 @@
+(ns clojure-vulkan.shader-analyzer-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan ShaderAnalyzer)))
+
+(defn- analyze [src]
+  (vec (ShaderAnalyzer/analyze src)))
+
+(deftest existing-shader-syntax
+  (is (= [{:name "inPosition" :mode :in :type :vec3 :location 0}
+          {:name "fragColor" :mode :out :type :vec3 :location 0}
+          {:name "UniformBufferObject" :mode :uniform :type :unknown :binding 0
+           :members [{:name "model" :type :mat4}]}
+          {:name "sampler2D" :mode :uniform :type :unknown :binding 1}]
+         (analyze "#version 450
+                   layout (location = 0) in vec3 inPosition;
+                   layout (location = 0) out vec3 fragColor;
+                   layout (binding = 0) uniform UniformBufferObject {
+                       mat4 model;
+                   } mvp;
+                   layout (binding = 1) uniform sampler2D texSampler;
+                   void main() {}"))))
+
+(deftest comments-are-skipped
+  (is (= [{:name "b" :mode :in :type :vec2 :location 1}]
+         (analyze "// layout (location = 0) in vec3 a;
+                   /* layout (location = 2) in vec3 c;
+                      */ layout (location = 1) in /* vec4 */ vec2 b; // trailing"))))
+
+(deftest compact-and-multi-qualifier-layouts
+  (is (= [{:name "UBO" :mode :uniform :type :unknown :binding 2 :members [{:name "m" :type :mat4}]}
+          {:name "color" :mode :out :type :vec4 :location 3}
+          {:name "id" :mode :in :type :uint :location 0}]
+         (analyze "layout(std140, set = 0, binding = 2) uniform UBO { mat4 m; } ubo;
+                   layout(location=3)out vec4 color;
+                   layout(location = 0) flat in highp uint id;"))))
+
+(deftest arrays-and-multiple-declarators
+  (is (= [{:name "weights" :mode :in :type :float :location 0 :array-size 4}
+          {:name "a" :mode :out :type :vec2 :location 1}
+          {:name "b" :mode :out :type :vec2 :location 2}
+          {:name "Lights" :mode :uniform :type :unknown :binding 0 :array-size 8
+           :members [{:name "position" :type :vec4}]}
+          {:name "sampler2D" :mode :uniform :type :unknown :binding 1 :array-size 16}]
+         (analyze "layout (location = 0) in float weights[4];
+                   layout (location = 1) out vec2 a, b;
+                   layout (binding = 0) uniform Lights { vec4 position; } lights[8];
+                   layout (binding = 1) uniform sampler2D textures[16];"))))
+
+(deftest block-members
+  (is (= [{:name "Scene" :mode :uniform :type :unknown :binding 0
+           :members [{:name "viewProjection" :type :mat4}
+                     {:name "near" :type :float}
+                     {:name "far" :type :float}
+                     {:name "lights" :type :Light :array-size 4
+                      :members [{:name "position" :type :vec3} {:name "color" :type :vec3}]}
+                     {:name "normal" :type :mat3}]}]
+         (analyze "struct Light {
+                       vec3 position;
+                       vec3 color;
+                   };
+                   layout (std140, binding = 0) uniform Scene {
+                       layout(row_major) mat4 viewProjection;
+                       highp float near, far;
+                       Light lights[4];
+                       mat3 normal; // for normals
+                   } scene;"))))
+
+(deftest interface-blocks
+  (is (= [{:name "VS_OUT" :mode :out :type :unknown :location 0 :members [{:name "color" :type :vec3}]}
+          {:name "uv" :mode :out :type :vec2 :location 2}]
+         (analyze "layout(location = 0) out VS_OUT { vec3 color; } vs_out;
+                   layout(location = 2) out vec2 uv;"))))
+
+(deftest multi-location-types
+  (is (= [{:name "m" :mode :in :type :mat4 :location 0}
+          {:name "n" :mode :in :type :mat4 :location 4}
+          {:name "d" :mode :in :type :dvec4 :location 8}
+          {:name "e" :mode :in :type :dvec4 :location 10 :array-size 2}
+          {:name "f" :mode :in :type :dvec4 :location 14}
+          {:name "g" :mode :in :type :dmat2x4 :location 15}
+          {:name "h" :mode :in :type :dmat2x4 :location 19}]
+         (analyze "layout(location = 0) in mat4 m, n;
+                   layout(location = 8) in dvec4 d, e[2], f;
+                   layout(location = 15) in dmat2x4 g, h;"))))
+
+(deftest declarations-without-location-or-binding-are-ignored
+  (is (= []
+         (analyze "layout (local_size_x = 64) in;
+                   layout (push_constant) uniform Constants { mat4 m; } constants;
+                   layout (std430, binding = 0) buffer Data { float values[]; };"))))
+
+(deftest malformed-layout
+  (is (thrown-with-msg? RuntimeException #"line 2"
+                        (analyze "#version 450\nlayout (location = x) in vec3 a;"))))
@@ -0,0 +1,123 @@
+(ns clojure-vulkan.shaders-test
+  (:require [clojure.java.io :as io]
+            [clojure.test :refer :all]
+            [clojure-vulkan.shaders :as shaders])
+  (:import (java.io File)
+           (java.nio ByteBuffer)
+           (java.nio.charset StandardCharsets)
+           (java.nio.file Files)
+           (java.nio.file.attribute FileAttribute)
+           (java.util.concurrent ConcurrentHashMap)
+           (org.lwjgl.system MemoryUtil NativeResource)))
+
+(defn- temp-dir ^File []
+  (.toFile (Files/createTempDirectory "shaders-test" (make-array FileAttribute 0))))
+
+(defmacro with-shaders-root [root & body]
+  `(let [root# (str ~root "/")]
+     (with-redefs [shaders/shader-sources-root (str root# "sources/")
+                   shaders/compiled-shaders-root (str root# "compiled/")
+                   shaders/precompiled-shaders-database-file (str root# "index.edn")]
+       (.mkdirs (File. (str root# "sources/")))
+       (.mkdirs (File. (str root# "compiled/")))
+       ~@body)))
+
+(deftest cache-keys
+  (with-shaders-root (temp-dir)
+    (spit (str shaders/shader-sources-root "common.glsl") "#include \"deeper.glsl\"\nconst float x = 1.0;")
+    (spit (str shaders/shader-sources-root "deeper.glsl") "const float y = 1.0;")
+    (let [source "#version 450\n#include \"common.glsl\"\nvoid main() {}"
+          key (shaders/cache-key source :shader-type/fragment)]
+      (is (re-matches #"[0-9a-f]{16}" key))
+      (is (= key (shaders/cache-key source :shader-type/fragment)))
+      (is (not= key (shaders/cache-key source :shader-type/vertex)))
+      (is (not= key (shaders/cache-key (str source "\n") :shader-type/fragment)))
+      (with-redefs [shaders/compiler-options "-O"]
+        (is (not= key (shaders/cache-key source :shader-type/fragment))))
+      (spit (str shaders/shader-sources-root "deeper.glsl") "const float y = 2.0;")
+      (is (not= key (shaders/cache-key source :shader-type/fragment)) "transitive includes are part of the key"))))
+
+(defn- blob ^ByteBuffer [^String s]
+  (ByteBuffer/wrap (.getBytes s StandardCharsets/UTF_8)))
+
+(defn- lookup-string [db key]
+  (when-let [^ByteBuffer bytecode (shaders/lookup db key)]
+    (let [bytes (byte-array (.remaining bytecode))]
+      (.get (.duplicate bytecode) bytes)
+      (String. bytes StandardCharsets/UTF_8))))
+
+(deftest append-only-index
+  (with-shaders-root (temp-dir)
+    (let [db (shaders/->ShaderDatabase (ConcurrentHashMap.) nil)
+          entry (fn [key source] {:key key :source source :codec :none :blob (blob key) :raw-length (count key)})]
+      (spit shaders/precompiled-shaders-database-file "")
+      (shaders/load db)
+      (shaders/add-compiled-shaders db [(entry "aa" "a.vert") (entry "bbb" "b.frag")])
+      (is (= "aa" (lookup-string db "aa")))
+      (is (= "bbb" (lookup-string db "bbb")))
+      (is (nil? (shaders/lookup db "cc")))
+      (testing "concurrent inserts all land in the pack and the index file"
+        (run! deref (doall (for [i (range 50)]
+                             (future (shaders/add-compiled-shaders db [(entry (str "k" i) "x.vert")]))))))
+      (spit shaders/precompiled-shaders-database-file "{:key \"torn" :append true)
+      (let [reloaded (shaders/->ShaderDatabase (ConcurrentHashMap.) nil)]
+        (shaders/load reloaded)
+        (is (= "bbb" (lookup-string reloaded "bbb")))
+        (is (= "k42" (lookup-string reloaded "k42")))
+        (is (= 52 (.size ^ConcurrentHashMap (.-index reloaded))))
+        (is (every? #(zero? (mod (:offset %) 16)) (vals (.-index reloaded))))))))
+
+(deftest compressed-pack-entries
+  (with-shaders-root (temp-dir)
+    (let [db (shaders/->ShaderDatabase (ConcurrentHashMap.) nil)
+          spirv (apply str (repeat 64 "spirv"))]
+      (spit shaders/precompiled-shaders-database-file "")
+      (shaders/load db)
+      (doseq [codec [:none :lz4 :zstd]]
+        (let [source (MemoryUtil/memUTF8 spirv false)
+              [codec compressed] (#'shaders/compress codec source)]
+          (shaders/add-compiled-shaders db [{:key (name codec) :source "x.frag" :codec codec :blob compressed
+                                             :raw-length (count spirv)}])
+          (when (not= codec :none)
+            (is (< (.remaining ^ByteBuffer compressed) (count spirv)))
+            (MemoryUtil/memFree compressed))
+          (MemoryUtil/memFree source)
+          (let [^ByteBuffer bytecode (shaders/lookup db (name codec))]
+            (is (= spirv (MemoryUtil/memUTF8 bytecode)))
+            (if (= codec :none)
+              (is (.isReadOnly bytecode) "uncompressed entries are not copied out of the mapping")
+              (MemoryUtil/memFree bytecode))))))))
+
+(deftest parallel-batch-compile
+  (with-shaders-root (temp-dir)
+    (spit shaders/precompiled-shaders-database-file "")
+    (let [db (shaders/->ShaderDatabase (ConcurrentHashMap.) nil)
+          fragment (fn [color] (str "#version 450\nlayout(location = 0) out vec4 c;\nvoid main() { c = vec4(" color "); }"))
+          batch (mapv (fn [i]
+                        (spit (str shaders/shader-sources-root i ".frag") (fragment (str (/ i 10.0))))
+                        {:source (str i ".frag") :stage :shader-type/fragment})
+                      (range 6))
+          compile (fn [batch] (shaders/compile-shaders batch 3))
+          free-all (fn [results] (run! #(.free ^NativeResource (:shader %)) results))]
+      (shaders/load db)
+      (with-redefs [shaders/THE-DATABASE db]
+        (let [results (compile batch)]
+          (is (= (map :source batch) (map :source results)) "results come back in input order")
+          (is (not-any? :cached? results))
+          (free-all results))
+        (let [results (compile batch)]
+          (is (every? :cached? results) "the second batch is loaded from the cache")
+          (free-all results))
+        (testing "a failure frees the other results and is rethrown"
+          (spit (str shaders/shader-sources-root "broken.frag") "#version 450\nvoid main() { undeclared = 1; }")
+          (spit (str shaders/shader-sources-root "new.frag") (fragment "1.0"))
+          (let [freed (atom nil)
+                free-compiled @#'shaders/free-compiled]
+            (with-redefs [shaders/free-compiled (fn [outcomes]
+                                                  (reset! freed (count outcomes))
+                                                  (free-compiled outcomes))]
+              (is (thrown-with-msg? RuntimeException #"broken\.frag"
+                                    (compile [{:source "broken.frag" :stage :shader-type/fragment}
+                                              {:source "new.frag" :stage :shader-type/fragment}
+                                              (first batch)])))
+              (is (= 2 @freed)))))))))
@@ -0,0 +1,68 @@
+(ns clojure-vulkan.spirv-reflection-test
+  (:require [clojure.test :refer :all]
+            [clojure.walk :as walk])
+  (:import (clojure_vulkan ShaderAnalyzer SpirVReflection)
+           (java.nio ByteBuffer ByteOrder)
+           (org.lwjgl.util.shaderc Shaderc)
+           (org.lwjgl.vulkan VK13)))
+
+(defn- reflect [^String source stage]
+  (let [compiler (Shaderc/shaderc_compiler_initialize)
+        result (Shaderc/shaderc_compile_into_spv compiler source (int stage) "test.glsl" "main" 0)]
+    (try
+      (is (= Shaderc/shaderc_compilation_status_success (Shaderc/shaderc_result_get_compilation_status result))
+          (Shaderc/shaderc_result_get_error_message result))
+      (vec (SpirVReflection/reflect (Shaderc/shaderc_result_get_bytes result)))
+      (finally
+        (Shaderc/shaderc_result_release result)
+        (Shaderc/shaderc_compiler_release compiler)))))
+
+(defn- analyzer-keys [descriptions]
+  (walk/postwalk #(if (map? %) (dissoc % :set :descriptor-type :offset) %) descriptions))
+
+(def vertex-shader "#version 450
+struct Light {
+    vec3 position;
+    vec3 color;
+};
+layout (location = 0) in vec3 inPosition;
+layout (location = 1) in vec2 inTexCoord;
+layout (location = 0) out vec3 fragColor;
+layout (binding = 0) uniform Scene {
+    mat4 viewProjection;
+    float near;
+    Light lights[4];
+} scene;
+layout (set = 1, binding = 1) uniform sampler2D textures[16];
+void main() {
+    gl_Position = scene.viewProjection * vec4(inPosition + scene.lights[1].position * scene.near, 1.0);
+    fragColor = texture(textures[2], inTexCoord).rgb;
+}")
+
+(deftest same-maps-as-the-analyzer
+  (let [reflected (reflect vertex-shader Shaderc/shaderc_glsl_vertex_shader)]
+    (is (= (set (ShaderAnalyzer/analyze vertex-shader))
+           (set (analyzer-keys reflected))))
+    (is (= [0 64 80] (map :offset (:members (first (filter #(= "Scene" (:name %)) reflected))))))
+    (is (= [[0 VK13/VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER] [1 VK13/VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER]]
+           (map (juxt :set :descriptor-type) (filter #(= :uniform (:mode %)) reflected))))))
+
+(deftest push-constants-and-storage-buffers
+  (let [reflected (reflect "#version 450
+                            layout (push_constant) uniform Push { layout(offset = 16) mat4 model; vec4 tint; } push;
+                            layout (std430, binding = 2) buffer Particles { vec4 positions[]; } particles;
+                            layout (location = 0) out vec4 color;
+                            void main() { color = push.model * push.tint + particles.positions[gl_FragCoord.x > 0 ? 1 : 0]; }"
+                           Shaderc/shaderc_glsl_fragment_shader)
+        by-mode (group-by :mode reflected)]
+    (is (= [{:mode :push-constant :name "Push" :type :unknown :offset 16 :size 80
+             :members [{:name "model" :type :mat4 :offset 16} {:name "tint" :type :vec4 :offset 80}]}]
+           (:push-constant by-mode)))
+    (is (= [{:mode :uniform :name "Particles" :type :unknown :binding 2 :set 0
+             :descriptor-type VK13/VK_DESCRIPTOR_TYPE_STORAGE_BUFFER
+             :members [{:name "positions" :type :vec4 :array-size 0 :offset 0}]}]
+           (:uniform by-mode)))))
+
+(deftest rejects-garbage
+  (is (thrown? RuntimeException
+               (SpirVReflection/reflect (.order (ByteBuffer/allocate 64) ByteOrder/LITTLE_ENDIAN)))))
@@ -0,0 +1,56 @@
+(ns clojure-vulkan.texture-manager-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan ResourceRegistry StreamedTexture TextureManager)
+           (java.util.function Function)))
+
+(defn- resident-texture
+  "A resident texture of `bytes` without any device objects."
+  [[path bytes]]
+  (doto (StreamedTexture. path)
+    (.resident)
+    (-> .texture (.bytes bytes))))
+
+(defn- manager ^TextureManager [budget]
+  (TextureManager. (reify Function (apply [_ key] (resident-texture key))) budget))
+
+(deftest reference-counting
+  (let [manager (manager 100)
+        texture (.acquire manager ["a" 10])]
+    (is (identical? texture (.acquire manager ["a" 10])))
+    (is (= [1 1 2] [(.hits manager) (.misses manager) (.references manager ["a" 10])]))
+    (.release manager ["a" 10])
+    (.release manager ["a" 10])
+    (is (thrown? RuntimeException (.release manager ["a" 10])))))
+
+(deftest lru-eviction
+  (let [manager (manager 100)
+        keys [["a" 40] ["b" 40] ["c" 40]]]
+    (run! #(.acquire manager %) keys)
+    (.evict manager)
+    (is (= [0 120] [(.evictions manager) (.residentBytes manager)]) "referenced textures are never evicted")
+    (run! #(.release manager %) keys)
+    (.acquire manager ["a" 40])
+    (.release manager ["a" 40])
+    (.evict manager)
+    (is (= [1 80] [(.evictions manager) (.residentBytes manager)]))
+    (run! #(.acquire manager %) keys)
+    (is (= 4 (.misses manager)) "b was the least recently used, so b was evicted and loaded again")
+    (testing "destruction waits for the evicting frame to complete"
+      (let [pending (ResourceRegistry/pendingCount)]
+        (ResourceRegistry/drain 0 -1)
+        (is (= pending (ResourceRegistry/pendingCount)))
+        (ResourceRegistry/drain 0 0)
+        (is (= (dec pending) (ResourceRegistry/pendingCount)))))))
+
+(deftest only-acquisition-renews
+  (let [manager (manager 50)]
+    (.acquire manager ["a" 40])
+    (.acquire manager ["b" 40])
+    (.release manager ["b" 40])
+    (.release manager ["a" 40])
+    (.references manager ["a" 40])
+    (.evict manager)
+    (ResourceRegistry/drain 0 0)
+    (.acquire manager ["b" 40])
+    (is (= [1 2] [(.evictions manager) (.misses manager)])
+        "a was acquired first, so a was evicted: releasing it or counting its references doesn't renew it")))
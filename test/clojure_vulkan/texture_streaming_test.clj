@@ -0,0 +1,43 @@
+(ns clojure-vulkan.texture-streaming-test
+  (:require [clojure.test :refer :all]
+            [clojure-vulkan.texture-streaming :as texture-streaming])
+  (:import (clojure_vulkan MipChain)
+           (clojure_vulkan.Vulkan StreamedTexture StreamedTexture$State Texture)
+           (java.util.concurrent ConcurrentLinkedQueue)
+           (org.lwjgl.system MemoryUtil)))
+
+(def ^ConcurrentLinkedQueue decoded @#'texture-streaming/decoded)
+
+(use-fixtures :each (fn [test]
+                      (try (test)
+                           (finally
+                             (run! #(.free ^StreamedTexture %) decoded)
+                             (.clear decoded)))))
+
+(deftest decoding
+  (let [texture (StreamedTexture. "pavian.jpg")]
+    (#'texture-streaming/decode texture)
+    (is (= StreamedTexture$State/DECODED (.state texture)))
+    (is (= (MipChain/levelCount (.width texture) (.height texture)) (.mipLevels texture)))
+    (is (= (MipChain/chainSize (.width texture) (.height texture)) (.remaining (.pixels texture))))
+    (is (= [texture] (vec decoded))))
+  (let [texture (StreamedTexture. "missing.png")]
+    (#'texture-streaming/decode texture)
+    (is (= StreamedTexture$State/FAILED (.state texture)))
+    (is (some? (.failure texture)))
+    (is (= 1 (count decoded)))))
+
+(defn- decoded-texture [size]
+  (doto (StreamedTexture. (str size))
+    (.decoded (MemoryUtil/memAlloc size) false size 1)))
+
+(deftest upload-budget
+  (let [textures (mapv decoded-texture [100 200 300])
+        placeholder (Texture.)]
+    (run! #(.add decoded %) textures)
+    (is (= (subvec textures 0 2) (#'texture-streaming/drain-decoded 350)))
+    (is (= [(textures 2)] (#'texture-streaming/drain-decoded 10)) "an oversized texture still makes a batch of its own")
+    (is (empty? (#'texture-streaming/drain-decoded 1000)))
+    (.textureImageViewPointer placeholder 42)
+    (is (= 42 (.imageView ^StreamedTexture (textures 0) placeholder)))
+    (run! #(.free ^StreamedTexture %) textures)))
@@ -0,0 +1,90 @@
+(ns clojure-vulkan.uniform-writer-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan ShaderAnalyzer UniformWriter)
+           (clojure_vulkan.Vulkan RingAllocator UniformScratch)
+           (com.sun.management ThreadMXBean)
+           (java.lang.management ManagementFactory)
+           (java.nio ByteBuffer ByteOrder)
+           (org.joml Matrix3f Matrix4f Vector3f)
+           (org.lwjgl.system MemoryUtil)))
+
+(def scene-block
+  (first (ShaderAnalyzer/analyze "struct Light { vec3 position; float intensity; };
+                                  layout (binding = 0) uniform Scene {
+                                      mat4 model;
+                                      mat3 normal;
+                                      float weights[3];
+                                      Light lights[2];
+                                      uint count;
+                                  } scene;")))
+
+(defn- floats-at [^ByteBuffer buf offset n]
+  (mapv #(.getFloat buf (int (+ offset (* 4 %)))) (range n)))
+
+(deftest writes-through-the-offset-table
+  (let [writer (UniformWriter/create scene-block)
+        buf (.order (ByteBuffer/allocateDirect (* 2 (.size writer))) (ByteOrder/nativeOrder))
+        base 16]
+    (is (= 208 (.size writer)))
+    (is (= [0 64 112 160 188 192]
+           (mapv #(.offset writer (.field writer %)) ["model" "normal" "weights" "lights[0]" "lights[1].intensity" "count"])))
+    (.put writer buf (int base) (.field writer "model") (.translation (Matrix4f.) 1 2 3))
+    (is (= [1.0 2.0 3.0 1.0] (floats-at buf (+ base 48) 4)))
+    (.put writer buf (int base) (.field writer "normal") (Matrix3f. 1 2 3, 4 5 6, 7 8 9))
+    (is (= [1.0 2.0 3.0 0.0, 4.0 5.0 6.0 0.0, 7.0 8.0 9.0] (floats-at buf (+ base 64) 11)))
+    (.putFloats writer buf (int base) (.field writer "weights") (float-array [0.5 1.5 2.5]))
+    (is (= [0.5 1.5 2.5] (mapv #(first (floats-at buf (+ base 112 (* 16 %)) 1)) (range 3))))
+    (.put writer buf (int base) (.field writer "lights[1].position") (Vector3f. 4 5 6))
+    (.putFloat writer buf (int base) (.field writer "lights[1].intensity") (float 7))
+    (is (= [4.0 5.0 6.0 7.0] (floats-at buf (+ base 176) 4)))
+    (.putInt writer buf (int base) (.field writer "count") (int 3))
+    (is (= 3 (.getInt buf (int (+ base 192)))))
+    (is (zero? (.position buf)))
+    (testing "address variants write the same bytes"
+      (let [copy (.order (ByteBuffer/allocateDirect (.capacity buf)) (ByteOrder/nativeOrder))
+            address (+ (MemoryUtil/memAddress copy) base)]
+        (.put writer (long address) (.field writer "model") (.translation (Matrix4f.) 1 2 3))
+        (.put writer (long address) (.field writer "normal") (Matrix3f. 1 2 3, 4 5 6, 7 8 9))
+        (.putFloats writer (long address) (.field writer "weights") (float-array [0.5 1.5 2.5]))
+        (.put writer (long address) (.field writer "lights[1].position") (Vector3f. 4 5 6))
+        (.putFloat writer (long address) (.field writer "lights[1].intensity") (float 7))
+        (.putInt writer (long address) (.field writer "count") (int 3))
+        (is (= buf copy))))))
+
+(deftest rejects-bad-fields
+  (let [writer (UniformWriter/create scene-block)
+        buf (ByteBuffer/allocateDirect (.size writer))]
+    (is (thrown? RuntimeException (.field writer "missing")))
+    (is (thrown? RuntimeException (.field writer "lights[2]")))
+    (is (thrown? IllegalArgumentException (.putFloat writer buf (int 0) (.field writer "model") (float 1))))
+    (testing "float arrays must fit the array"
+      (is (thrown? IllegalArgumentException
+                   (.putFloats writer buf (int 0) (.field writer "weights") (float-array 4))))
+      (is (thrown? IllegalArgumentException
+                   (.putFloats writer (MemoryUtil/memAddress buf) (.field writer "weights") (float-array 4))))
+      (let [vectors (UniformWriter/create (first (ShaderAnalyzer/analyze "layout (binding = 0) uniform B {
+                                                                              vec2 uvs[2];
+                                                                          } b;")))]
+        (is (thrown? IllegalArgumentException
+                     (.putFloats vectors (MemoryUtil/memAddress buf) (.field vectors "uvs") (float-array 3)))
+            "only whole vectors")))))
+
+(deftest steady-state-update-allocates-nothing
+  (let [writer (UniformWriter/create (first (ShaderAnalyzer/analyze "layout (binding = 0) uniform UniformBufferObject {
+                                                                        mat4 model; mat4 view; mat4 projection;
+                                                                    } mvp;")))
+        scratch (UniformScratch.)
+        objects 16
+        dest (.order (ByteBuffer/allocateDirect (* objects 256)) (ByteOrder/nativeOrder))
+        ring (RingAllocator. (.capacity dest) 256)
+        ^ThreadMXBean threads (ManagementFactory/getThreadMXBean)
+        thread-id (.getId (Thread/currentThread))
+        run (fn [^long frames]
+              (dotimes [i frames]
+                (.update scratch writer dest ring (int objects) (* i 0.01) (int 800) (int 600))))]
+    (run 20000)
+    (let [before (.getThreadAllocatedBytes threads thread-id)
+          _ (run 10000)
+          allocated (- (.getThreadAllocatedBytes threads thread-id) before)]
+      ;; leaves room for the measurement itself, far below a single matrix per frame
+      (is (< allocated 1024) (str allocated " bytes allocated in 10000 frames")))))
@@ -0,0 +1,19 @@
+(ns clojure-vulkan.vk-handle-array-test
+  (:require [clojure.test :refer :all])
+  (:import (clojure_vulkan.Vulkan VulkanGlobalsInterfaces$VkHandleArray)))
+
+(deftest reallocation-keeps-the-handles-alive
+  (let [destroyed (atom [])
+        handles (proxy [VulkanGlobalsInterfaces$VkHandleArray] []
+                  (free []
+                    (dotimes [i (.size ^VulkanGlobalsInterfaces$VkHandleArray this)]
+                      (swap! destroyed conj (.get ^VulkanGlobalsInterfaces$VkHandleArray this (int i))))
+                    (proxy-super free)))]
+    (.put (doto handles (.allocate 2)) 1 42)
+    (.allocate handles 3)
+    (is (= [] @destroyed) "only free destroys the handles")
+    (is (= [0 0 0] (mapv #(.get handles (int %)) (range 3))))
+    (.put handles 0 7)
+    (.free handles)
+    (is (= [7 0 0] @destroyed))
+    (is (zero? (.size handles)))))